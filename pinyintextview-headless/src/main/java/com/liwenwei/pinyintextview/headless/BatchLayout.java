@@ -0,0 +1,114 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.PinyinLayout;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lays out many documents in parallel, for example every lesson at every supported screen width
+ * before a release. Each result is the same {@link PinyinLayout} the view computes in
+ * TYPE_PINYIN_AND_TEXT mode, compact int arrays of line starts and token positions.
+ * <p>
+ * The jobs are split across the fork/join pool by token count. Every worker thread measures
+ * with its own {@link TokenMeasurer} per style, so measurement caches are never shared or locked.
+ * The measurers belong to one call of {@link #layout(List)} and are dropped when it returns, the
+ * pool threads don't keep them.
+ */
+public final class BatchLayout {
+
+    /**
+     * Jobs with less tokens than this are not split anymore
+     */
+    private static final int SPLIT_THRESHOLD = 4096;
+
+    private final ForkJoinPool mPool;
+
+    /**
+     * Use the common fork/join pool, one worker per core.
+     */
+    public BatchLayout() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public BatchLayout(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Lay out all jobs, blocks until all of them are done.
+     *
+     * @return layout of each job, in the order of the jobs
+     */
+    public List<PinyinLayout> layout(List<LayoutJob> jobs) {
+        LayoutJob[] array = jobs.toArray(new LayoutJob[0]);
+        PinyinLayout[] results = new PinyinLayout[array.length];
+        long[] tokenCounts = new long[array.length + 1]; // prefix sum of token count
+        for (int i = 0; i < array.length; i++) {
+            tokenCounts[i + 1] = tokenCounts[i] + array[i].texts.length;
+        }
+
+        // measurers of each worker thread by style, for this call only
+        Map<Thread, Map<HeadlessPinyinRenderer, TokenMeasurer>> measurers = new ConcurrentHashMap<>();
+        mPool.invoke(new LayoutTask(array, results, tokenCounts, measurers, 0, array.length));
+        return Arrays.asList(results);
+    }
+
+    private static final class LayoutTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LayoutJob[] mJobs;
+        private final PinyinLayout[] mResults;
+        private final long[] mTokenCounts;
+        private final Map<Thread, Map<HeadlessPinyinRenderer, TokenMeasurer>> mMeasurers;
+        private final int mFrom;
+        private final int mTo;
+
+        LayoutTask(LayoutJob[] jobs, PinyinLayout[] results, long[] tokenCounts,
+                   Map<Thread, Map<HeadlessPinyinRenderer, TokenMeasurer>> measurers, int from, int to) {
+            mJobs = jobs;
+            mResults = results;
+            mTokenCounts = tokenCounts;
+            mMeasurers = measurers;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= 1 || mTokenCounts[mTo] - mTokenCounts[mFrom] <= SPLIT_THRESHOLD) {
+                Map<HeadlessPinyinRenderer, TokenMeasurer> measurers = mMeasurers.get(Thread.currentThread());
+                if (measurers == null) {
+                    // only this thread uses its map
+                    measurers = new HashMap<>();
+                    mMeasurers.put(Thread.currentThread(), measurers);
+                }
+                for (int i = mFrom; i < mTo; i++) {
+                    LayoutJob job = mJobs[i];
+                    TokenMeasurer measurer = measurers.get(job.style);
+                    if (measurer == null) {
+                        measurer = job.style.newMeasurer();
+                        measurers.put(job.style, measurer);
+                    }
+                    mResults[i] = job.style.layout(job.texts, job.pinyins, job.width, measurer);
+                }
+                return;
+            }
+
+            // split at the middle of the token count
+            long half = (mTokenCounts[mFrom] + mTokenCounts[mTo]) / 2;
+            int mid = Arrays.binarySearch(mTokenCounts, mFrom, mTo + 1, half);
+            if (mid < 0) {
+                mid = -mid - 1;
+            }
+            mid = Math.min(Math.max(mid, mFrom + 1), mTo - 1);
+            invokeAll(new LayoutTask(mJobs, mResults, mTokenCounts, mMeasurers, mFrom, mid),
+                    new LayoutTask(mJobs, mResults, mTokenCounts, mMeasurers, mid, mTo));
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.PinyinTokenFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Annotates a plain text corpus, like a textbook, into a {@link PinyinTokenFile} which
+ * {@link com.liwenwei.pinyintextview.PinyinTextView#loadTokens(File)} shows directly.
+ * <p>
+ * The corpus is streamed through three stages: the calling thread reads chunks of lines, the
+ * chunks are segmented and annotated by a {@link PinyinDictionary} on one worker per core, and a
+ * writer thread adds the annotated chunks to the token file in the order of the corpus. At most
+ * a few chunks per worker are in flight and the writer spills the tokens to temporary files, so
+ * the memory doesn't grow with the corpus. Line breaks are kept as tokens, so are the paragraphs.
+ * The time spent in each stage is reported in {@link Stats}.
+ * <pre>
+ * java -cp pinyintextview-headless.jar com.liwenwei.pinyintextview.headless.CorpusAnnotator \
+ *         --dict cedict_ts.u8 [--threads 8] book.txt book.pytk
+ * </pre>
+ */
+public final class CorpusAnnotator {
+
+    /**
+     * Chars read per chunk, a chunk ends at a line break
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final PinyinDictionary mDictionary;
+    private final int mThreads;
+
+    /**
+     * Annotate on one worker per core.
+     */
+    public CorpusAnnotator(PinyinDictionary dictionary) {
+        this(dictionary, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads count of annotating workers
+     * @throws IllegalArgumentException if the thread count is not positive
+     */
+    public CorpusAnnotator(PinyinDictionary dictionary, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        mDictionary = dictionary;
+        mThreads = threads;
+    }
+
+    /**
+     * Annotate a UTF-8 text file and write the tokens to the output file.
+     */
+    public Stats annotate(File input, File output) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8);
+        try {
+            return annotate(reader, output);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Annotate the text of the reader and write the tokens to the output file, the reader is not
+     * closed. Blocks until the file is written.
+     *
+     * @throws IOException if the text can't be read or the file can't be written
+     */
+    public Stats annotate(Reader reader, File output) throws IOException {
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer();
+        try {
+            return annotate(reader, output, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private Stats annotate(Reader reader, File output, final PinyinTokenFile.Writer writer) throws IOException {
+        final Stats stats = new Stats(mThreads);
+        // chunks in the order of the corpus, bounded so reading waits for the slowest stage
+        final BlockingQueue<Future<Chunk>> queue = new ArrayBlockingQueue<>(mThreads * 4);
+        final Future<Chunk> end = new EndOfCorpus();
+        final IOException[] writeError = new IOException[1];
+        ExecutorService workers = Executors.newFixedThreadPool(mThreads);
+        long startTime = System.nanoTime();
+
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Future<Chunk> future;
+                    while ((future = queue.take()) != end) {
+                        if (writeError[0] != null) {
+                            continue; // drain the queue so reading doesn't block
+                        }
+                        try {
+                            Chunk chunk = future.get();
+                            long start = System.nanoTime();
+                            chunk.addTo(writer);
+                            stats.mWriteNanos += System.nanoTime() - start;
+                        } catch (ExecutionException e) {
+                            writeError[0] = new IOException("Annotation failed", e.getCause());
+                        } catch (IOException e) {
+                            writeError[0] = e;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    writeError[0] = new IOException("Annotation interrupted", e);
+                }
+            }
+        }, "CorpusAnnotator-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        try {
+            char[] carry = new char[0];
+            int carryLength = 0;
+            while (true) {
+                long start = System.nanoTime();
+                char[] buffer = Arrays.copyOf(carry, Math.max(CHUNK_SIZE, carryLength * 2));
+                int length = carryLength;
+                int read;
+                while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                }
+                boolean last = length < buffer.length;
+                // cut after the last line break, the rest starts the next chunk
+                int cut = last ? length : lastLineBreak(buffer, length) + 1;
+                if (cut == 0) {
+                    cut = length; // a line longer than a chunk
+                }
+                carryLength = length - cut;
+                carry = Arrays.copyOfRange(buffer, cut, length);
+                stats.mReadChars += cut;
+                stats.mReadNanos += System.nanoTime() - start;
+
+                if (cut > 0) {
+                    queue.put(workers.submit(new AnnotateTask(mDictionary, buffer, cut, stats)));
+                }
+                if (last) {
+                    break;
+                }
+            }
+            queue.put(end);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Annotation interrupted", e);
+        } finally {
+            // stops the writer if reading failed, it is done otherwise
+            writerThread.interrupt();
+            workers.shutdownNow();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+
+        long start = System.nanoTime();
+        stats.mBytes = writer.write(output);
+        stats.mWriteNanos += System.nanoTime() - start;
+        stats.mTokens = writer.getTokenCount();
+        stats.mTotalNanos = System.nanoTime() - startTime;
+        return stats;
+    }
+
+    private static int lastLineBreak(char[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Usage: {@code CorpusAnnotator --dict <dictionary> [--threads <count>] <input.txt> <output.pytk>}
+     */
+    public static void main(String[] args) throws IOException {
+        File dictionary = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File input = null;
+        File output = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--dict".equals(args[i]) && i + 1 < args.length) {
+                dictionary = new File(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (input == null) {
+                input = new File(args[i]);
+            } else if (output == null) {
+                output = new File(args[i]);
+            } else {
+                input = null;
+                break;
+            }
+        }
+        if (dictionary == null || input == null || output == null) {
+            System.err.println("Usage: CorpusAnnotator --dict <dictionary> [--threads <count>] <input.txt> <output.pytk>");
+            System.exit(2);
+            return;
+        }
+
+        long start = System.nanoTime();
+        PinyinDictionary dict = PinyinDictionary.load(dictionary);
+        System.out.printf(Locale.ROOT, "dictionary  %d words in %.0f ms%n", dict.size(), (System.nanoTime() - start) / 1e6);
+        Stats stats = new CorpusAnnotator(dict, threads).annotate(input, output);
+        System.out.print(stats);
+    }
+
+    /**
+     * Segments and annotates a chunk on a worker.
+     */
+    private static final class AnnotateTask implements Callable<Chunk> {
+        private final PinyinDictionary mDictionary;
+        private final char[] mText;
+        private final int mLength;
+        private final Stats mStats;
+
+        AnnotateTask(PinyinDictionary dictionary, char[] text, int length, Stats stats) {
+            mDictionary = dictionary;
+            mText = text;
+            mLength = length;
+            mStats = stats;
+        }
+
+        @Override
+        public Chunk call() {
+            long start = System.nanoTime();
+            Chunk chunk = new Chunk(mText);
+            mDictionary.segment(mText, 0, mLength, chunk);
+            mStats.mAnnotateNanos.addAndGet(System.nanoTime() - start);
+            mStats.mAnnotateChars.addAndGet(mLength);
+            return chunk;
+        }
+    }
+
+    /**
+     * Tokens of a chunk, as ranges of the chunk and the pinyin of each token.
+     */
+    private static final class Chunk implements PinyinDictionary.TokenSink {
+        private final char[] mText;
+        private int mCount;
+        private int[] mStarts = new int[1024];
+        private int[] mEnds = new int[1024];
+        private String[] mPinyins = new String[1024];
+
+        Chunk(char[] text) {
+            mText = text;
+        }
+
+        @Override
+        public void onToken(char[] text, int start, int end, String pinyin) {
+            if (mCount == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, mCount * 2);
+                mEnds = Arrays.copyOf(mEnds, mCount * 2);
+                mPinyins = Arrays.copyOf(mPinyins, mCount * 2);
+            }
+            mStarts[mCount] = start;
+            mEnds[mCount] = end;
+            mPinyins[mCount] = pinyin;
+            mCount++;
+        }
+
+        void addTo(PinyinTokenFile.Writer writer) throws IOException {
+            CharBuffer text = CharBuffer.wrap(mText);
+            for (int i = 0; i < mCount; i++) {
+                String pinyin = mPinyins[i];
+                writer.add(text, mStarts[i], mEnds[i], pinyin, 0, pinyin.length(), 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the chunks for the writer.
+     */
+    private static final class EndOfCorpus implements Future<Chunk> {
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public Chunk get() {
+            return null;
+        }
+
+        @Override
+        public Chunk get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+
+    /**
+     * Throughput of each stage of an annotation. The time of a stage is the time its threads
+     * spent working, not waiting for another stage, so the slowest stage is the bottleneck.
+     */
+    public static final class Stats {
+        private final int mThreads;
+        private long mReadChars;
+        private long mReadNanos;
+        private final AtomicLong mAnnotateChars = new AtomicLong();
+        private final AtomicLong mAnnotateNanos = new AtomicLong();
+        // written by the writer thread, read after it is joined
+        private long mWriteNanos;
+        private int mTokens;
+        private long mBytes;
+        private long mTotalNanos;
+
+        Stats(int threads) {
+            mThreads = threads;
+        }
+
+        public long getChars() {
+            return mReadChars;
+        }
+
+        public int getTokens() {
+            return mTokens;
+        }
+
+        /**
+         * @return size of the token file
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getReadNanos() {
+            return mReadNanos;
+        }
+
+        /**
+         * @return time spent annotating, summed over the workers
+         */
+        public long getAnnotateNanos() {
+            return mAnnotateNanos.get();
+        }
+
+        public long getWriteNanos() {
+            return mWriteNanos;
+        }
+
+        /**
+         * @return wall time from the first read to the written file
+         */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        @Override
+        public String toString() {
+            long annotateNanos = mAnnotateNanos.get();
+            return String.format(Locale.ROOT,
+                    "read        %d chars in %.0f ms, %.1f Mchars/s%n"
+                            + "annotate    %d chars in %.0f ms on %d threads, %.1f Mchars/s per thread, %.1f Mchars/s in all%n"
+                            + "write       %d tokens, %d bytes in %.0f ms, %.1f Mtokens/s%n"
+                            + "total       %.0f ms, %.1f Mchars/s%n",
+                    mReadChars, mReadNanos / 1e6, perSecond(mReadChars, mReadNanos),
+                    mAnnotateChars.get(), annotateNanos / 1e6, mThreads, perSecond(mAnnotateChars.get(), annotateNanos),
+                    perSecond(mAnnotateChars.get() * mThreads, annotateNanos),
+                    mTokens, mBytes, mWriteNanos / 1e6, perSecond(mTokens, mWriteNanos),
+                    mTotalNanos / 1e6, perSecond(mReadChars, mTotalNanos));
+        }
+
+        private static double perSecond(long count, long nanos) {
+            return nanos == 0 ? 0 : count * 1e3 / nanos;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.ForcedLineBreaks;
+import com.liwenwei.pinyintextview.GreedyLineBreaker;
+import com.liwenwei.pinyintextview.LineBreaker;
+import com.liwenwei.pinyintextview.PinyinLayout;
+import com.liwenwei.pinyintextview.PinyinLayoutFile;
+import com.liwenwei.pinyintextview.PunctuationUtils;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Renders pinyin and text on a plain JVM with Java2D, using the same token layout, spacing,
+ * centering and dashed underline as {@link com.liwenwei.pinyintextview.PinyinTextView} in
+ * TYPE_PINYIN_AND_TEXT mode. Use it to generate printable worksheets on a server.
+ * <p>
+ * The renderer is immutable, one instance can render on any number of threads at the same time.
+ * All sizes are in pixels. To be identical to the app, use the font bundled in the app, loaded
+ * by {@link Font#createFont(int, java.io.File)}.
+ * <pre>
+ * HeadlessPinyinRenderer renderer = new HeadlessPinyinRenderer.Builder(font)
+ *         .setTextSize(52)
+ *         .setUnderline(true)
+ *         .build();
+ * BufferedImage image = renderer.render(texts, pinyins, null, null, 1200);
+ * </pre>
+ */
+public final class HeadlessPinyinRenderer {
+
+    private static final float PINYIN_TEXT_SIZE_RADIO = 0.5F;
+    // PinyinTextView.MEASURE_SHAPED, the way the tokens are measured
+    private static final int MEASURE_SHAPED = 0;
+
+    // anti alias and fractional metrics, like Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG
+    private static final FontRenderContext FRC = new FontRenderContext(null, true, true);
+
+    private final Font mTextFont;
+    private final Font mPinyinFont;
+    private final int mTextColor;
+    private final int mPinyinColor;
+    private final int mBackgroundColor;
+    private final int mHorizontalSpacing;
+    private final int mLineSpacing;
+    private final int mPinyinTextSpacing;
+    private final int mUnderlineVerticalSpacing;
+    private final boolean mUnderline;
+    private final int mPadding;
+    private final LineBreaker mLineBreaker;
+    private final Stroke mUnderlineStroke;
+
+    // calculated height of text or pinyin
+    private final int mTextHeight;
+    private final int mPinyinHeight;
+
+    private HeadlessPinyinRenderer(Builder builder) {
+        mTextFont = builder.font.deriveFont((float) builder.textSize);
+        mPinyinFont = builder.font.deriveFont((float) (builder.pinyinTextSize > 0
+                ? builder.pinyinTextSize : (int) (builder.textSize * PINYIN_TEXT_SIZE_RADIO)));
+        mTextColor = builder.textColor;
+        mPinyinColor = builder.pinyinColor;
+        mBackgroundColor = builder.backgroundColor;
+        mHorizontalSpacing = builder.horizontalSpacing;
+        mLineSpacing = builder.lineSpacing;
+        mPinyinTextSpacing = builder.pinyinTextSpacing;
+        mUnderlineVerticalSpacing = builder.underlineVerticalSpacing;
+        mUnderline = builder.underline;
+        mPadding = builder.padding;
+        mLineBreaker = builder.lineBreaker;
+        mUnderlineStroke = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+                new float[]{2, 2, 2, 2}, 0);
+
+        String text = PinyinLayout.TEXT_HEIGHT_SAMPLE;
+        String pinyin = PinyinLayout.PINYIN_HEIGHT_SAMPLE;
+        mTextHeight = boundsHeight(mTextFont, text);
+        mPinyinHeight = boundsHeight(mPinyinFont, pinyin.substring(0, pinyin.length() - 1));
+    }
+
+    /**
+     * Break the tokens into lines and place them.
+     *
+     * @param texts   text of each token
+     * @param pinyins pinyin of each token, the same size as texts
+     * @param width   max width of the content, without padding
+     */
+    public PinyinLayout layout(String[] texts, String[] pinyins, int width) {
+        return layout(texts, pinyins, width, newMeasurer());
+    }
+
+    /**
+     * @see BatchLayout
+     */
+    PinyinLayout layout(String[] texts, String[] pinyins, int width, TokenMeasurer measurer) {
+        checkTokens(texts, pinyins);
+        int count = texts.length;
+        int[] textWidths = new int[count];
+        int[] pinyinWidths = new int[count];
+        int[] tokenWidths = new int[count];
+        for (int i = 0; i < count; i++) {
+            textWidths[i] = measurer.textWidth(texts[i]);
+            pinyinWidths[i] = measurer.pinyinWidth(pinyins[i]);
+            tokenWidths[i] = Math.max(textWidths[i], pinyinWidths[i]);
+        }
+        int[] lineStarts = ForcedLineBreaks.breakLines(mLineBreaker, tokenWidths, count, mHorizontalSpacing, width,
+                ForcedLineBreaks.find(texts, count));
+        return new PinyinLayout(textWidths, pinyinWidths, count, lineStarts,
+                mHorizontalSpacing, mLineSpacing, mPinyinTextSpacing, mTextHeight, mPinyinHeight);
+    }
+
+    /**
+     * Render the tokens to an image of the given width, the height fits the content.
+     *
+     * @param texts        text of each token
+     * @param pinyins      pinyin of each token
+     * @param textColors   text color of each token, null or 0 means the default text color
+     * @param pinyinColors pinyin color of each token, null or 0 means the default pinyin color
+     * @param width        width of the image, with padding
+     */
+    public BufferedImage render(String[] texts, String[] pinyins, int[] textColors, int[] pinyinColors, int width) {
+        PinyinLayout layout = layout(texts, pinyins, width - 2 * mPadding);
+        int height = layout.getHeight() + 2 * mPadding;
+        BufferedImage image = new BufferedImage(width, Math.max(height, 1), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (mBackgroundColor != 0) {
+                g.setColor(new Color(mBackgroundColor, true));
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            }
+            draw(g, layout, texts, pinyins, textColors, pinyinColors);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw a layout computed by {@link #layout(String[], String[], int)} of the same tokens.
+     * The padding is applied from the current origin of the graphics.
+     */
+    public void draw(Graphics2D g, PinyinLayout layout, String[] texts, String[] pinyins,
+                     int[] textColors, int[] pinyinColors) {
+        checkTokens(texts, pinyins);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g.translate(mPadding, mPadding);
+
+        for (int line = 0; line < layout.getLineCount(); line++) {
+            int pinyinBaseline = layout.getPinyinBaseline(line);
+            int textBaseline = layout.getLineBottom(line);
+            for (int i = layout.getLineStart(line), end = layout.getLineEnd(line); i < end; i++) {
+                if (ForcedLineBreaks.isLineBreak(texts[i])) {
+                    continue; // ends its line, nothing to draw
+                }
+                // draw pinyin, don't draw the pinyin if it's punctuation
+                String pinyin = pinyins[i] == null ? "" : pinyins[i];
+                if (!pinyin.isEmpty() && !PunctuationUtils.isPunctuation(pinyin)) {
+                    g.setColor(new Color(color(pinyinColors, i, mPinyinColor), true));
+                    g.setFont(mPinyinFont);
+                    g.drawString(pinyin, layout.getPinyinLeft(i), pinyinBaseline);
+                }
+
+                // draw text
+                String text = texts[i] == null ? "" : texts[i];
+                if (!text.isEmpty()) {
+                    g.setColor(new Color(color(textColors, i, mTextColor), true));
+                    g.setFont(mTextFont);
+                    g.drawString(text, layout.getTextLeft(i), textBaseline);
+                }
+
+                if (mUnderline && !PunctuationUtils.isPunctuation(text)) {
+                    Stroke stroke = g.getStroke();
+                    g.setStroke(mUnderlineStroke);
+                    g.setColor(Color.BLACK);
+                    int y = textBaseline + mUnderlineVerticalSpacing;
+                    int left = layout.getTokenLeft(i);
+                    g.drawLine(left, y, left + layout.getTokenWidth(i) + mHorizontalSpacing, y);
+                    g.setStroke(stroke);
+                }
+            }
+        }
+        g.translate(-mPadding, -mPadding);
+    }
+
+    /**
+     * @return fingerprint of the font, to write the layouts of this renderer to a
+     * {@link PinyinLayoutFile}. The tokens are shaped like {@code PinyinTextView.MEASURE_SHAPED}.
+     */
+    public int getFontFingerprint() {
+        final TokenMeasurer measurer = newMeasurer();
+        return PinyinLayoutFile.fontFingerprint(new PinyinLayoutFile.SampleMeasurer() {
+            @Override
+            public int measureText(String sample) {
+                return measurer.textWidth(sample);
+            }
+
+            @Override
+            public int measurePinyin(String sample) {
+                return measurer.pinyinWidth(sample);
+            }
+        }, MEASURE_SHAPED);
+    }
+
+    public int getTextHeight() {
+        return mTextHeight;
+    }
+
+    public int getPinyinHeight() {
+        return mPinyinHeight;
+    }
+
+    private static int color(int[] colors, int index, int defaultColor) {
+        return colors == null || colors[index] == 0 ? defaultColor : colors[index];
+    }
+
+    private static void checkTokens(String[] texts, String[] pinyins) {
+        if (texts.length != pinyins.length) {
+            throw new IllegalArgumentException("Texts and pinyins must have the same size");
+        }
+    }
+
+    /**
+     * @return a measurer of this style, only used by one thread
+     */
+    TokenMeasurer newMeasurer() {
+        return new TokenMeasurer(mTextFont, mPinyinFont, FRC);
+    }
+
+    /**
+     * Same as Paint.getTextBounds on Android, the integer bounds around the glyphs
+     */
+    private static int boundsHeight(Font font, String text) {
+        Rectangle2D bounds = font.createGlyphVector(FRC, text).getVisualBounds();
+        return (int) Math.ceil(bounds.getMaxY()) - (int) Math.floor(bounds.getMinY());
+    }
+
+    /**
+     * Builds a {@link HeadlessPinyinRenderer}, the defaults are the defaults of PinyinTextView at
+     * density 1.
+     */
+    public static final class Builder {
+        private final Font font;
+        private int textSize = 14;
+        private int pinyinTextSize;
+        private int textColor = 0xff333333;
+        private int pinyinColor = 0xff333333;
+        private int backgroundColor = 0xffffffff;
+        private int horizontalSpacing = 5;
+        private int lineSpacing = 10;
+        private int pinyinTextSpacing = 2;
+        private int underlineVerticalSpacing = 14;
+        private boolean underline;
+        private int padding;
+        private LineBreaker lineBreaker = GreedyLineBreaker.INSTANCE;
+
+        /**
+         * @param font font of both pinyin and text, the size is ignored
+         */
+        public Builder(Font font) {
+            if (font == null) {
+                throw new IllegalArgumentException("Font must not be null");
+            }
+            this.font = font;
+        }
+
+        public Builder setTextSize(int px) {
+            if (px < 2) {
+                throw new IllegalArgumentException("Text size must larger than 2px");
+            }
+            this.textSize = px;
+            return this;
+        }
+
+        /**
+         * Set pinyin text size, default is text size * {@value #PINYIN_TEXT_SIZE_RADIO}
+         */
+        public Builder setPinyinTextSize(int px) {
+            this.pinyinTextSize = px;
+            return this;
+        }
+
+        public Builder setTextColor(int color) {
+            this.textColor = color;
+            return this;
+        }
+
+        public Builder setPinyinColor(int color) {
+            this.pinyinColor = color;
+            return this;
+        }
+
+        /**
+         * Set background color of the rendered image, 0 means transparent
+         */
+        public Builder setBackgroundColor(int color) {
+            this.backgroundColor = color;
+            return this;
+        }
+
+        /**
+         * Set horizontal space between two tokens, the pinyin text spacing is set to half of it
+         * as PinyinTextView does
+         */
+        public Builder setHorizontalSpacing(int px) {
+            this.horizontalSpacing = px;
+            this.pinyinTextSpacing = px / 2;
+            return this;
+        }
+
+        public Builder setLineSpacing(int px) {
+            this.lineSpacing = px;
+            return this;
+        }
+
+        public Builder setPinyinTextSpacing(int px) {
+            this.pinyinTextSpacing = px;
+            return this;
+        }
+
+        public Builder setUnderlineVerticalSpacing(int px) {
+            this.underlineVerticalSpacing = px;
+            return this;
+        }
+
+        public Builder setUnderline(boolean underline) {
+            this.underline = underline;
+            return this;
+        }
+
+        /**
+         * Set padding of all sides of the rendered image
+         */
+        public Builder setPadding(int px) {
+            this.padding = px;
+            return this;
+        }
+
+        public Builder setLineBreaker(LineBreaker lineBreaker) {
+            if (lineBreaker == null) {
+                throw new IllegalArgumentException("Line breaker must not be null");
+            }
+            this.lineBreaker = lineBreaker;
+            return this;
+        }
+
+        public HeadlessPinyinRenderer build() {
+            return new HeadlessPinyinRenderer(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.liwenwei.pinyintextview.headless;
+
+/**
+ * One document to lay out by {@link BatchLayout}: tokens, style and width.
+ */
+public final class LayoutJob {
+
+    final String[] texts;
+    final String[] pinyins;
+    final HeadlessPinyinRenderer style;
+    final int width;
+
+    /**
+     * @param texts   text of each token
+     * @param pinyins pinyin of each token, the same size as texts
+     * @param style   renderer providing fonts, spacing and line breaker
+     * @param width   max width of the content, without padding
+     */
+    public LayoutJob(String[] texts, String[] pinyins, HeadlessPinyinRenderer style, int width) {
+        if (texts.length != pinyins.length) {
+            throw new IllegalArgumentException("Texts and pinyins must have the same size");
+        }
+        this.texts = texts;
+        this.pinyins = pinyins;
+        this.style = style;
+        this.width = width;
+    }
+
+    public String[] getTexts() {
+        return texts;
+    }
+
+    public String[] getPinyins() {
+        return pinyins;
+    }
+
+    public HeadlessPinyinRenderer getStyle() {
+        return style;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+}
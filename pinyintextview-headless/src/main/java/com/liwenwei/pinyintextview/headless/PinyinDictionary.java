@@ -0,0 +1,201 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.PinyinToneConverter;
+import com.liwenwei.pinyintextview.PunctuationUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Word to pinyin dictionary which segments plain text into annotated tokens by forward maximum
+ * matching: at each hanzi the longest word of the dictionary starting there is a token.
+ * <p>
+ * Two line formats are read, comments start with '#':
+ * <pre>
+ * 中文 zhong1 wen2                      word and pinyin, with tone numbers or tone marks
+ * 中國 中国 [Zhong1 guo2] /China/         CC-CEDICT, the simplified word is used
+ * </pre>
+ * Tone numbers are converted to tone marks when the dictionary is loaded. The first pinyin of a
+ * word is kept. The dictionary is immutable once loaded and can segment on any number of threads
+ * at the same time, a lookup doesn't allocate.
+ */
+public final class PinyinDictionary {
+
+    /**
+     * Receives the tokens of {@link #segment(char[], int, int, TokenSink)} in order.
+     */
+    public interface TokenSink {
+        /**
+         * @param text   chars of the segmented text
+         * @param start  start of the token in the chars
+         * @param end    end of the token in the chars
+         * @param pinyin pinyin of the token, empty for punctuation, latin words, numbers, line breaks
+         *               and unknown hanzi
+         */
+        void onToken(char[] text, int start, int end, String pinyin);
+    }
+
+    private final Map<CharBuffer, String> mWords;
+    private final int mMaxWordLength;
+
+    private PinyinDictionary(Map<CharBuffer, String> words, int maxWordLength) {
+        mWords = words;
+        mMaxWordLength = maxWordLength;
+    }
+
+    /**
+     * Load a UTF-8 dictionary file.
+     *
+     * @throws IOException if the file can't be read or a line is not in a known format
+     */
+    public static PinyinDictionary load(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        try {
+            return load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Load a dictionary, the reader is not closed.
+     *
+     * @throws IOException if the dictionary can't be read or a line is not in a known format
+     */
+    public static PinyinDictionary load(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Map<CharBuffer, String> words = new HashMap<>();
+        int maxWordLength = 1;
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String word;
+            String pinyin;
+            int open = line.indexOf('[');
+            int close = line.indexOf(']', open + 1);
+            int space = indexOfSpace(line, 0);
+            if (space < 0) {
+                throw new IOException("Line " + lineNumber + " has no pinyin: " + line);
+            }
+            if (open >= 0 && close > open) {
+                // traditional simplified [pinyin] /definitions/
+                int second = indexOfSpace(line, space + 1);
+                word = line.substring(space + 1, second > 0 && second < open ? second : open).trim();
+                pinyin = line.substring(open + 1, close).trim();
+            } else {
+                word = line.substring(0, space);
+                pinyin = line.substring(space + 1).trim();
+            }
+            if (word.isEmpty() || pinyin.isEmpty()) {
+                throw new IOException("Line " + lineNumber + " has no word or pinyin: " + line);
+            }
+            if (PinyinToneConverter.hasToneNumber(pinyin, 0, pinyin.length())) {
+                pinyin = PinyinToneConverter.convert(pinyin);
+            }
+            CharBuffer key = CharBuffer.wrap(word);
+            if (!words.containsKey(key)) {
+                words.put(key, pinyin);
+                maxWordLength = Math.max(maxWordLength, word.length());
+            }
+        }
+        return new PinyinDictionary(words, maxWordLength);
+    }
+
+    private static int indexOfSpace(String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return count of words
+     */
+    public int size() {
+        return mWords.size();
+    }
+
+    /**
+     * @return pinyin of the word, null if it is not in the dictionary
+     */
+    public String getPinyin(CharSequence word) {
+        return mWords.get(CharBuffer.wrap(word));
+    }
+
+    /**
+     * Segment the chars into tokens. A hanzi word is the longest word of the dictionary, or a
+     * single hanzi without pinyin if there is none. A punctuation is a token, a run of other
+     * chars like latin words or numbers is a token. A line break is a token "\n" without pinyin,
+     * so the paragraphs are kept and shown apart, other white spaces are dropped.
+     *
+     * @return count of tokens
+     */
+    public int segment(char[] text, int start, int end, TokenSink sink) {
+        // the key is moved over the text, so a lookup doesn't create a string
+        CharBuffer key = CharBuffer.wrap(text);
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            int cp = Character.codePointAt(text, i, end);
+            int length = Character.charCount(cp);
+            if (cp == '\n') {
+                count++;
+                sink.onToken(text, i, i + 1, "");
+                i++;
+                continue;
+            }
+            if (Character.isWhitespace(cp) || Character.isSpaceChar(cp)) {
+                i += length;
+                continue;
+            }
+            count++;
+            if (isHan(cp)) {
+                String pinyin = null;
+                for (int wordLength = Math.min(mMaxWordLength, end - i); wordLength > 0; wordLength--) {
+                    key.limit(i + wordLength).position(i);
+                    pinyin = mWords.get(key);
+                    if (pinyin != null) {
+                        length = wordLength;
+                        break;
+                    }
+                }
+                sink.onToken(text, i, i + length, pinyin != null ? pinyin : "");
+            } else if (length == 1 && PunctuationUtils.isPunctuation(text[i])) {
+                sink.onToken(text, i, i + 1, "");
+            } else {
+                int wordEnd = i + length;
+                while (wordEnd < end) {
+                    int next = Character.codePointAt(text, wordEnd, end);
+                    if (isHan(next) || Character.isWhitespace(next) || Character.isSpaceChar(next)
+                            || (next < 0x10000 && PunctuationUtils.isPunctuation((char) next))) {
+                        break;
+                    }
+                    wordEnd += Character.charCount(next);
+                }
+                length = wordEnd - i;
+                sink.onToken(text, i, wordEnd, "");
+            }
+            i += length;
+        }
+        return count;
+    }
+
+    private static boolean isHan(int codePoint) {
+        return Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,57 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.ForcedLineBreaks;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures token widths of one renderer, the same as ceil of Layout.getDesiredWidth on Android.
+ * <p>
+ * Widths are cached by string, the common syllables and characters are measured only once.
+ * Not thread safe, every thread uses its own measurer.
+ */
+final class TokenMeasurer {
+
+    /**
+     * Cache is dropped when it is larger than this, a vocabulary rarely reaches it
+     */
+    private static final int MAX_CACHE_SIZE = 1 << 16;
+
+    private final Font mTextFont;
+    private final Font mPinyinFont;
+    private final FontRenderContext mFrc;
+    private final Map<String, Integer> mTextWidths = new HashMap<>();
+    private final Map<String, Integer> mPinyinWidths = new HashMap<>();
+
+    TokenMeasurer(Font textFont, Font pinyinFont, FontRenderContext frc) {
+        mTextFont = textFont;
+        mPinyinFont = pinyinFont;
+        mFrc = frc;
+    }
+
+    int textWidth(String text) {
+        return width(mTextFont, mTextWidths, text);
+    }
+
+    int pinyinWidth(String pinyin) {
+        return width(mPinyinFont, mPinyinWidths, pinyin);
+    }
+
+    private int width(Font font, Map<String, Integer> cache, String text) {
+        if (text == null || text.isEmpty() || ForcedLineBreaks.isLineBreak(text)) {
+            return 0;
+        }
+        Integer width = cache.get(text);
+        if (width == null) {
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            width = (int) Math.ceil(font.getStringBounds(text, mFrc).getWidth());
+            cache.put(text, width);
+        }
+        return width;
+    }
+}
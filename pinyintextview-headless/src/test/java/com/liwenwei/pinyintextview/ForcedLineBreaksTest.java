@@ -0,0 +1,52 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ForcedLineBreaksTest {
+
+    private static final String[] TEXTS = {"我", "学习", "\n", "中文", "很", "好", "\n", "\n", "你"};
+    private static final int[] WIDTHS = {10, 20, 0, 20, 10, 10, 0, 0, 10};
+
+    @Test
+    public void paragraphs() {
+        int[] breaks = ForcedLineBreaks.find(TEXTS, TEXTS.length);
+        assertArrayEquals(new int[]{2, 6, 7}, breaks);
+        // the breaks end their lines, the second one makes an empty line
+        assertArrayEquals(new int[]{0, 3, 7, 8}, ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE,
+                WIDTHS, WIDTHS.length, 5, 1000, breaks));
+        assertArrayEquals(new int[]{0, 3, 7, 8}, ForcedLineBreaks.breakLines(BalancedLineBreaker.INSTANCE,
+                WIDTHS, WIDTHS.length, 5, 1000, breaks));
+    }
+
+    @Test
+    public void breakOfAFullLine() {
+        int[] breaks = ForcedLineBreaks.find(TEXTS, TEXTS.length);
+        // "中文 很" fill the line, "好" and its break are on the next one
+        assertArrayEquals(new int[]{0, 3, 5, 7, 8}, ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE,
+                WIDTHS, WIDTHS.length, 5, 35, breaks));
+    }
+
+    @Test
+    public void breaksFromTheCountAreIgnored() {
+        int[] breaks = ForcedLineBreaks.find(TEXTS, TEXTS.length);
+        assertArrayEquals(new int[]{0}, ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE,
+                WIDTHS, 2, 5, 1000, breaks));
+        assertArrayEquals(new int[]{0}, ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE,
+                WIDTHS, 3, 5, 1000, breaks));
+        assertArrayEquals(new int[0], ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE,
+                WIDTHS, 0, 5, 1000, breaks));
+    }
+
+    @Test
+    public void lineBreakToken() {
+        assertTrue(ForcedLineBreaks.isLineBreak("\n"));
+        assertTrue(ForcedLineBreaks.isLineBreak("a\nb", 1, 2));
+        assertFalse(ForcedLineBreaks.isLineBreak("\n\n"));
+        assertFalse(ForcedLineBreaks.isLineBreak(""));
+        assertFalse(ForcedLineBreaks.isLineBreak(null));
+    }
+}
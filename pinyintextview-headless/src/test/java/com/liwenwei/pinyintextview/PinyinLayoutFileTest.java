@@ -0,0 +1,247 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PinyinLayoutFileTest {
+
+    private static final String[] TEXTS = {"你", "好", "，", "世界"};
+    private static final String[] PINYINS = {"nǐ", "hǎo", "", "shìjiè"};
+    private static final int[] TEXT_WIDTHS = {40, 40, 20, 80};
+    private static final int[] PINYIN_WIDTHS = {30, 50, 0, 90};
+    private static final int FONT = 0x1234;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("layout", ".pylt");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        PinyinLayout layout = layout(100);
+        PinyinLayoutFile saved = new PinyinLayoutFile(TEXTS, PINYINS, new int[]{1, 2, 3, 4}, new int[4],
+                48, 24, FONT, GreedyLineBreaker.INSTANCE, 100, layout);
+        saved.write(mFile);
+
+        PinyinLayoutFile loaded = PinyinLayoutFile.read(mFile);
+        assertEquals(TEXTS.length, loaded.getTokenCount());
+        for (int i = 0; i < TEXTS.length; i++) {
+            assertEquals(TEXTS[i], loaded.getText(i));
+            assertEquals(PINYINS[i], loaded.getPinyin(i));
+        }
+        assertArrayEquals(new int[]{1, 2, 3, 4}, loaded.getTextColors());
+        assertEquals(48, loaded.getTextSize());
+        assertEquals(24, loaded.getPinyinTextSize());
+        assertEquals(100, loaded.getWidth());
+        assertEquals(FONT, loaded.getFontFingerprint());
+        assertTrue(loaded.matches(48, 24, 10, 8, 4, 40, 20));
+        assertFalse(loaded.matches(48, 24, 12, 8, 4, 40, 20));
+        assertTrue(loaded.isBrokenBy(GreedyLineBreaker.INSTANCE));
+        assertFalse(loaded.isBrokenBy(BalancedLineBreaker.INSTANCE));
+
+        PinyinLayout placed = loaded.getLayout();
+        assertEquals(layout.getLineCount(), placed.getLineCount());
+        assertEquals(layout.getWidth(), placed.getWidth());
+        assertEquals(layout.getHeight(), placed.getHeight());
+        for (int line = 0; line < layout.getLineCount(); line++) {
+            assertEquals(layout.getLineStart(line), placed.getLineStart(line));
+        }
+        for (int i = 0; i < TEXTS.length; i++) {
+            assertEquals(layout.getTokenLeft(i), placed.getTokenLeft(i));
+            assertEquals(layout.getTextLeft(i), placed.getTextLeft(i));
+            assertEquals(layout.getPinyinLeft(i), placed.getPinyinLeft(i));
+        }
+    }
+
+    @Test
+    public void roundTripPackedTokens() throws IOException {
+        // offsets not starting at 0 are rebased
+        String texts = "xx你好，世界";
+        String pinyins = "yynǐhǎoshìjiè";
+        PinyinLayoutFile saved = new PinyinLayoutFile(texts, new int[]{2, 3, 4, 5, 7},
+                pinyins, new int[]{2, 4, 7, 7, 13}, null, null, 48, 24, FONT, BalancedLineBreaker.INSTANCE,
+                Integer.MAX_VALUE, layout(Integer.MAX_VALUE));
+        saved.write(mFile);
+
+        PinyinLayoutFile loaded = PinyinLayoutFile.read(mFile);
+        assertArrayEquals("你好，世界".toCharArray(), loaded.getTexts());
+        assertArrayEquals(new int[]{0, 1, 2, 3, 5}, loaded.getTextOffsets());
+        assertArrayEquals(new int[]{0, 2, 5, 5, 11}, loaded.getPinyinOffsets());
+        assertEquals("shìjiè", loaded.getPinyin(3));
+        assertArrayEquals(new int[4], loaded.getPinyinColors());
+        assertEquals(1, loaded.getLayout().getLineCount());
+        assertTrue(loaded.isBrokenBy(BalancedLineBreaker.INSTANCE));
+    }
+
+    @Test
+    public void emptyLayout() throws IOException {
+        PinyinLayout layout = new PinyinLayout(new int[0], new int[0], 0, new int[0], 10, 8, 4, 40, 20);
+        new PinyinLayoutFile(new String[0], new String[0], new int[0], new int[0], 48, 24,
+                FONT, GreedyLineBreaker.INSTANCE, 100, layout).write(mFile);
+        PinyinLayoutFile loaded = PinyinLayoutFile.read(mFile);
+        assertEquals(0, loaded.getTokenCount());
+        assertEquals(0, loaded.getLayout().getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokensOfAnotherLayout() {
+        new PinyinLayoutFile(new String[]{"你"}, new String[]{"nǐ"}, new int[1], new int[1], 48, 24,
+                FONT, GreedyLineBreaker.INSTANCE, 100, layout(100));
+    }
+
+    @Test
+    public void fontFingerprint() {
+        int font = PinyinLayoutFile.fontFingerprint(new Font(10), 0);
+        assertEquals(font, PinyinLayoutFile.fontFingerprint(new Font(10), 0));
+        // another measure mode, or another width of a sample
+        assertNotEquals(font, PinyinLayoutFile.fontFingerprint(new Font(10), 1));
+        assertNotEquals(font, PinyinLayoutFile.fontFingerprint(new Font(10) {
+            @Override
+            public int measurePinyin(String sample) {
+                return sample.equals("永") ? 6 : super.measurePinyin(sample);
+            }
+        }, 0));
+    }
+
+    @Test
+    public void wrongMagic() throws IOException {
+        write();
+        putInt(0, 0x12345678);
+        assertCorrupted();
+    }
+
+    @Test
+    public void otherVersion() throws IOException {
+        write();
+        // the version before the font fingerprint
+        putInt(4, 2);
+        assertCorrupted();
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        write();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 2);
+        } finally {
+            file.close();
+        }
+        assertCorrupted();
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        assertCorrupted();
+    }
+
+    @Test
+    public void negativeCount() throws IOException {
+        write();
+        putInt(13 * 4, -1);
+        assertCorrupted();
+    }
+
+    @Test
+    public void unsortedLineStarts() throws IOException {
+        write();
+        int count = TEXTS.length;
+        // line starts are after the header, the widths and the lefts, the second one is moved past the end
+        putInt((17 + 3 * count + 1) * 4, count + 1);
+        assertCorrupted();
+    }
+
+    @Test
+    public void offsetsOutOfRange() throws IOException {
+        write();
+        int count = TEXTS.length;
+        int lineCount = PinyinLayoutFile.read(mFile).getLayout().getLineCount();
+        // the last text offset
+        putInt((17 + 5 * count + lineCount + count) * 4, 1000);
+        assertCorrupted();
+    }
+
+    @Test
+    public void negativeWidth() throws IOException {
+        write();
+        putInt(17 * 4, -5);
+        assertCorrupted();
+    }
+
+    private static PinyinLayout layout(int width) {
+        int[] lineStarts = GreedyLineBreaker.INSTANCE.breakLines(tokenWidths(), TEXTS.length, 10, width);
+        return new PinyinLayout(TEXT_WIDTHS, PINYIN_WIDTHS, TEXTS.length, lineStarts, 10, 8, 4, 40, 20);
+    }
+
+    private static int[] tokenWidths() {
+        int[] widths = new int[TEXTS.length];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = Math.max(TEXT_WIDTHS[i], PINYIN_WIDTHS[i]);
+        }
+        return widths;
+    }
+
+    private void write() throws IOException {
+        new PinyinLayoutFile(TEXTS, PINYINS, new int[4], new int[4], 48, 24, FONT, GreedyLineBreaker.INSTANCE,
+                100, layout(100)).write(mFile);
+    }
+
+    /**
+     * Every char is as wide as the text size, the pinyin size is half of it.
+     */
+    private static class Font implements PinyinLayoutFile.SampleMeasurer {
+        private final int mTextSize;
+
+        Font(int textSize) {
+            mTextSize = textSize;
+        }
+
+        @Override
+        public int measureText(String sample) {
+            return sample.length() * mTextSize;
+        }
+
+        @Override
+        public int measurePinyin(String sample) {
+            return sample.length() * mTextSize / 2;
+        }
+    }
+
+    private void putInt(long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertCorrupted() {
+        try {
+            PinyinLayoutFile.read(mFile);
+            fail("Corrupted file is read");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PinyinTokenFileTest {
+
+    private File mFile;
+    private File mTempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("tokens", ".pytk");
+        mTempDir = File.createTempFile("spill", "");
+        assertTrue(mTempDir.delete() && mTempDir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        File[] files = mTempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mTempDir.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer(mTempDir);
+        try {
+            writer.add("你好", "nǐhǎo");
+            writer.add("，", "");
+            writer.add("\n", "");
+            writer.add("xx世界yy", 2, 4, "shìjiè", 0, 6, 0, 0);
+            assertEquals(4, writer.getTokenCount());
+            long bytes = writer.write(mFile);
+            assertEquals(mFile.length(), bytes);
+        } finally {
+            writer.close();
+        }
+
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertEquals(4, file.getTokenCount());
+        assertEquals("你好", file.getText(0));
+        assertEquals("nǐhǎo", file.getPinyin(0));
+        assertEquals("\n", file.getText(2));
+        assertEquals("", file.getPinyin(2));
+        assertEquals("世界", file.getText(3));
+        assertEquals("shìjiè", file.getPinyin(3));
+        assertArrayEquals(new int[]{0, 2, 3, 4, 6}, file.getTextOffsets());
+        assertNull(file.getTextColors());
+        assertNull(file.getPinyinColors());
+    }
+
+    @Test
+    public void colorsAfterDefaultTokens() throws IOException {
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer(mTempDir);
+        try {
+            writer.add("我", "wǒ");
+            writer.add("学", "xué", 0xFFFF0000, 0);
+            writer.add("中文", "zhōngwén", 0, 0xFF00FF00);
+            writer.write(mFile);
+        } finally {
+            writer.close();
+        }
+
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertArrayEquals(new int[]{0, 0xFFFF0000, 0}, file.getTextColors());
+        assertArrayEquals(new int[]{0, 0, 0xFF00FF00}, file.getPinyinColors());
+    }
+
+    @Test
+    public void spilledSections() throws IOException {
+        // several buffers of every section, the spilled parts are deleted by close
+        int count = 100000;
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer(mTempDir);
+        try {
+            for (int i = 0; i < count; i++) {
+                writer.add(i % 10 == 9 ? "\n" : "中文", i % 10 == 9 ? "" : "zhōngwén", i % 7, 0);
+            }
+            assertTrue(mTempDir.list().length > 0);
+            writer.write(mFile);
+            // more tokens can be written again
+            writer.add("完", "wán");
+            writer.write(mFile);
+        } finally {
+            writer.close();
+        }
+        assertEquals(0, mTempDir.list().length);
+
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertEquals(count + 1, file.getTokenCount());
+        for (int i = 0; i < count; i += 997) {
+            assertEquals(i % 10 == 9 ? "\n" : "中文", file.getText(i));
+            assertEquals(i % 10 == 9 ? "" : "zhōngwén", file.getPinyin(i));
+            assertEquals(i % 7, file.getTextColors()[i]);
+        }
+        assertEquals("完", file.getText(count));
+        assertEquals("wán", file.getPinyin(count));
+    }
+
+    @Test
+    public void emptyWriter() throws IOException {
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer(mTempDir);
+        try {
+            writer.write(mFile);
+        } finally {
+            writer.close();
+        }
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertEquals(0, file.getTokenCount());
+        assertArrayEquals(new int[]{0}, file.getTextOffsets());
+    }
+
+    @Test
+    public void wrongMagic() throws IOException {
+        write();
+        putInt(0, 0x12345678);
+        assertCorrupted();
+    }
+
+    @Test
+    public void otherVersion() throws IOException {
+        write();
+        putInt(4, 2);
+        assertCorrupted();
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        write();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 2);
+        } finally {
+            file.close();
+        }
+        assertCorrupted();
+    }
+
+    @Test
+    public void emptyFile() {
+        assertCorrupted();
+    }
+
+    @Test
+    public void unsortedOffsets() throws IOException {
+        write();
+        // the second text offset, after the header
+        putInt(7 * 4, 100);
+        assertCorrupted();
+    }
+
+    private void write() throws IOException {
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer(mTempDir);
+        try {
+            writer.add("你", "nǐ");
+            writer.add("好", "hǎo");
+            writer.write(mFile);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void putInt(long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertCorrupted() {
+        try {
+            PinyinTokenFile.read(mFile);
+            fail("Corrupted file is read");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
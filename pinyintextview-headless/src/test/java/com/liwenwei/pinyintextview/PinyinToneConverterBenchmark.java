@@ -0,0 +1,86 @@
+package com.liwenwei.pinyintextview;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Throughput of {@link PinyinToneConverter} on a generated tone-numbered document, not a unit test.
+ * The document is the same on every run, so numbers of two builds can be compared.
+ * <p>
+ * Run it with {@code ./gradlew :pinyintextview-headless:benchmark}, the optional argument is the
+ * syllable count of the document.
+ */
+public final class PinyinToneConverterBenchmark {
+
+    private static final String[] SYLLABLES = {
+            "zhong", "wen", "xue", "xi", "lv", "nv", "lu:", "hao", "ni", "wo", "shi", "de", "bu", "le",
+            "guo", "jia", "ren", "da", "xiao", "liu", "hui", "dou", "shuo", "hua", "ng", "m", "er"
+    };
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private PinyinToneConverterBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int syllables = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String document = document(syllables);
+        char[] dst = new char[document.length()];
+        StringBuilder builder = new StringBuilder(document.length());
+        CharArrayWriter writer = new CharArrayWriter(document.length());
+        System.out.println("document: " + syllables + " syllables, " + document.length() + " chars");
+
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            checksum += PinyinToneConverter.convert(document, 0, document.length(), dst, 0);
+            builder.setLength(0);
+            PinyinToneConverter.convert(document, 0, document.length(), builder);
+            writer.reset();
+            checksum += PinyinToneConverter.convert(new StringReader(document), writer);
+        }
+
+        long array = 0;
+        long append = 0;
+        long stream = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            checksum += PinyinToneConverter.convert(document, 0, document.length(), dst, 0);
+            array += System.nanoTime() - start;
+
+            builder.setLength(0);
+            start = System.nanoTime();
+            PinyinToneConverter.convert(document, 0, document.length(), builder);
+            append += System.nanoTime() - start;
+            checksum += builder.length();
+
+            writer.reset();
+            start = System.nanoTime();
+            checksum += PinyinToneConverter.convert(new StringReader(document), writer);
+            stream += System.nanoTime() - start;
+        }
+        report("char[]", document.length(), array);
+        report("StringBuilder", document.length(), append);
+        report("Reader/Writer", document.length(), stream);
+        System.out.println("checksum: " + checksum);
+    }
+
+    /**
+     * Syllables with tone numbers separated by spaces, with a punctuation mark now and then.
+     */
+    private static String document(int syllables) {
+        Random random = new Random(42);
+        StringBuilder document = new StringBuilder(syllables * 6);
+        for (int i = 0; i < syllables; i++) {
+            document.append(SYLLABLES[random.nextInt(SYLLABLES.length)]).append(random.nextInt(6));
+            document.append(random.nextInt(10) == 0 ? "，" : " ");
+        }
+        return document.toString();
+    }
+
+    private static void report(String name, int chars, long nanos) {
+        double millis = nanos / 1e6 / ROUNDS;
+        System.out.printf("%-14s %8.2f ms/round %8.1f Mchar/s%n", name, millis, chars / millis / 1000);
+    }
+}
@@ -0,0 +1,160 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PinyinToneConverterTest {
+
+    @Test
+    public void tones() {
+        assertEquals("zhōng wén", PinyinToneConverter.convert("zhong1 wen2"));
+        assertEquals("mǎ mà", PinyinToneConverter.convert("ma3 ma4"));
+        assertEquals("ma ma", PinyinToneConverter.convert("ma5 ma0"));
+    }
+
+    @Test
+    public void markPlacement() {
+        assertEquals("hǎo", PinyinToneConverter.convert("hao3"));
+        assertEquals("xiè", PinyinToneConverter.convert("xie4"));
+        assertEquals("dōu", PinyinToneConverter.convert("dou1"));
+        assertEquals("guǒ", PinyinToneConverter.convert("guo3"));
+        assertEquals("liù", PinyinToneConverter.convert("liu4"));
+        assertEquals("huí", PinyinToneConverter.convert("hui2"));
+    }
+
+    @Test
+    public void umlaut() {
+        assertEquals("lǜ", PinyinToneConverter.convert("lv4"));
+        assertEquals("lǜ", PinyinToneConverter.convert("lu:4"));
+        assertEquals("nǚ", PinyinToneConverter.convert("nü3"));
+        assertEquals("lüè", PinyinToneConverter.convert("lve4"));
+        // no tone number, kept as it is
+        assertEquals("lv", PinyinToneConverter.convert("lv"));
+        assertEquals("lu", PinyinToneConverter.convert("lu"));
+    }
+
+    @Test
+    public void nasals() {
+        assertEquals("ḿ", PinyinToneConverter.convert("m2"));
+        assertEquals("m̀", PinyinToneConverter.convert("m4"));
+        assertEquals("ň", PinyinToneConverter.convert("n3"));
+        assertEquals("ńg", PinyinToneConverter.convert("ng2"));
+        assertEquals("ňg", PinyinToneConverter.convert("ng3"));
+        assertEquals("n̄g", PinyinToneConverter.convert("ng1"));
+        assertEquals("m", PinyinToneConverter.convert("m5"));
+    }
+
+    @Test
+    public void capitals() {
+        assertEquals("Zhōng Wén", PinyinToneConverter.convert("Zhong1 Wen2"));
+        assertEquals("ZHŌNG", PinyinToneConverter.convert("ZHONG1"));
+        assertEquals("LǛ", PinyinToneConverter.convert("LV4"));
+        assertEquals("Ǹg", PinyinToneConverter.convert("Ng4"));
+        assertEquals("Ḿ", PinyinToneConverter.convert("M2"));
+    }
+
+    @Test
+    public void notPinyin() {
+        assertEquals("mp3", PinyinToneConverter.convert("mp3"));
+        assertEquals("mp3 nǐ", PinyinToneConverter.convert("mp3 ni3"));
+        assertEquals("H2O shuǐ", PinyinToneConverter.convert("H2O shui3"));
+        // already marked, and hanzi
+        assertEquals("zhōng1 中文", PinyinToneConverter.convert("zhōng1 中文"));
+        assertEquals("2024 nián", PinyinToneConverter.convert("2024 nian2"));
+        assertSame("zhōng wén", PinyinToneConverter.convert("zhōng wén"));
+        assertEquals(null, PinyinToneConverter.convert((String) null));
+    }
+
+    @Test
+    public void hasToneNumber() {
+        assertTrue(PinyinToneConverter.hasToneNumber("ni3", 0, 3));
+        assertFalse(PinyinToneConverter.hasToneNumber("ni3", 0, 2));
+        assertFalse(PinyinToneConverter.hasToneNumber("3 4", 0, 3));
+    }
+
+    @Test
+    public void ranges() {
+        StringBuilder out = new StringBuilder("> ");
+        PinyinToneConverter.convert("xx ni3 hao3 xx", 3, 11, out);
+        assertEquals("> nǐ hǎo", out.toString());
+
+        char[] dst = new char[10];
+        int count = PinyinToneConverter.convert("ni3hao3", 0, 7, dst, 2);
+        assertEquals(5, count);
+        assertEquals("nǐhǎo", new String(dst, 2, count));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void destinationTooSmall() {
+        PinyinToneConverter.convert("ni3hao3", 0, 7, new char[6], 0);
+    }
+
+    @Test
+    public void streamChunkBoundaries() throws IOException {
+        String source = "Wo3 xi3huan1 lv4se4 he2 lu:4, zhe4 shi4 mp3 ng2 m4 ZHONG1WEN2. ";
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            document.append(source);
+        }
+        String expected = PinyinToneConverter.convert(document.toString());
+        // every chunk size cuts syllables, "u:" and tone numbers at another place
+        for (int chunk = 1; chunk <= 13; chunk++) {
+            StringWriter out = new StringWriter();
+            long written = PinyinToneConverter.convert(new ChunkedReader(document.toString(), chunk), out);
+            assertEquals("chunk " + chunk, expected, out.toString());
+            assertEquals(expected.length(), written);
+        }
+    }
+
+    @Test
+    public void streamLongRun() throws IOException {
+        // a run of letters longer than the buffer is cut, the next syllables are still converted
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            document.append('a');
+        }
+        document.append("3 ni3");
+        StringWriter out = new StringWriter();
+        PinyinToneConverter.convert(new StringReader(document.toString()), out);
+        assertTrue(out.toString().endsWith(" nǐ"));
+        assertEquals(document.length() - 2, out.toString().length());
+    }
+
+    /**
+     * Reads at most so many chars at a time.
+     */
+    private static final class ChunkedReader extends Reader {
+        private final String mText;
+        private final int mChunk;
+        private int mPosition;
+
+        ChunkedReader(String text, int chunk) {
+            mText = text;
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPosition == mText.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, mChunk), mText.length() - mPosition);
+            mText.getChars(mPosition, mPosition + count, buffer, offset);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.liwenwei.pinyintextview.headless;
+
+import com.liwenwei.pinyintextview.PinyinLayout;
+import com.liwenwei.pinyintextview.PinyinTokenFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+public class CorpusAnnotatorTest {
+
+    private static final String PARAGRAPH = "我学习中文，我学习 Java。\n";
+
+    private File mFile;
+    private PinyinDictionary mDictionary;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("corpus", ".pytk");
+        mDictionary = PinyinDictionary.load(new StringReader(PinyinDictionaryTest.DICTIONARY));
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void paragraphsInOrder() throws IOException {
+        // more paragraphs than fit a chunk, so the workers annotate several chunks at the same time
+        int paragraphs = 20000;
+        StringBuilder corpus = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            corpus.append(PARAGRAPH);
+        }
+        CorpusAnnotator.Stats stats = new CorpusAnnotator(mDictionary, 4)
+                .annotate(new StringReader(corpus.toString()), mFile);
+        assertEquals(corpus.length(), stats.getChars());
+        assertEquals(mFile.length(), stats.getBytes());
+
+        // 我 学习 中文 ， 我 学习 Java 。 \n
+        int tokensPerParagraph = 9;
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertEquals(paragraphs * tokensPerParagraph, file.getTokenCount());
+        assertEquals(file.getTokenCount(), stats.getTokens());
+        for (int i = 0; i < paragraphs; i++) {
+            int first = i * tokensPerParagraph;
+            assertEquals("我", file.getText(first));
+            assertEquals("wǒ", file.getPinyin(first));
+            assertEquals("中文", file.getText(first + 2));
+            assertEquals("zhōng wén", file.getPinyin(first + 2));
+            assertEquals("Java", file.getText(first + 6));
+            assertEquals("\n", file.getText(first + 8));
+            assertEquals("", file.getPinyin(first + 8));
+        }
+    }
+
+    @Test
+    public void lastLineWithoutBreak() throws IOException {
+        new CorpusAnnotator(mDictionary, 1).annotate(new StringReader("我\n\n中文"), mFile);
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        assertEquals(4, file.getTokenCount());
+        assertEquals("\n", file.getText(1));
+        assertEquals("\n", file.getText(2));
+        assertEquals("中文", file.getText(3));
+    }
+
+    @Test
+    public void paragraphsAreShownApart() throws IOException {
+        new CorpusAnnotator(mDictionary, 1).annotate(new StringReader("我学习中文。\n我学习 Java。"), mFile);
+        PinyinTokenFile file = PinyinTokenFile.read(mFile);
+        String[] texts = new String[file.getTokenCount()];
+        String[] pinyins = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = file.getText(i);
+            pinyins[i] = file.getPinyin(i);
+        }
+        HeadlessPinyinRenderer renderer = new HeadlessPinyinRenderer.Builder(new Font(Font.SERIF, Font.PLAIN, 1))
+                .setTextSize(40)
+                .build();
+        // 我 学习 中文 。 \n | 我 学习 Java 。
+        PinyinLayout layout = renderer.layout(texts, pinyins, 10000);
+        assertEquals(2, layout.getLineCount());
+        assertEquals(5, layout.getLineStart(1));
+        assertEquals(0, layout.getTokenWidth(4));
+        assertEquals(0, layout.getTokenLeft(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noThreads() {
+        new CorpusAnnotator(mDictionary, 0);
+    }
+}
@@ -0,0 +1,89 @@
+package com.liwenwei.pinyintextview.headless;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PinyinDictionaryTest {
+
+    static final String DICTIONARY = "# comment\n"
+            + "中文 zhong1 wen2\n"
+            + "中 zhōng\n"
+            + "學習 学习 [xue2 xi2] /to learn/\n"
+            + "学 xue2\n"
+            + "我 wo3\n"
+            + "中 zhong4\n";
+
+    @Test
+    public void lineFormats() throws IOException {
+        PinyinDictionary dictionary = load();
+        assertEquals(5, dictionary.size());
+        assertEquals("zhōng wén", dictionary.getPinyin("中文"));
+        assertEquals("xué xí", dictionary.getPinyin("学习"));
+        assertNull(dictionary.getPinyin("學習"));
+        // the first pinyin is kept
+        assertEquals("zhōng", dictionary.getPinyin("中"));
+        assertNull(dictionary.getPinyin("文"));
+    }
+
+    @Test(expected = IOException.class)
+    public void lineWithoutPinyin() throws IOException {
+        PinyinDictionary.load(new StringReader("中文\n"));
+    }
+
+    @Test
+    public void longestWord() throws IOException {
+        // an unknown hanzi is a token without pinyin
+        assertEquals("我|wǒ 学习|xué xí 中文|zhōng wén 文| 中|zhōng", segment("我学习中文文中"));
+    }
+
+    @Test
+    public void otherTokens() throws IOException {
+        // punctuation, latin words and numbers, spaces are dropped
+        assertEquals("我|wǒ 学|xué Java| 8| ，| 中文|zhōng wén 。|", segment("我学 Java 8，中文。"));
+    }
+
+    @Test
+    public void lineBreaks() throws IOException {
+        assertEquals("我|wǒ \n| \n| 中|zhōng", segment("我\r\n\n  中"));
+    }
+
+    @Test
+    public void range() throws IOException {
+        List<String> tokens = new ArrayList<>();
+        char[] text = "我学习中文".toCharArray();
+        int count = load().segment(text, 1, 3, collect(tokens));
+        assertEquals(1, count);
+        assertEquals("[学习|xué xí]", tokens.toString());
+    }
+
+    private static PinyinDictionary load() throws IOException {
+        return PinyinDictionary.load(new StringReader(DICTIONARY));
+    }
+
+    private static String segment(String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        int count = load().segment(text.toCharArray(), 0, text.length(), collect(tokens));
+        assertEquals(tokens.size(), count);
+        StringBuilder joined = new StringBuilder();
+        for (String token : tokens) {
+            joined.append(joined.length() > 0 ? " " : "").append(token);
+        }
+        return joined.toString();
+    }
+
+    private static PinyinDictionary.TokenSink collect(final List<String> tokens) {
+        return new PinyinDictionary.TokenSink() {
+            @Override
+            public void onToken(char[] text, int start, int end, String pinyin) {
+                tokens.add(new String(text, start, end - start) + "|" + pinyin);
+            }
+        };
+    }
+}
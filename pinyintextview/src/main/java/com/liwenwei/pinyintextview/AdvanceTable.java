@@ -0,0 +1,250 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-char advances of one (typeface, text size), used by {@link PinyinTextView#MEASURE_ADVANCES}
+ * to measure a token by summing the advances of its chars instead of shaping it.
+ * <p>
+ * Only chars whose advance doesn't depend on their neighbours are in the table: CJK ideographs,
+ * and CJK and fullwidth punctuation. The lower case pinyin alphabet with tone marks is only in the
+ * table if the font doesn't kern nor ligate any pair of it, like "fi" or "rv", which is checked
+ * once per table against shaping. Upper case letters, combining marks, surrogate pairs like emoji
+ * and everything else are not, a token with any of them is measured by full shaping.
+ * <p>
+ * Advances are measured lazily in pages of 256 chars, so a table only holds the blocks which are
+ * used. Tables are shared by all views and are in the budget of {@link PinyinMemoryManager}.
+ */
+final class AdvanceTable {
+
+    /**
+     * Max tables kept, a screen rarely uses more than a handful of styles
+     */
+    private static final int MAX_SIZE = 16;
+
+    private static final int PAGE_SIZE = 256;
+    private static final int PAGE_BYTES = PAGE_SIZE * 4 + 16;
+
+    /**
+     * Lower case pinyin alphabet, in the table if the font doesn't kern nor ligate its pairs
+     */
+    static final String LATIN_CHARS = "abcdefghijklmnopqrstuvwxyz āáǎàēéěèīíǐìōóǒòūúǔùǖǘǚǜü";
+
+    /**
+     * Max difference between the width of a pair and the sum of its advances, of the text size
+     */
+    private static final float PAIR_TOLERANCE = 0.01F;
+
+    private static final Map<Key, AdvanceTable> sTables = new LinkedHashMap<Key, AdvanceTable>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, AdvanceTable> eldest) {
+            if (size() > MAX_SIZE) {
+                eldest.getValue().mRemoved = true;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    static {
+        PinyinMemoryManager.registerCache(PinyinMemoryManager.CACHE_ADVANCES, new PinyinMemoryManager.Cache() {
+            @Override
+            public long getRetainedBytes() {
+                synchronized (sTables) {
+                    long bytes = 0;
+                    for (AdvanceTable table : sTables.values()) {
+                        bytes += table.mPageCount * PAGE_BYTES;
+                    }
+                    return bytes;
+                }
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                synchronized (sTables) {
+                    Iterator<AdvanceTable> iterator = sTables.values().iterator();
+                    while (getRetainedBytes() > maxBytes && iterator.hasNext()) {
+                        iterator.next().mRemoved = true;
+                        iterator.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
+    private final char[] mChar = new char[1];
+    // advances by page, NaN if not measured yet
+    private final float[][] mPages = new float[PAGE_SIZE][];
+    private int mPageCount;
+    // whether the latin chars add up in this font, 0 if not checked yet, 1 if they do, -1 if not
+    private int mLatinState;
+    // removed from the shared tables by the memory manager or for a newer style, not to be used anymore
+    private volatile boolean mRemoved;
+
+    private AdvanceTable(Typeface typeface, int textSize) {
+        mPaint.setTypeface(typeface);
+        mPaint.setTextSize(textSize);
+    }
+
+    /**
+     * Get the shared table of the style.
+     *
+     * @param typeface typeface of the text, null means the default typeface
+     * @param textSize text size in pixels
+     */
+    static AdvanceTable get(Typeface typeface, int textSize) {
+        Key key = new Key(typeface, textSize);
+        synchronized (sTables) {
+            AdvanceTable table = sTables.get(key);
+            if (table == null) {
+                table = new AdvanceTable(typeface, textSize);
+                sTables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Whether the table is still the shared table of the style. A table which the memory manager
+     * trimmed is not in its budget anymore, so a view holding one has to {@link #get} it again.
+     */
+    boolean matches(Typeface typeface, int textSize) {
+        return !mRemoved && mPaint.getTextSize() == textSize
+                && (typeface == null ? mPaint.getTypeface() == null : typeface.equals(mPaint.getTypeface()));
+    }
+
+    /**
+     * Measure the range by summing the advances of its chars.
+     *
+     * @return width of the range, or -1 if a char is not in the table and the range has to be shaped
+     */
+    float measure(CharSequence text, int start, int end) {
+        boolean latin = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (isLatin(c)) {
+                latin = true;
+            } else if (!isFixedAdvance(c)) {
+                return -1;
+            }
+        }
+        float width = 0;
+        int newPages = 0;
+        synchronized (this) {
+            if (latin && !isLatinFixed()) {
+                return -1;
+            }
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                float[] page = mPages[c >>> 8];
+                if (page == null) {
+                    page = new float[PAGE_SIZE];
+                    Arrays.fill(page, Float.NaN);
+                    mPages[c >>> 8] = page;
+                    mPageCount++;
+                    newPages++;
+                }
+                float advance = page[c & 0xFF];
+                if (Float.isNaN(advance)) {
+                    mChar[0] = c;
+                    advance = mPaint.measureText(mChar, 0, 1);
+                    page[c & 0xFF] = advance;
+                }
+                width += advance;
+            }
+        }
+        if (newPages > 0 && !mRemoved) {
+            PinyinMemoryManager.onCacheGrown(newPages * PAGE_BYTES);
+        }
+        return width;
+    }
+
+    /**
+     * Whether the advance of the char doesn't depend on its neighbours in any font.
+     */
+    static boolean isFixedAdvance(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) // CJK unified ideographs
+                || (c >= 0x3400 && c <= 0x4DBF) // CJK extension A
+                || (c >= 0x3000 && c <= 0x303F) // CJK symbols and punctuation
+                || (c >= 0xFF01 && c <= 0xFF5E); // fullwidth forms
+    }
+
+    /**
+     * Whether the char is in {@link #LATIN_CHARS}, its advance is fixed in some fonts only.
+     */
+    static boolean isLatin(char c) {
+        return (c >= 'a' && c <= 'z') || c == ' ' || (c >= 0xE0 && LATIN_CHARS.indexOf(c) >= 0);
+    }
+
+    /**
+     * Check the latin chars once, with the lock of the table held.
+     */
+    private boolean isLatinFixed() {
+        if (mLatinState == 0) {
+            mLatinState = addsUp(mPaint, LATIN_CHARS) ? 1 : -1;
+        }
+        return mLatinState > 0;
+    }
+
+    /**
+     * Whether the width of every pair of the chars is the sum of their advances, so the font
+     * neither kerns nor ligates them.
+     */
+    static boolean addsUp(Paint paint, String chars) {
+        char[] text = chars.toCharArray();
+        float[] advances = new float[text.length];
+        for (int i = 0; i < text.length; i++) {
+            advances[i] = paint.measureText(text, i, 1);
+        }
+        float tolerance = paint.getTextSize() * PAIR_TOLERANCE;
+        char[] pair = new char[2];
+        for (int i = 0; i < text.length; i++) {
+            pair[0] = text[i];
+            for (int j = 0; j < text.length; j++) {
+                pair[1] = text[j];
+                if (Math.abs(paint.measureText(pair, 0, 2) - advances[i] - advances[j]) > tolerance) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Key {
+        final Typeface typeface;
+        final int textSize;
+
+        Key(Typeface typeface, int textSize) {
+            this.typeface = typeface;
+            this.textSize = textSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return textSize == key.textSize
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = typeface == null ? 0 : typeface.hashCode();
+            result = 31 * result + textSize;
+            return result;
+        }
+    }
+}
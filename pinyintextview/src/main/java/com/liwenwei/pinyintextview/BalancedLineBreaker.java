@@ -0,0 +1,67 @@
+package com.liwenwei.pinyintextview;
+
+/**
+ * Minimum raggedness line breaker, lines get similar lengths so the text doesn't end with an
+ * orphan token on the last line.
+ * <p>
+ * It minimizes the sum of squared free space of all lines (the last line included) by dynamic
+ * programming. Only the lines that fit in the max width are considered, and a line holds at most
+ * {@link #MAX_TOKENS_PER_LINE} tokens, so the cost is bounded to O(n * {@value #MAX_TOKENS_PER_LINE}).
+ * It never uses more lines than {@link GreedyLineBreaker}.
+ */
+public final class BalancedLineBreaker implements LineBreaker {
+
+    public static final BalancedLineBreaker INSTANCE = new BalancedLineBreaker();
+
+    /**
+     * Bound of the look back of the dynamic programming
+     */
+    static final int MAX_TOKENS_PER_LINE = 256;
+
+    private BalancedLineBreaker() {
+    }
+
+    @Override
+    public int[] breakLines(int[] widths, int count, int spacing, int maxWidth) {
+        int[] greedy = GreedyLineBreaker.INSTANCE.breakLines(widths, count, spacing, maxWidth);
+        if (greedy.length <= 1) {
+            return greedy;
+        }
+        int maxLines = greedy.length;
+
+        // cost[i]: min cost of tokens [0, i) broken into lines[i] lines, start[i]: start of the last line
+        long[] cost = new long[count + 1];
+        int[] lines = new int[count + 1];
+        int[] start = new int[count + 1];
+        for (int end = 1; end <= count; end++) {
+            cost[end] = Long.MAX_VALUE;
+            int lineLength = -spacing;
+            for (int begin = end - 1; begin >= 0 && end - begin <= MAX_TOKENS_PER_LINE; begin--) {
+                lineLength += widths[begin] + spacing;
+                if (lineLength > maxWidth && begin != end - 1) {
+                    break; // only a single token may overflow
+                }
+                if (cost[begin] == Long.MAX_VALUE) {
+                    continue;
+                }
+                long free = Math.max(maxWidth - lineLength, 0);
+                long c = cost[begin] + free * free;
+                if (c < cost[end] || (c == cost[end] && lines[begin] + 1 < lines[end])) {
+                    cost[end] = c;
+                    lines[end] = lines[begin] + 1;
+                    start[end] = begin;
+                }
+            }
+        }
+        if (cost[count] == Long.MAX_VALUE || lines[count] > maxLines) {
+            return greedy;
+        }
+
+        int[] starts = new int[lines[count]];
+        for (int end = count, line = starts.length - 1; line >= 0; line--) {
+            starts[line] = start[end];
+            end = start[end];
+        }
+        return starts;
+    }
+}
@@ -0,0 +1,101 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.Arrays;
+
+/**
+ * Lines forced by line break tokens, the {@code "\n"} tokens which {@link PinyinTokenFile} files
+ * have between the paragraphs of a corpus.
+ * <p>
+ * The tokens of every paragraph are broken by the line breaker on their own. A line break token
+ * has no width and ends the last line of its paragraph, a paragraph without tokens is an empty
+ * line. With {@link GreedyLineBreaker} a page of the tokens, starting at a line start, is still
+ * broken into the same lines.
+ */
+public final class ForcedLineBreaks {
+
+    /**
+     * Text of a line break token
+     */
+    public static final String LINE_BREAK = "\n";
+
+    private static final int[] NO_BREAKS = new int[0];
+
+    private ForcedLineBreaks() {
+    }
+
+    /**
+     * @return true if the text is a line break token
+     */
+    public static boolean isLineBreak(CharSequence text) {
+        return text != null && isLineBreak(text, 0, text.length());
+    }
+
+    /**
+     * @return true if the range of the text is a line break token
+     */
+    public static boolean isLineBreak(CharSequence text, int start, int end) {
+        return end - start == 1 && text.charAt(start) == '\n';
+    }
+
+    /**
+     * @param texts text of each token
+     * @param count token count, the first count texts are used
+     * @return index of every line break token, ascending
+     */
+    public static int[] find(String[] texts, int count) {
+        int[] breaks = NO_BREAKS;
+        int breakCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLineBreak(texts[i])) {
+                if (breakCount == breaks.length) {
+                    breaks = Arrays.copyOf(breaks, Math.max(8, breakCount * 2));
+                }
+                breaks[breakCount++] = i;
+            }
+        }
+        return breakCount == breaks.length ? breaks : Arrays.copyOf(breaks, breakCount);
+    }
+
+    /**
+     * Break the tokens into lines, every paragraph by the line breaker.
+     *
+     * @param lineBreaker breaker of the paragraphs
+     * @param breaks      index of every line break token, ascending, the ones from count are ignored
+     * @see LineBreaker#breakLines(int[], int, int, int)
+     */
+    public static int[] breakLines(LineBreaker lineBreaker, int[] widths, int count, int spacing, int maxWidth,
+                                   int[] breaks) {
+        if (breaks.length == 0 || breaks[0] >= count) {
+            return lineBreaker.breakLines(widths, count, spacing, maxWidth);
+        }
+        int[] starts = new int[8];
+        int lineCount = 0;
+        int[] paragraph = null;
+        int start = 0;
+        for (int b = 0; b <= breaks.length && start < count; b++) {
+            int end = b < breaks.length ? Math.min(breaks[b], count) : count;
+            if (end > start) {
+                if (paragraph == null || paragraph.length < end - start) {
+                    paragraph = new int[end - start];
+                }
+                System.arraycopy(widths, start, paragraph, 0, end - start);
+                int[] lines = lineBreaker.breakLines(paragraph, end - start, spacing, maxWidth);
+                if (lineCount + lines.length > starts.length) {
+                    starts = Arrays.copyOf(starts, Math.max(starts.length * 2, lineCount + lines.length));
+                }
+                for (int line : lines) {
+                    starts[lineCount++] = start + line;
+                }
+            } else if (end < count) {
+                // an empty paragraph, the line break token is alone on its line
+                if (lineCount == starts.length) {
+                    starts = Arrays.copyOf(starts, lineCount * 2);
+                }
+                starts[lineCount++] = end;
+            }
+            // the line break token ends the last line of the paragraph
+            start = end + 1;
+        }
+        return Arrays.copyOf(starts, lineCount);
+    }
+}
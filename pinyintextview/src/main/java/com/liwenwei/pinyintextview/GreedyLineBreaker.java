@@ -0,0 +1,33 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.Arrays;
+
+/**
+ * Fills every line with as many tokens as fit, the fastest strategy.
+ */
+public final class GreedyLineBreaker implements LineBreaker {
+
+    public static final GreedyLineBreaker INSTANCE = new GreedyLineBreaker();
+
+    private GreedyLineBreaker() {
+    }
+
+    @Override
+    public int[] breakLines(int[] widths, int count, int spacing, int maxWidth) {
+        int[] starts = new int[count == 0 ? 0 : 8];
+        int lineCount = 0;
+        int lineLength = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || lineLength + spacing + widths[i] > maxWidth) { // new line
+                if (lineCount == starts.length) {
+                    starts = Arrays.copyOf(starts, lineCount * 2);
+                }
+                starts[lineCount++] = i;
+                lineLength = widths[i];
+            } else {
+                lineLength += spacing + widths[i];
+            }
+        }
+        return lineCount == starts.length ? starts : Arrays.copyOf(starts, lineCount);
+    }
+}
@@ -0,0 +1,123 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Small LRU cache of line breaks keyed by (content version, width), so going back to a width
+ * used before, like rotating the device back or resizing a split-screen window, reuses the
+ * breaks instead of computing them again.
+ * <p>
+ * The owner bumps the content version whenever the token widths, the spacing or the
+ * {@link LineBreaker} change, old entries are then simply evicted.
+ * <p>
+ * The caches of all views are in the budget of {@link PinyinMemoryManager}, they are only
+ * weakly referenced so a cache goes with its view. The most recently used entry is the line
+ * breaks the view shows, it is neither counted nor trimmed, as the view keeps it anyway.
+ */
+final class LineBreakCache {
+
+    private static final int MAX_SIZE = 8;
+
+    /**
+     * Approximate size of an entry without its line starts, the entry, the key and the array header
+     */
+    private static final int ENTRY_OVERHEAD = 72;
+
+    private static final Set<LineBreakCache> sInstances =
+            Collections.newSetFromMap(new WeakHashMap<LineBreakCache, Boolean>());
+
+    private final Map<Long, int[]> mCache = new LinkedHashMap<Long, int[]>(MAX_SIZE, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    LineBreakCache() {
+        synchronized (sInstances) {
+            sInstances.add(this);
+        }
+    }
+
+    synchronized int[] get(int version, int width) {
+        return mCache.get(key(version, width));
+    }
+
+    void put(int version, int width, int[] lineStarts) {
+        synchronized (this) {
+            mCache.put(key(version, width), lineStarts);
+        }
+        PinyinMemoryManager.onCacheGrown(sizeOf(lineStarts));
+    }
+
+    synchronized void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * @return approximate heap of the entries which can be evicted, all but the most recent one
+     */
+    synchronized long getRetainedBytes() {
+        long bytes = 0;
+        int evictable = mCache.size() - 1;
+        Iterator<int[]> iterator = mCache.values().iterator();
+        for (int i = 0; i < evictable; i++) {
+            bytes += sizeOf(iterator.next());
+        }
+        return bytes;
+    }
+
+    /**
+     * Evict the least recently used entries until the cache retains at most maxBytes, the most
+     * recent one is kept.
+     */
+    synchronized void trimTo(long maxBytes) {
+        long bytes = getRetainedBytes();
+        Iterator<int[]> iterator = mCache.values().iterator();
+        for (int i = mCache.size() - 1; bytes > maxBytes && i > 0; i--) {
+            bytes -= sizeOf(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return approximate heap retained by the caches of all views
+     */
+    static long getRetainedBytesOfAll() {
+        long bytes = 0;
+        for (LineBreakCache cache : snapshot()) {
+            bytes += cache.getRetainedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Trim the caches of all views until they retain at most maxBytes in total, every cache keeps
+     * an equal share.
+     */
+    static void trimAll(long maxBytes) {
+        LineBreakCache[] caches = snapshot();
+        for (LineBreakCache cache : caches) {
+            cache.trimTo(maxBytes / Math.max(caches.length, 1));
+        }
+    }
+
+    private static LineBreakCache[] snapshot() {
+        synchronized (sInstances) {
+            return sInstances.toArray(new LineBreakCache[0]);
+        }
+    }
+
+    private static long sizeOf(int[] lineStarts) {
+        return ENTRY_OVERHEAD + 4L * lineStarts.length;
+    }
+
+    private static Long key(int version, int width) {
+        return ((long) version << 32) | (width & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,24 @@
+package com.liwenwei.pinyintextview;
+
+/**
+ * Breaks tokens into lines for the {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} layout.
+ * <p>
+ * A token is never split, a token wider than the line is placed on a line of its own.
+ * Implementations must be stateless, so one instance can be shared by all views and threads.
+ *
+ * @see GreedyLineBreaker
+ * @see BalancedLineBreaker
+ */
+public interface LineBreaker {
+
+    /**
+     * Break tokens into lines.
+     *
+     * @param widths   width of each token, the max of its pinyin and text width
+     * @param count    token count, the first count values of widths are used
+     * @param spacing  horizontal spacing between two tokens of the same line
+     * @param maxWidth max width of a line
+     * @return index of the first token of each line, an empty array if count is 0
+     */
+    int[] breakLines(int[] widths, int count, int spacing, int maxWidth);
+}
@@ -0,0 +1,108 @@
+package com.liwenwei.pinyintextview;
+
+import java.nio.CharBuffer;
+
+/**
+ * Tokens packed in two char sequences with offset arrays, set by
+ * {@link PinyinTextView#setPinyinText(CharSequence, int[], CharSequence, int[], int[], int[])}.
+ * <p>
+ * Token i is the text {@code texts[textOffsets[i], textOffsets[i + 1])} with the pinyin
+ * {@code pinyins[pinyinOffsets[i], pinyinOffsets[i + 1])}. Nothing is copied and no object is
+ * created per token, the ranges are measured and drawn directly.
+ */
+final class PackedTokens {
+
+    final int count;
+
+    final CharSequence texts;
+    // the backing array of texts if the tokens are set by char[], drawn without copying
+    final char[] textChars;
+    final int[] textOffsets;
+
+    final CharSequence pinyins;
+    final char[] pinyinChars;
+    final int[] pinyinOffsets;
+
+    // colors of each token, null or 0 means the default color
+    final int[] textColors;
+    final int[] pinyinColors;
+
+    private PackedTokens(CharSequence texts, char[] textChars, int[] textOffsets,
+                         CharSequence pinyins, char[] pinyinChars, int[] pinyinOffsets,
+                         int[] textColors, int[] pinyinColors) {
+        if (textOffsets == null || pinyinOffsets == null || textOffsets.length == 0
+                || textOffsets.length != pinyinOffsets.length) {
+            throw new IllegalArgumentException("Offsets must have the same size, token count + 1");
+        }
+        count = textOffsets.length - 1;
+        if ((textColors != null && textColors.length != count)
+                || (pinyinColors != null && pinyinColors.length != count)) {
+            throw new IllegalArgumentException("Colors must have the size of token count");
+        }
+        checkOffsets(textOffsets, texts.length());
+        checkOffsets(pinyinOffsets, pinyins.length());
+        this.texts = texts;
+        this.textChars = textChars;
+        this.textOffsets = textOffsets;
+        this.pinyins = pinyins;
+        this.pinyinChars = pinyinChars;
+        this.pinyinOffsets = pinyinOffsets;
+        this.textColors = textColors;
+        this.pinyinColors = pinyinColors;
+    }
+
+    static PackedTokens of(CharSequence texts, int[] textOffsets, CharSequence pinyins, int[] pinyinOffsets,
+                           int[] textColors, int[] pinyinColors) {
+        if (texts == null || pinyins == null) {
+            throw new IllegalArgumentException("Texts and pinyins must not be null");
+        }
+        return new PackedTokens(texts, null, textOffsets, pinyins, null, pinyinOffsets, textColors, pinyinColors);
+    }
+
+    static PackedTokens of(char[] texts, int[] textOffsets, char[] pinyins, int[] pinyinOffsets,
+                           int[] textColors, int[] pinyinColors) {
+        if (texts == null || pinyins == null) {
+            throw new IllegalArgumentException("Texts and pinyins must not be null");
+        }
+        // CharBuffer.wrap doesn't copy the array
+        return new PackedTokens(CharBuffer.wrap(texts), texts, textOffsets,
+                CharBuffer.wrap(pinyins), pinyins, pinyinOffsets, textColors, pinyinColors);
+    }
+
+    private static void checkOffsets(int[] offsets, int length) {
+        if (offsets[0] < 0 || offsets[offsets.length - 1] > length) {
+            throw new IllegalArgumentException("Offsets out of range " + length);
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IllegalArgumentException("Offsets must be sorted, offset " + i + " is " + offsets[i]);
+            }
+        }
+    }
+
+    int getTextColor(int index) {
+        return textColors == null ? 0 : textColors[index];
+    }
+
+    int getPinyinColor(int index) {
+        return pinyinColors == null ? 0 : pinyinColors[index];
+    }
+
+    /**
+     * Create the text string of a token, only for the paths which need strings.
+     */
+    String getText(int index) {
+        return texts.subSequence(textOffsets[index], textOffsets[index + 1]).toString();
+    }
+
+    String getPinyin(int index) {
+        return pinyins.subSequence(pinyinOffsets[index], pinyinOffsets[index + 1]).toString();
+    }
+
+    /**
+     * @return texts of all tokens as a string
+     */
+    String getPlainText() {
+        return texts.subSequence(textOffsets[0], textOffsets[count]).toString();
+    }
+}
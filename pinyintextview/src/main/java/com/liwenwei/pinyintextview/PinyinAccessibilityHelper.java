@@ -0,0 +1,133 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Rect;
+import android.os.Bundle;
+
+import java.util.List;
+
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import androidx.customview.widget.ExploreByTouchHelper;
+
+/**
+ * Virtual accessibility hierarchy of a {@link PinyinTextView}, so screen readers like TalkBack
+ * move through the text token by token, or line by line, see
+ * {@link PinyinTextView#setAccessibilityUnit(int)}.
+ * <p>
+ * The virtual id of a token is its index, of a line its index in the layout. Nothing is kept per
+ * token: a node is only built when a screen reader asks for it, and the children of the view are
+ * the tokens of the lines on screen, found by binary search on the line tops of the layout. The
+ * cost doesn't grow with the length of the text, and is zero while no screen reader is enabled.
+ * In the modes without layout, the text of the view is the text of its own node.
+ */
+final class PinyinAccessibilityHelper extends ExploreByTouchHelper {
+
+    private final PinyinTextView mView;
+    private final Rect mRect = new Rect();
+
+    PinyinAccessibilityHelper(PinyinTextView view) {
+        super(view);
+        mView = view;
+    }
+
+    @Override
+    protected int getVirtualViewAt(float x, float y) {
+        PinyinLayout layout = mView.getAccessibilityLayout();
+        if (layout == null) {
+            return INVALID_ID;
+        }
+        if (mView.getAccessibilityUnit() == PinyinTextView.ACCESSIBILITY_UNIT_LINE) {
+            int line = findLine(layout, (int) y - mView.getPaddingTop());
+            return line >= 0 && (int) y - mView.getPaddingTop() < layout.getLineBottom(line) ? line : INVALID_ID;
+        }
+        int index = mView.getTokenIndexAt(x, y);
+        return index >= 0 ? index : INVALID_ID;
+    }
+
+    @Override
+    protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+        PinyinLayout layout = mView.getAccessibilityLayout();
+        if (layout == null || !mView.getLocalVisibleRect(mRect)) {
+            return;
+        }
+        // only the lines on screen, a scrolling parent brings the next ones
+        int top = mRect.top - mView.getPaddingTop();
+        int bottom = mRect.bottom - mView.getPaddingTop();
+        int firstLine = Math.max(0, findLine(layout, top));
+        int lastLine = findLine(layout, bottom - 1);
+        boolean byLine = mView.getAccessibilityUnit() == PinyinTextView.ACCESSIBILITY_UNIT_LINE;
+        int visibleCount = mView.getVisibleTokenCount();
+        for (int line = firstLine; line <= lastLine; line++) {
+            if (byLine) {
+                virtualViewIds.add(line);
+                continue;
+            }
+            int end = Math.min(layout.getLineEnd(line), visibleCount);
+            for (int i = layout.getLineStart(line); i < end; i++) {
+                virtualViewIds.add(i);
+            }
+        }
+    }
+
+    @Override
+    protected void onPopulateNodeForVirtualView(int virtualViewId, AccessibilityNodeInfoCompat node) {
+        PinyinLayout layout = mView.getAccessibilityLayout();
+        boolean byLine = mView.getAccessibilityUnit() == PinyinTextView.ACCESSIBILITY_UNIT_LINE;
+        if (layout == null || virtualViewId < 0
+                || virtualViewId >= (byLine ? layout.getLineCount() : mView.getVisibleTokenCount())) {
+            // the text changed since the screen reader asked for the id
+            node.setContentDescription("");
+            node.setBoundsInParent(new Rect());
+            return;
+        }
+        if (byLine) {
+            int start = layout.getLineStart(virtualViewId);
+            int end = Math.min(layout.getLineEnd(virtualViewId), mView.getVisibleTokenCount());
+            StringBuilder text = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                text.append(mView.getTokenText(i));
+            }
+            node.setText(text);
+            int left = end > start ? layout.getTokenLeft(start) : 0;
+            int right = end > start ? layout.getTokenLeft(end - 1) + layout.getTokenWidth(end - 1) : 0;
+            mRect.set(left, layout.getLineTop(virtualViewId), right, layout.getLineBottom(virtualViewId));
+            mRect.offset(mView.getPaddingLeft(), mView.getPaddingTop());
+        } else {
+            node.setText(mView.getTokenText(virtualViewId));
+            mView.getTokenBounds(virtualViewId, mRect);
+        }
+        node.setBoundsInParent(mRect);
+    }
+
+    @Override
+    protected void onPopulateNodeForHost(AccessibilityNodeInfoCompat node) {
+        if (mView.getAccessibilityLayout() == null) {
+            // no virtual children, the view reads as a whole
+            node.setText(mView.getText());
+        }
+    }
+
+    @Override
+    protected boolean onPerformActionForVirtualView(int virtualViewId, int action, Bundle arguments) {
+        return false;
+    }
+
+    /**
+     * @return the last line whose top <= y, -1 if y is above the first line
+     */
+    private static int findLine(PinyinLayout layout, int y) {
+        int low = 0;
+        int high = layout.getLineCount() - 1;
+        if (high < 0 || y < layout.getLineTop(0)) {
+            return -1;
+        }
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (layout.getLineTop(mid) <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,237 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Aligns many {@link PinyinTextView}s, like the cells of a flash card grid or the rows of a
+ * dialogue table.
+ * <p>
+ * All members share the same text & pinyin heights, the max of their styles, so their lines have
+ * the same height even with different text sizes. With {@link #setAlignColumns(boolean)} token i
+ * of every member is as wide as the widest token i of the group, so the tokens line up in
+ * columns.
+ * <p>
+ * The shared values are computed once for the group and pushed to the members. The heights are
+ * only computed again when the style of a member changes. Every member measures its own tokens in
+ * its own measure pass and reports the widths to the group, the columns are the max of the widths
+ * reported so far, and the other members are laid out again when they change. Members are weakly
+ * referenced, and must be used on the main thread.
+ */
+public class PinyinAlignmentGroup {
+
+    private final Map<PinyinTextView, Member> mMembers = new WeakHashMap<>();
+    private PinyinMetricsCache.Metrics mMetrics;
+
+    private boolean mAlignColumns;
+    // not changed once computed, a new array is made when the columns change
+    private int[] mColumnWidths;
+    private int[] mScratchWidths = new int[0];
+    private boolean mColumnsDirty = true;
+
+    /**
+     * Set whether to align the tokens of the members in columns, only in
+     * {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} mode.
+     *
+     * @param alignColumns true to align, false by default
+     */
+    public void setAlignColumns(boolean alignColumns) {
+        if (mAlignColumns == alignColumns) {
+            return;
+        }
+        mAlignColumns = alignColumns;
+        mColumnsDirty = true;
+        for (PinyinTextView member : getMembers()) {
+            member.onGroupColumnsChanged();
+        }
+    }
+
+    public boolean isAlignColumns() {
+        return mAlignColumns;
+    }
+
+    /**
+     * @return count of the members
+     */
+    public int size() {
+        return mMembers.size();
+    }
+
+    /**
+     * @return shared text height, 0 if the group is empty
+     */
+    public int getTextHeight() {
+        return mMetrics == null ? 0 : mMetrics.textHeight;
+    }
+
+    /**
+     * @return shared pinyin height, 0 if the group is empty
+     */
+    public int getPinyinHeight() {
+        return mMetrics == null ? 0 : mMetrics.pinyinHeight;
+    }
+
+    /**
+     * Called by {@link PinyinTextView#setAlignmentGroup(PinyinAlignmentGroup)}.
+     */
+    void add(PinyinTextView view) {
+        Member member = new Member();
+        member.metrics = view.getOwnMetrics();
+        mMembers.put(view, member);
+        updateMetrics(view);
+        // the columns change once the member reports its widths
+    }
+
+    /**
+     * Called by {@link PinyinTextView#setAlignmentGroup(PinyinAlignmentGroup)}.
+     */
+    void remove(PinyinTextView view) {
+        Member member = mMembers.remove(view);
+        if (member == null) {
+            return;
+        }
+        updateMetrics(null);
+        if (mAlignColumns && member.count > 0) {
+            mColumnsDirty = true;
+            for (PinyinTextView other : getMembers()) {
+                other.onGroupColumnsChanged();
+            }
+        }
+    }
+
+    /**
+     * The style of the member changed.
+     *
+     * @return the shared heights for the member
+     */
+    PinyinMetricsCache.Metrics onMemberStyleChanged(PinyinTextView view) {
+        Member member = mMembers.get(view);
+        if (member != null) {
+            member.metrics = view.getOwnMetrics();
+        }
+        updateMetrics(view);
+        return mMetrics;
+    }
+
+    /**
+     * The member measured its tokens, in its own measure pass. The other members are laid out
+     * again if the columns change.
+     *
+     * @param widths token widths of the member, copied
+     * @param count  count of the tokens, 0 if the member doesn't show tokens in columns
+     */
+    void onMemberWidthsMeasured(PinyinTextView view, int[] widths, int count) {
+        Member member = mMembers.get(view);
+        if (member == null) {
+            return;
+        }
+        if (member.widths.length < count) {
+            member.widths = new int[count];
+        }
+        System.arraycopy(widths, 0, member.widths, 0, count);
+        member.count = count;
+        if (!mAlignColumns || mColumnsDirty || !updateColumns()) {
+            return;
+        }
+        for (PinyinTextView other : getMembers()) {
+            if (other != view) {
+                other.onGroupColumnsChanged();
+            }
+        }
+    }
+
+    /**
+     * Get the width of every column, token i of a member is at least column i wide. Only the
+     * widths the members reported are used, no member is measured.
+     *
+     * @return column widths, null if the columns are not aligned
+     */
+    int[] getColumnWidths() {
+        if (!mAlignColumns) {
+            return null;
+        }
+        if (mColumnsDirty) {
+            updateColumns();
+            mColumnsDirty = false;
+        }
+        return mColumnWidths;
+    }
+
+    /**
+     * Compute the columns of the reported widths.
+     *
+     * @return true if they changed
+     */
+    private boolean updateColumns() {
+        int columns = 0;
+        for (Member member : mMembers.values()) {
+            columns = Math.max(columns, member.count);
+        }
+        if (mScratchWidths.length < columns) {
+            mScratchWidths = new int[columns];
+        }
+        int[] widths = mScratchWidths;
+        Arrays.fill(widths, 0, columns, 0);
+        for (Member member : mMembers.values()) {
+            for (int i = 0; i < member.count; i++) {
+                widths[i] = Math.max(widths[i], member.widths[i]);
+            }
+        }
+        if (mColumnWidths != null && mColumnWidths.length == columns && equals(mColumnWidths, widths, columns)) {
+            return false;
+        }
+        mColumnWidths = Arrays.copyOf(widths, columns);
+        return true;
+    }
+
+    private static boolean equals(int[] a, int[] b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the max heights of the members, and push them to the members if they changed.
+     *
+     * @param source member which changed, it reads the heights itself
+     */
+    private void updateMetrics(PinyinTextView source) {
+        int textHeight = 0;
+        int pinyinHeight = 0;
+        for (Member member : mMembers.values()) {
+            textHeight = Math.max(textHeight, member.metrics.textHeight);
+            pinyinHeight = Math.max(pinyinHeight, member.metrics.pinyinHeight);
+        }
+        if (mMetrics != null && mMetrics.textHeight == textHeight && mMetrics.pinyinHeight == pinyinHeight) {
+            return;
+        }
+        mMetrics = mMembers.isEmpty() ? null : new PinyinMetricsCache.Metrics(textHeight, pinyinHeight);
+        if (mMetrics == null) {
+            return;
+        }
+        for (PinyinTextView member : getMembers()) {
+            if (member != source) {
+                member.onGroupMetricsChanged(mMetrics);
+            }
+        }
+    }
+
+    private List<PinyinTextView> getMembers() {
+        return new ArrayList<>(mMembers.keySet());
+    }
+
+    /**
+     * Heights of the style of a member, and the token widths it reported.
+     */
+    private static final class Member {
+        PinyinMetricsCache.Metrics metrics;
+        int[] widths = new int[0];
+        int count;
+    }
+}
@@ -0,0 +1,313 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the annotation of {@link PinyinTextView#setPinyinTextAsync(String, PinyinTextView.Annotator, int)}
+ * on an executor and delivers the tokens on the main thread.
+ * <p>
+ * Requests with the same text, annotator, mode and style share one job, so a list binding the same
+ * content to many views annotates it once. A request is cancelled when its view is bound again or
+ * detached, the job is only cancelled when all of its requests are. A detached view binds its
+ * cancelled request again when it is attached again. Besides the annotation, the
+ * job measures the token widths with the style of the view, so the view doesn't have to measure
+ * them on the main thread.
+ * <p>
+ * Jobs are started, delivered and cancelled on the main thread, only {@link Job#run()} runs on
+ * the executor.
+ */
+final class PinyinBinder {
+
+    // check for cancellation every so many tokens while measuring
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private static final String TAG = "PinyinBinder";
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // in-flight jobs by key, only used on the main thread
+    private static final Map<Key, Job> sJobs = new HashMap<>();
+    private static Executor sDefaultExecutor;
+
+    private PinyinBinder() {
+    }
+
+    /**
+     * Set the executor of the requests without one, a pool of background threads by default.
+     */
+    static synchronized void setDefaultExecutor(Executor executor) {
+        sDefaultExecutor = executor;
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+            sDefaultExecutor = createExecutor(threads);
+        }
+        return sDefaultExecutor;
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PinyinBinder #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start annotating the text for the view, or join the job of the same content.
+     *
+     * @param executor executor of a new job, null for the default one
+     * @return request to deliver to the view, or to cancel
+     */
+    static Request bind(PinyinTextView view, String text, PinyinTextView.Annotator annotator,
+                        @PinyinTextView.PinyinMode int mode, PinyinStyle.MeasureKey style, Executor executor) {
+        return bind(new Request(view, new Key(text, annotator, mode, style), executor));
+    }
+
+    /**
+     * Bind a cancelled request again, with the current style of the view.
+     *
+     * @return new request to deliver to the view, or to cancel
+     */
+    static Request bind(PinyinTextView view, Request cancelled, PinyinStyle.MeasureKey style) {
+        Key key = cancelled.key;
+        return bind(new Request(view, new Key(key.text, key.annotator, key.mode, style), cancelled.executor));
+    }
+
+    private static Request bind(Request request) {
+        Job job = sJobs.get(request.key);
+        if (job != null) {
+            job.requests.add(request);
+            return request;
+        }
+        job = new Job(request.key);
+        job.requests.add(request);
+        // only a started job is joined, a rejected one would be waited for forever
+        (request.executor != null ? request.executor : getDefaultExecutor()).execute(job);
+        sJobs.put(request.key, job);
+        return request;
+    }
+
+    /**
+     * Request of a view, waiting for the tokens of a job.
+     */
+    static final class Request {
+        final PinyinTextView view;
+        final Key key;
+        // executor of a new job, null for the default one
+        final Executor executor;
+        private boolean mDone;
+
+        Request(PinyinTextView view, Key key, Executor executor) {
+            this.view = view;
+            this.key = key;
+            this.executor = executor;
+        }
+
+        int getMode() {
+            return key.mode;
+        }
+
+        PinyinStyle.MeasureKey getMeasureKey() {
+            return key.style;
+        }
+
+        /**
+         * Stop waiting for the tokens, the job is cancelled if no other request waits for it.
+         */
+        void cancel() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            Job job = sJobs.get(key);
+            if (job == null || !job.requests.remove(this)) {
+                return;
+            }
+            if (job.requests.isEmpty()) {
+                job.cancelled = true;
+                sJobs.remove(key);
+            }
+        }
+    }
+
+    private static final class Key {
+        final String text;
+        final PinyinTextView.Annotator annotator;
+        final int mode;
+        final PinyinStyle.MeasureKey style;
+
+        Key(String text, PinyinTextView.Annotator annotator, int mode, PinyinStyle.MeasureKey style) {
+            this.text = text;
+            this.annotator = annotator;
+            this.mode = mode;
+            this.style = style;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mode == key.mode && text.equals(key.text) && annotator.equals(key.annotator)
+                    && style.equals(key.style);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + annotator.hashCode();
+            result = 31 * result + mode;
+            result = 31 * result + style.hashCode();
+            return result;
+        }
+    }
+
+    private static final class Job implements Runnable {
+        final Key key;
+        // requests waiting for the tokens, only used on the main thread
+        final List<Request> requests = new ArrayList<>(1);
+        volatile boolean cancelled;
+
+        private List<PinyinTextView.Token> mTokens;
+        private int[] mTextWidths;
+        private int[] mPinyinWidths;
+        private RuntimeException mError;
+
+        Job(Key key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                mTokens = key.annotator.annotate(key.text);
+                if (mTokens == null) {
+                    throw new IllegalStateException("Annotator returned null tokens");
+                }
+                if (key.mode == PinyinTextView.TYPE_PINYIN_AND_TEXT) {
+                    measure();
+                }
+            } catch (RuntimeException e) {
+                mError = e;
+            }
+            if (cancelled) {
+                return;
+            }
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+
+        /**
+         * Measure the widths of the tokens like the view does, with a paint of this thread.
+         * Precomputed widths are used as they are.
+         */
+        private void measure() {
+            PinyinStyle.MeasureKey style = key.style;
+            TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
+            paint.setTypeface(style.typeface);
+            AdvanceTable textAdvances = null;
+            AdvanceTable pinyinAdvances = null;
+            if (style.measureMode == PinyinTextView.MEASURE_ADVANCES) {
+                textAdvances = AdvanceTable.get(style.typeface, style.textSize);
+                pinyinAdvances = AdvanceTable.get(style.typeface, style.pinyinTextSize);
+            }
+            int count = mTokens.size();
+            int[] textWidths = new int[count];
+            int[] pinyinWidths = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (i % CANCEL_CHECK_INTERVAL == 0 && cancelled) {
+                    return;
+                }
+                PinyinTextView.Token token = mTokens.get(i);
+                textWidths[i] = token.getPrecomputedTextWidth() >= 0
+                        ? PinyinTextView.scaleWidth(token.getPrecomputedTextWidth(), style.textSize)
+                        : measure(paint, textAdvances, token.getText(), style.textSize);
+                pinyinWidths[i] = token.getPrecomputedPinyinWidth() >= 0
+                        ? PinyinTextView.scaleWidth(token.getPrecomputedPinyinWidth(), style.pinyinTextSize)
+                        : measure(paint, pinyinAdvances, token.getPinyin(), style.pinyinTextSize);
+            }
+            mTextWidths = textWidths;
+            mPinyinWidths = pinyinWidths;
+        }
+
+        private static int measure(TextPaint paint, AdvanceTable advances, String text, int textSize) {
+            if (text == null || text.isEmpty() || ForcedLineBreaks.isLineBreak(text)) {
+                return 0;
+            }
+            if (advances != null) {
+                float width = advances.measure(text, 0, text.length());
+                if (width >= 0) {
+                    return (int) Math.ceil(width);
+                }
+            }
+            paint.setTextSize(textSize);
+            return (int) Math.ceil(Layout.getDesiredWidth(text, 0, text.length(), paint));
+        }
+
+        private void deliver() {
+            if (cancelled) {
+                return;
+            }
+            sJobs.remove(key);
+            if (mError != null) {
+                // never thrown on the main thread, every request ends and its view stays empty
+                Log.w(TAG, "Annotating failed, " + requests.size() + " views stay empty", mError);
+                for (int i = 0; i < requests.size(); i++) {
+                    Request request = requests.get(i);
+                    request.mDone = true;
+                    request.view.onBindFailed(request);
+                }
+                requests.clear();
+                return;
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                Request request = requests.get(i);
+                request.mDone = true;
+                // every view owns its tokens & widths, they change them
+                List<PinyinTextView.Token> tokens = i == 0 ? mTokens : PinyinTextView.copyTokens(mTokens);
+                int[] textWidths = mTextWidths;
+                int[] pinyinWidths = mPinyinWidths;
+                if (i > 0 && textWidths != null) {
+                    textWidths = textWidths.clone();
+                    pinyinWidths = pinyinWidths.clone();
+                }
+                request.view.onBindResult(request, tokens, textWidths, pinyinWidths);
+            }
+            requests.clear();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.Arrays;
+
+/**
+ * Token placement of the {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} mode.
+ * <p>
+ * Every token is a column of pinyin above text, the narrower one is centered on the wider one.
+ * Tokens of a line are separated by the horizontal spacing, lines are separated by the line
+ * spacing. Coordinates are relative to the content, without padding. Drawing uses the bottom of
+ * the pinyin and of the text as baseline, like {@link PinyinTextView} does.
+ * <p>
+ * This class has no Android dependency, the same rules are used by the headless renderer.
+ */
+public final class PinyinLayout {
+
+    /**
+     * Text height is the bounds height of this sample, not of the real text, so the views with the
+     * same style have the same height and can be aligned
+     */
+    public static final String TEXT_HEIGHT_SAMPLE = "你好";
+
+    /**
+     * Pinyin height is the bounds height of this sample without its last char
+     */
+    public static final String PINYIN_HEIGHT_SAMPLE = "āáǎàaHhJjPpYyGg";
+
+    private final int mCount;
+    private final int[] mTextWidths;
+    private final int[] mPinyinWidths;
+    private final int[] mColumnWidths;
+    private final int[] mTokenLefts;
+    private final int[] mLineStarts;
+
+    private final int mHorizontalSpacing;
+    private final int mLineSpacing;
+    private final int mPinyinTextSpacing;
+    private final int mTextHeight;
+    private final int mPinyinHeight;
+
+    private final int mWidth;
+
+    /**
+     * Place the tokens.
+     *
+     * @param textWidths        text width of each token, not copied
+     * @param pinyinWidths      pinyin width of each token, not copied
+     * @param count             token count
+     * @param lineStarts        first token of each line, see {@link LineBreaker}
+     * @param horizontalSpacing spacing between two tokens
+     * @param lineSpacing       spacing between two lines
+     * @param pinyinTextSpacing spacing between pinyin and text
+     * @param textHeight        height of text
+     * @param pinyinHeight      height of pinyin
+     */
+    public PinyinLayout(int[] textWidths, int[] pinyinWidths, int count, int[] lineStarts,
+                        int horizontalSpacing, int lineSpacing, int pinyinTextSpacing,
+                        int textHeight, int pinyinHeight) {
+        this(textWidths, pinyinWidths, null, count, lineStarts, horizontalSpacing, lineSpacing,
+                pinyinTextSpacing, textHeight, pinyinHeight);
+    }
+
+    /**
+     * Place the tokens in columns, token i is at least {@code columnWidths[i]} wide, so the tokens
+     * of several layouts line up, like PinyinAlignmentGroup does. The pinyin and the text are
+     * centered in the column.
+     *
+     * @param columnWidths min width of each token, not copied, tokens after it have no min width
+     */
+    public PinyinLayout(int[] textWidths, int[] pinyinWidths, int[] columnWidths, int count, int[] lineStarts,
+                        int horizontalSpacing, int lineSpacing, int pinyinTextSpacing,
+                        int textHeight, int pinyinHeight) {
+        mCount = count;
+        mTextWidths = textWidths;
+        mPinyinWidths = pinyinWidths;
+        mColumnWidths = columnWidths;
+        mLineStarts = lineStarts;
+        mHorizontalSpacing = horizontalSpacing;
+        mLineSpacing = lineSpacing;
+        mPinyinTextSpacing = pinyinTextSpacing;
+        mTextHeight = textHeight;
+        mPinyinHeight = pinyinHeight;
+
+        mTokenLefts = new int[count];
+        int width = 0;
+        for (int line = 0; line < lineStarts.length; line++) {
+            int lineLength = 0;
+            for (int i = lineStarts[line], end = getLineEnd(line); i < end; i++) {
+                if (i != lineStarts[line]) {
+                    lineLength += horizontalSpacing;
+                }
+                mTokenLefts[i] = lineLength;
+                lineLength += getTokenWidth(i);
+            }
+            width = Math.max(width, lineLength);
+        }
+        mWidth = width;
+    }
+
+    private PinyinLayout(int[] textWidths, int[] pinyinWidths, int[] tokenLefts, int width, int count,
+                         int[] lineStarts, int horizontalSpacing, int lineSpacing, int pinyinTextSpacing,
+                         int textHeight, int pinyinHeight) {
+        mCount = count;
+        mTextWidths = textWidths;
+        mPinyinWidths = pinyinWidths;
+        mColumnWidths = null;
+        mTokenLefts = tokenLefts;
+        mLineStarts = lineStarts;
+        mHorizontalSpacing = horizontalSpacing;
+        mLineSpacing = lineSpacing;
+        mPinyinTextSpacing = pinyinTextSpacing;
+        mTextHeight = textHeight;
+        mPinyinHeight = pinyinHeight;
+        mWidth = width;
+    }
+
+    /**
+     * A layout placed before, like the one stored in a {@link PinyinLayoutFile}, without placing
+     * the tokens again. The arrays are not copied.
+     *
+     * @param tokenLefts left of each token
+     * @param width      max line length
+     */
+    static PinyinLayout placed(int[] textWidths, int[] pinyinWidths, int[] tokenLefts, int width, int count,
+                               int[] lineStarts, int horizontalSpacing, int lineSpacing, int pinyinTextSpacing,
+                               int textHeight, int pinyinHeight) {
+        return new PinyinLayout(textWidths, pinyinWidths, tokenLefts, width, count, lineStarts,
+                horizontalSpacing, lineSpacing, pinyinTextSpacing, textHeight, pinyinHeight);
+    }
+
+    public int getTokenCount() {
+        return mCount;
+    }
+
+    public int getLineCount() {
+        return mLineStarts.length;
+    }
+
+    /**
+     * @return index of the first token of the line
+     */
+    public int getLineStart(int line) {
+        return mLineStarts[line];
+    }
+
+    /**
+     * @return index after the last token of the line
+     */
+    public int getLineEnd(int line) {
+        return line + 1 < mLineStarts.length ? mLineStarts[line + 1] : mCount;
+    }
+
+    /**
+     * Find the line of the token by binary search.
+     */
+    public int getLineForToken(int index) {
+        int line = Arrays.binarySearch(mLineStarts, index);
+        if (line < 0) {
+            return -line - 2;
+        }
+        // skip empty lines
+        while (line + 1 < mLineStarts.length && mLineStarts[line + 1] == index) {
+            line++;
+        }
+        return line;
+    }
+
+    /**
+     * @return height of pinyin, text and the spacing between them, without line spacing
+     */
+    public int getLineHeight() {
+        return mPinyinHeight + mPinyinTextSpacing + mTextHeight;
+    }
+
+    /**
+     * @return top of the line, it is also the top of its pinyin
+     */
+    public int getLineTop(int line) {
+        // TODO: add the underline vertical space if show underline
+        return line * (getLineHeight() + mLineSpacing);
+    }
+
+    /**
+     * @return bottom of the line, it is also the baseline of its text
+     */
+    public int getLineBottom(int line) {
+        return getLineTop(line) + getLineHeight();
+    }
+
+    /**
+     * @return baseline of the pinyin of the line
+     */
+    public int getPinyinBaseline(int line) {
+        return getLineTop(line) + mPinyinHeight;
+    }
+
+    /**
+     * @return max line length
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of all lines, with a quarter of text height below the last line for the descent
+     */
+    public int getHeight() {
+        if (mLineStarts.length == 0) {
+            return 0;
+        }
+        return getLineBottom(mLineStarts.length - 1) + mTextHeight / 4;
+    }
+
+    public int getTokenLeft(int index) {
+        return mTokenLefts[index];
+    }
+
+    /**
+     * @return width of the token, the max of its text and pinyin width, and of its column
+     */
+    public int getTokenWidth(int index) {
+        int width = Math.max(mTextWidths[index], mPinyinWidths[index]);
+        if (mColumnWidths != null && index < mColumnWidths.length) {
+            width = Math.max(width, mColumnWidths[index]);
+        }
+        return width;
+    }
+
+    public int getTextWidth(int index) {
+        return mTextWidths[index];
+    }
+
+    public int getPinyinWidth(int index) {
+        return mPinyinWidths[index];
+    }
+
+    /**
+     * @return left of the text, centered in the token
+     */
+    public int getTextLeft(int index) {
+        return mTokenLefts[index] + (getTokenWidth(index) - mTextWidths[index]) / 2;
+    }
+
+    /**
+     * @return left of the pinyin, centered in the token
+     */
+    public int getPinyinLeft(int index) {
+        return mTokenLefts[index] + (getTokenWidth(index) - mPinyinWidths[index]) / 2;
+    }
+
+    public int getHorizontalSpacing() {
+        return mHorizontalSpacing;
+    }
+
+    public int getLineSpacing() {
+        return mLineSpacing;
+    }
+
+    public int getPinyinTextSpacing() {
+        return mPinyinTextSpacing;
+    }
+
+    public int getTextHeight() {
+        return mTextHeight;
+    }
+
+    public int getPinyinHeight() {
+        return mPinyinHeight;
+    }
+}
@@ -0,0 +1,467 @@
+package com.liwenwei.pinyintextview;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A computed {@link PinyinLayout} with its tokens, stored in a compact versioned binary file, so
+ * a document opened before can be shown without measuring and breaking it again.
+ * <p>
+ * The file is read through memory-mapped I/O into a few arrays: the tokens are packed chars with
+ * offsets, no string is created per token, and the layout is rebuilt from the stored widths,
+ * line starts and token lefts without a placement pass. The widths are only valid for the font
+ * they were measured with, check it with {@link #getFontFingerprint()}. The layout is only valid
+ * for the style and width it was computed with, check it with
+ * {@link #matches(int, int, int, int, int, int, int)} and {@link #getWidth()}, and lay the tokens
+ * out again if it doesn't match.
+ * <p>
+ * Format, big endian:
+ * <pre>
+ * int      magic "PYLT"
+ * int      version
+ * int      textSize, pinyinTextSize, horizontalSpacing, lineSpacing, pinyinTextSpacing,
+ *          textHeight, pinyinHeight, lineBreakStrategy, width, layoutWidth, fontFingerprint
+ * int      token count n, line count m, text char count t, pinyin char count p
+ * int[n]   text widths, int[n] pinyin widths, int[n] token lefts, int[m] line starts
+ * int[n]   text colors, int[n] pinyin colors
+ * int[n+1] text offsets, int[n+1] pinyin offsets
+ * char[t]  texts of all tokens
+ * char[p]  pinyins of all tokens
+ * </pre>
+ * This class has no Android dependency, layouts can be generated offline by the headless renderer.
+ */
+public final class PinyinLayoutFile {
+
+    private static final int MAGIC = 0x50594C54; // PYLT
+    private static final int VERSION = 3;
+    private static final int HEADER_INTS = 2 + 11 + 4;
+
+    /**
+     * Measured for the font fingerprint, hanzi, pinyin with tone marks, latin and punctuation,
+     * another font hardly gets the same widths for all of them
+     */
+    private static final String[] FONT_SAMPLES = {
+            "中文字体", "永", "zhōngwén zìtǐ", "lǜ nǚ ǎ", "Wiggle", "0123456789", "，。！？“”"
+    };
+
+    // line break strategies, the same values as PinyinTextView, a custom LineBreaker is never matched
+    private static final int LINE_BREAK_GREEDY = 0;
+    private static final int LINE_BREAK_BALANCED = 1;
+    private static final int LINE_BREAK_CUSTOM = -1;
+
+    private final int mCount;
+    private final char[] mTexts;
+    private final int[] mTextOffsets;
+    private final char[] mPinyins;
+    private final int[] mPinyinOffsets;
+    private final int[] mTextColors;
+    private final int[] mPinyinColors;
+
+    private final int mTextSize;
+    private final int mPinyinTextSize;
+    private final int mLineBreakStrategy;
+    private final int mWidth;
+    private final int mFontFingerprint;
+
+    private final int[] mTextWidths;
+    private final int[] mPinyinWidths;
+    private final int[] mLineStarts;
+    private final PinyinLayout mLayout;
+
+    /**
+     * @param texts          text of each token
+     * @param pinyins        pinyin of each token
+     * @param textColors     text color of each token, 0 means the default color
+     * @param pinyinColors   pinyin color of each token, 0 means the default color
+     * @param textSize       text size the layout is computed with
+     * @param pinyinTextSize  pinyin text size the layout is computed with
+     * @param fontFingerprint fingerprint of the font the widths are measured with, see
+     *                        {@link #fontFingerprint(SampleMeasurer, int)}
+     * @param lineBreaker     line breaker the layout is computed with
+     * @param width           max width the layout is computed with
+     * @param layout          layout of the tokens
+     */
+    public PinyinLayoutFile(String[] texts, String[] pinyins, int[] textColors, int[] pinyinColors,
+                            int textSize, int pinyinTextSize, int fontFingerprint, LineBreaker lineBreaker,
+                            int width, PinyinLayout layout) {
+        this(join(texts), offsets(texts), join(pinyins), offsets(pinyins), textColors, pinyinColors,
+                textSize, pinyinTextSize, fontFingerprint, lineBreaker, width, layout);
+    }
+
+    /**
+     * The same as {@link #PinyinLayoutFile(String[], String[], int[], int[], int, int, int, LineBreaker, int, PinyinLayout)}
+     * with packed tokens, token i is {@code texts[textOffsets[i], textOffsets[i + 1])}.
+     *
+     * @param textColors   text color of each token, null for all default
+     * @param pinyinColors pinyin color of each token, null for all default
+     */
+    PinyinLayoutFile(CharSequence texts, int[] textOffsets, CharSequence pinyins, int[] pinyinOffsets,
+                     int[] textColors, int[] pinyinColors, int textSize, int pinyinTextSize, int fontFingerprint,
+                     LineBreaker lineBreaker, int width, PinyinLayout layout) {
+        int count = layout.getTokenCount();
+        if (textOffsets.length != count + 1 || pinyinOffsets.length != count + 1
+                || (textColors != null && textColors.length != count)
+                || (pinyinColors != null && pinyinColors.length != count)) {
+            throw new IllegalArgumentException("Tokens must have the same size as the layout");
+        }
+        mCount = count;
+        mTextOffsets = new int[count + 1];
+        mTexts = copyRanges(texts, textOffsets, mTextOffsets);
+        mPinyinOffsets = new int[count + 1];
+        mPinyins = copyRanges(pinyins, pinyinOffsets, mPinyinOffsets);
+        mTextColors = textColors != null ? textColors : new int[count];
+        mPinyinColors = pinyinColors != null ? pinyinColors : new int[count];
+        mTextSize = textSize;
+        mPinyinTextSize = pinyinTextSize;
+        mFontFingerprint = fontFingerprint;
+        mLineBreakStrategy = strategyOf(lineBreaker);
+        mWidth = width;
+        mLayout = layout;
+
+        mTextWidths = new int[count];
+        mPinyinWidths = new int[count];
+        for (int i = 0; i < count; i++) {
+            mTextWidths[i] = layout.getTextWidth(i);
+            mPinyinWidths[i] = layout.getPinyinWidth(i);
+        }
+        mLineStarts = new int[layout.getLineCount()];
+        for (int line = 0; line < mLineStarts.length; line++) {
+            mLineStarts[line] = layout.getLineStart(line);
+        }
+    }
+
+    private PinyinLayoutFile(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_INTS * 4 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a pinyin layout file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pinyin layout file version " + version);
+        }
+        mTextSize = buffer.getInt();
+        mPinyinTextSize = buffer.getInt();
+        int horizontalSpacing = buffer.getInt();
+        int lineSpacing = buffer.getInt();
+        int pinyinTextSpacing = buffer.getInt();
+        int textHeight = buffer.getInt();
+        int pinyinHeight = buffer.getInt();
+        mLineBreakStrategy = buffer.getInt();
+        mWidth = buffer.getInt();
+        int layoutWidth = buffer.getInt();
+        mFontFingerprint = buffer.getInt();
+        int count = buffer.getInt();
+        int lineCount = buffer.getInt();
+        int textCount = buffer.getInt();
+        int pinyinCount = buffer.getInt();
+        if (count < 0 || lineCount < 0 || textCount < 0 || pinyinCount < 0
+                || buffer.remaining() != (7L * count + 2 + lineCount) * 4 + 2L * (textCount + pinyinCount)) {
+            throw new IOException("Corrupted pinyin layout file");
+        }
+
+        mCount = count;
+        mTextWidths = readInts(buffer, count);
+        mPinyinWidths = readInts(buffer, count);
+        int[] tokenLefts = readInts(buffer, count);
+        mLineStarts = readInts(buffer, lineCount);
+        mTextColors = readInts(buffer, count);
+        mPinyinColors = readInts(buffer, count);
+        mTextOffsets = readInts(buffer, count + 1);
+        mPinyinOffsets = readInts(buffer, count + 1);
+        mTexts = readChars(buffer, textCount);
+        mPinyins = readChars(buffer, pinyinCount);
+
+        checkOffsets(mTextOffsets, textCount);
+        checkOffsets(mPinyinOffsets, pinyinCount);
+        for (int i = 0; i < count; i++) {
+            if (mTextWidths[i] < 0 || mPinyinWidths[i] < 0 || tokenLefts[i] < 0) {
+                throw new IOException("Corrupted pinyin layout file");
+            }
+        }
+        for (int line = 0; line < lineCount; line++) {
+            if (mLineStarts[line] < 0 || mLineStarts[line] > count
+                    || (line > 0 && mLineStarts[line] < mLineStarts[line - 1])) {
+                throw new IOException("Corrupted pinyin layout file");
+            }
+        }
+
+        mLayout = PinyinLayout.placed(mTextWidths, mPinyinWidths, tokenLefts, layoutWidth, count, mLineStarts,
+                horizontalSpacing, lineSpacing, pinyinTextSpacing, textHeight, pinyinHeight);
+    }
+
+    /**
+     * Read a layout file through memory-mapped I/O.
+     *
+     * @throws IOException if the file can't be read, is corrupted or of another version
+     */
+    public static PinyinLayoutFile read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PinyinLayoutFile(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the layout file, the file is replaced if it exists.
+     */
+    public void write(File file) throws IOException {
+        int count = mCount;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mTextSize);
+            out.writeInt(mPinyinTextSize);
+            out.writeInt(mLayout.getHorizontalSpacing());
+            out.writeInt(mLayout.getLineSpacing());
+            out.writeInt(mLayout.getPinyinTextSpacing());
+            out.writeInt(mLayout.getTextHeight());
+            out.writeInt(mLayout.getPinyinHeight());
+            out.writeInt(mLineBreakStrategy);
+            out.writeInt(mWidth);
+            out.writeInt(mLayout.getWidth());
+            out.writeInt(mFontFingerprint);
+            out.writeInt(count);
+            out.writeInt(mLineStarts.length);
+            out.writeInt(mTexts.length);
+            out.writeInt(mPinyins.length);
+
+            writeInts(out, mTextWidths);
+            writeInts(out, mPinyinWidths);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(mLayout.getTokenLeft(i));
+            }
+            writeInts(out, mLineStarts);
+            writeInts(out, mTextColors);
+            writeInts(out, mPinyinColors);
+            writeInts(out, mTextOffsets);
+            writeInts(out, mPinyinOffsets);
+            for (char c : mTexts) {
+                out.writeChar(c);
+            }
+            for (char c : mPinyins) {
+                out.writeChar(c);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Fingerprint of a font and the way it measures, made of the widths of a few fixed samples at
+     * the text and the pinyin size. The widths of two fonts with the same fingerprint are the same,
+     * unless they only differ in glyphs out of the samples.
+     *
+     * @param measurer    measurer of the samples, like the tokens are measured
+     * @param measureMode how the tokens are measured, like {@code PinyinTextView.MEASURE_SHAPED}
+     */
+    public static int fontFingerprint(SampleMeasurer measurer, int measureMode) {
+        int result = measureMode;
+        for (String sample : FONT_SAMPLES) {
+            result = 31 * result + measurer.measureText(sample);
+            result = 31 * result + measurer.measurePinyin(sample);
+        }
+        return result;
+    }
+
+    /**
+     * @return fingerprint of the font the widths are measured with, the widths are only valid for
+     * the same fingerprint, see {@link #fontFingerprint(SampleMeasurer, int)}
+     */
+    public int getFontFingerprint() {
+        return mFontFingerprint;
+    }
+
+    /**
+     * Whether the stored layout can be used for the given style. The layout is only valid for the
+     * content width it was computed with too, see {@link #getWidth()}.
+     */
+    public boolean matches(int textSize, int pinyinTextSize, int horizontalSpacing, int lineSpacing,
+                           int pinyinTextSpacing, int textHeight, int pinyinHeight) {
+        return mTextSize == textSize
+                && mPinyinTextSize == pinyinTextSize
+                && mLayout.getHorizontalSpacing() == horizontalSpacing
+                && mLayout.getLineSpacing() == lineSpacing
+                && mLayout.getPinyinTextSpacing() == pinyinTextSpacing
+                && mLayout.getTextHeight() == textHeight
+                && mLayout.getPinyinHeight() == pinyinHeight;
+    }
+
+    /**
+     * Whether the stored line breaks are computed by the given line breaker, custom line
+     * breakers never match.
+     */
+    public boolean isBrokenBy(LineBreaker lineBreaker) {
+        return mLineBreakStrategy != LINE_BREAK_CUSTOM && mLineBreakStrategy == strategyOf(lineBreaker);
+    }
+
+    public int getTokenCount() {
+        return mCount;
+    }
+
+    /**
+     * @return texts of all tokens, token i is from {@code textOffsets[i]} to {@code textOffsets[i + 1]}
+     */
+    public char[] getTexts() {
+        return mTexts;
+    }
+
+    public int[] getTextOffsets() {
+        return mTextOffsets;
+    }
+
+    /**
+     * @return pinyins of all tokens, token i is from {@code pinyinOffsets[i]} to {@code pinyinOffsets[i + 1]}
+     */
+    public char[] getPinyins() {
+        return mPinyins;
+    }
+
+    public int[] getPinyinOffsets() {
+        return mPinyinOffsets;
+    }
+
+    public String getText(int index) {
+        return new String(mTexts, mTextOffsets[index], mTextOffsets[index + 1] - mTextOffsets[index]);
+    }
+
+    public String getPinyin(int index) {
+        return new String(mPinyins, mPinyinOffsets[index], mPinyinOffsets[index + 1] - mPinyinOffsets[index]);
+    }
+
+    public int[] getTextColors() {
+        return mTextColors;
+    }
+
+    public int[] getPinyinColors() {
+        return mPinyinColors;
+    }
+
+    public int getTextSize() {
+        return mTextSize;
+    }
+
+    public int getPinyinTextSize() {
+        return mPinyinTextSize;
+    }
+
+    /**
+     * @return max width the layout is computed with, the content width of the view
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public PinyinLayout getLayout() {
+        return mLayout;
+    }
+
+    int[] getTextWidths() {
+        return mTextWidths;
+    }
+
+    int[] getPinyinWidths() {
+        return mPinyinWidths;
+    }
+
+    int[] getLineStarts() {
+        return mLineStarts;
+    }
+
+    /**
+     * Measures the samples of {@link #fontFingerprint(SampleMeasurer, int)}.
+     */
+    public interface SampleMeasurer {
+        /**
+         * @return width of the sample at the text size, rounded up like a token width
+         */
+        int measureText(String sample);
+
+        /**
+         * @return width of the sample at the pinyin size, rounded up like a token width
+         */
+        int measurePinyin(String sample);
+    }
+
+    private static int strategyOf(LineBreaker lineBreaker) {
+        if (lineBreaker == GreedyLineBreaker.INSTANCE) {
+            return LINE_BREAK_GREEDY;
+        } else if (lineBreaker == BalancedLineBreaker.INSTANCE) {
+            return LINE_BREAK_BALANCED;
+        }
+        return LINE_BREAK_CUSTOM;
+    }
+
+    private static String join(String[] strings) {
+        StringBuilder builder = new StringBuilder();
+        for (String s : strings) {
+            if (s != null) {
+                builder.append(s);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static int[] offsets(String[] strings) {
+        int[] offsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i + 1] = offsets[i] + (strings[i] == null ? 0 : strings[i].length());
+        }
+        return offsets;
+    }
+
+    /**
+     * Copy the ranges of the tokens into one array, the offsets are rebased to start at 0.
+     */
+    private static char[] copyRanges(CharSequence chars, int[] offsets, int[] dstOffsets) {
+        char[] dst = new char[offsets[offsets.length - 1] - offsets[0]];
+        for (int i = 0; i < offsets.length; i++) {
+            dstOffsets[i] = offsets[i] - offsets[0];
+        }
+        for (int i = offsets[0], end = offsets[offsets.length - 1]; i < end; i++) {
+            dst[i - offsets[0]] = chars.charAt(i);
+        }
+        return dst;
+    }
+
+    private static void checkOffsets(int[] offsets, int length) throws IOException {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != length) {
+            throw new IOException("Corrupted pinyin layout file");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IOException("Corrupted pinyin layout file");
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static char[] readChars(ByteBuffer buffer, int count) {
+        char[] chars = new char[count];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + count * 2);
+        return chars;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
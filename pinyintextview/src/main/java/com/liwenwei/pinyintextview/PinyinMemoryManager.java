@@ -0,0 +1,247 @@
+package com.liwenwei.pinyintextview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the caches of the library in a global memory budget and shrinks them on memory pressure.
+ * <p>
+ * Every cache reports the approximate size it can release through {@link Cache}, memory still
+ * used by the views, like the strings of their tokens or their current line breaks, is not in
+ * the budget as trimming can't free it. When the caches grow
+ * over the budget, they are trimmed in the order they are registered until the total fits. The
+ * manager registers itself for {@link ComponentCallbacks2#onTrimMemory(int)} when the first
+ * {@link PinyinTextView} is created: the caches are trimmed to half of the budget when the app
+ * goes to background or runs low, and dropped when the app is about to be killed.
+ * <p>
+ * The built-in caches are the shared text metrics, the line breaks of the views besides the
+ * ones shown and the char advances of {@link PinyinTextView#MEASURE_ADVANCES}. The token string
+ * pool only references strings weakly, it goes with the tokens and is not in the budget. Apps can register
+ * their own caches, like a pinyin dictionary, to put them in the same budget.
+ * {@link #getUsage()} shows the current sizes for diagnostics.
+ */
+public final class PinyinMemoryManager {
+
+    /**
+     * Default budget of all caches
+     */
+    public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+    public static final String CACHE_METRICS = "metrics";
+    public static final String CACHE_LINE_BREAKS = "line-breaks";
+    public static final String CACHE_ADVANCES = "advances";
+
+    /**
+     * A cache in the budget, it must be thread-safe.
+     */
+    public interface Cache {
+        /**
+         * @return approximate heap retained by the cache in bytes, only what {@link #trimTo(long)}
+         * can release
+         */
+        long getRetainedBytes();
+
+        /**
+         * Evict entries until the cache retains at most maxBytes, 0 drops everything.
+         */
+        void trimTo(long maxBytes);
+    }
+
+    private static final Map<String, Cache> sCaches = new LinkedHashMap<>();
+    private static long sBudget = DEFAULT_BUDGET;
+    // bytes added since the last check, the total is only computed when it may exceed the budget
+    private static final AtomicLong sPendingBytes = new AtomicLong();
+    private static boolean sRegistered;
+
+    private static final ComponentCallbacks2 sCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            PinyinMemoryManager.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimTo(0);
+        }
+    };
+
+    static {
+        // cheap to rebuild caches first
+        sCaches.put(CACHE_LINE_BREAKS, new Cache() {
+            @Override
+            public long getRetainedBytes() {
+                return LineBreakCache.getRetainedBytesOfAll();
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                LineBreakCache.trimAll(maxBytes);
+            }
+        });
+        sCaches.put(CACHE_METRICS, new Cache() {
+            @Override
+            public long getRetainedBytes() {
+                return PinyinMetricsCache.getRetainedBytes();
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                PinyinMetricsCache.trimTo(maxBytes);
+            }
+        });
+    }
+
+    private PinyinMemoryManager() {
+    }
+
+    /**
+     * Register for the memory callbacks of the application, it is called when a
+     * {@link PinyinTextView} is created, calling it again has no effect.
+     */
+    public static void register(Context context) {
+        synchronized (sCaches) {
+            if (sRegistered) {
+                return;
+            }
+            sRegistered = true;
+        }
+        context.getApplicationContext().registerComponentCallbacks(sCallbacks);
+    }
+
+    /**
+     * Set the budget of all caches, the caches are trimmed at once if they are over it.
+     *
+     * @param bytes budget in bytes
+     */
+    public static void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative");
+        }
+        synchronized (sCaches) {
+            sBudget = bytes;
+        }
+        checkBudget();
+    }
+
+    public static long getBudget() {
+        synchronized (sCaches) {
+            return sBudget;
+        }
+    }
+
+    /**
+     * Put a cache in the budget, a cache with the same name is replaced.
+     *
+     * @param name  name shown in {@link #getUsage()}
+     * @param cache cache to manage
+     */
+    public static void registerCache(String name, Cache cache) {
+        if (name == null || cache == null) {
+            throw new IllegalArgumentException("Name and cache must not be null");
+        }
+        synchronized (sCaches) {
+            sCaches.put(name, cache);
+        }
+    }
+
+    public static void unregisterCache(String name) {
+        synchronized (sCaches) {
+            sCaches.remove(name);
+        }
+    }
+
+    /**
+     * @return approximate heap retained by all caches in bytes
+     */
+    public static long getRetainedBytes() {
+        long total = 0;
+        for (long bytes : getUsage().values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Get the approximate retained size of each cache, for diagnostics.
+     *
+     * @return cache name to retained bytes, in the trim order
+     */
+    public static Map<String, Long> getUsage() {
+        Map<String, Long> usage = new LinkedHashMap<>();
+        synchronized (sCaches) {
+            for (Map.Entry<String, Cache> entry : sCaches.entrySet()) {
+                usage.put(entry.getKey(), entry.getValue().getRetainedBytes());
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Trim the caches by the level of {@link ComponentCallbacks2#onTrimMemory(int)}, call it from
+     * your own callbacks if {@link #register(Context)} is not used.
+     */
+    public static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // the process is likely to be killed, or the system is killing background processes
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(getBudget() / 2);
+        } else {
+            // UI hidden or running moderate, only keep in the budget
+            trimTo(getBudget());
+        }
+    }
+
+    /**
+     * Trim the caches in order until they retain at most maxBytes in total.
+     */
+    public static void trimTo(long maxBytes) {
+        synchronized (sCaches) {
+            long total = 0;
+            for (Cache cache : sCaches.values()) {
+                total += cache.getRetainedBytes();
+            }
+            for (Cache cache : sCaches.values()) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                long bytes = cache.getRetainedBytes();
+                cache.trimTo(Math.max(0, bytes - (total - maxBytes)));
+                total += cache.getRetainedBytes() - bytes;
+            }
+            sPendingBytes.set(0);
+        }
+    }
+
+    /**
+     * Called by the caches after they grow, must not be called with the lock of a cache held.
+     * The budget is only checked after the caches may have grown by an eighth of it.
+     *
+     * @param bytes approximate bytes added
+     */
+    static void onCacheGrown(long bytes) {
+        if (sPendingBytes.addAndGet(bytes) > getBudget() / 8) {
+            checkBudget();
+        }
+    }
+
+    private static void checkBudget() {
+        long budget = getBudget();
+        if (getRetainedBytes() > budget) {
+            trimTo(budget);
+        } else {
+            sPendingBytes.set(0);
+        }
+    }
+}
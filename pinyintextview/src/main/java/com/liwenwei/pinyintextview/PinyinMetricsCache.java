@@ -0,0 +1,161 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the text & pinyin heights used by {@link PinyinTextView}.
+ * <p>
+ * The heights only depend on the typeface, the text sizes and the draw mode, so every
+ * PinyinTextView with the same style shares one {@link Metrics} entry instead of measuring
+ * the sample strings again.
+ * <p>
+ * Why we measure hard code text, not the real content?
+ * <p>
+ * Sometimes, we have to align multiple PinyinTextView by horizontal, if we measure different text,
+ * we get different height, so we have to measure the same text to keep the same height. Views with
+ * the same key always get the very same entry, so they stay aligned.
+ */
+final class PinyinMetricsCache {
+
+    /**
+     * Max entries kept, a screen rarely uses more than a handful of styles
+     */
+    private static final int MAX_SIZE = 64;
+
+    /**
+     * Approximate size of an entry, the entry, the key and the metrics
+     */
+    private static final int ENTRY_SIZE = 96;
+
+    private static final Map<Key, Metrics> sCache = new LinkedHashMap<Key, Metrics>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Metrics> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    // measure paint, only used with the lock of sCache held
+    private static final TextPaint sPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
+    private static final Rect sBounds = new Rect();
+
+    private PinyinMetricsCache() {
+    }
+
+    /**
+     * Get the text & pinyin height of the given style, measure it on the first request.
+     *
+     * @param typeface       typeface of the text, null means the default typeface
+     * @param textSize       text size in pixels
+     * @param pinyinTextSize pinyin text size in pixels
+     * @param mode           draw mode, {@link PinyinTextView#TYPE_PINYIN} draws pinyin with the text size
+     */
+    static Metrics get(Typeface typeface, int textSize, int pinyinTextSize, @PinyinTextView.PinyinMode int mode) {
+        Key key = new Key(typeface, textSize, mode == PinyinTextView.TYPE_PINYIN ? textSize : pinyinTextSize);
+        Metrics metrics;
+        synchronized (sCache) {
+            metrics = sCache.get(key);
+            if (metrics != null) {
+                return metrics;
+            }
+            metrics = measure(key);
+            sCache.put(key, metrics);
+        }
+        PinyinMemoryManager.onCacheGrown(ENTRY_SIZE);
+        return metrics;
+    }
+
+    static long getRetainedBytes() {
+        synchronized (sCache) {
+            return (long) sCache.size() * ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache retains at most maxBytes.
+     */
+    static void trimTo(long maxBytes) {
+        synchronized (sCache) {
+            Iterator<Metrics> iterator = sCache.values().iterator();
+            while ((long) sCache.size() * ENTRY_SIZE > maxBytes && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private static Metrics measure(Key key) {
+        sPaint.setTypeface(key.typeface);
+
+        // calculate text height
+        sPaint.setTextSize(key.textSize);
+        sPaint.getTextBounds(PinyinLayout.TEXT_HEIGHT_SAMPLE, 0, PinyinLayout.TEXT_HEIGHT_SAMPLE.length(), sBounds);
+        int textHeight = sBounds.height();
+
+        // calculate pinyin height
+        sPaint.setTextSize(key.pinyinTextSize);
+        sPaint.getTextBounds(PinyinLayout.PINYIN_HEIGHT_SAMPLE, 0, PinyinLayout.PINYIN_HEIGHT_SAMPLE.length() - 1, sBounds);
+        int pinyinHeight = sBounds.height();
+
+        return new Metrics(textHeight, pinyinHeight);
+    }
+
+    /**
+     * Measured heights of one style, immutable so it can be shared by views
+     */
+    static final class Metrics {
+        final int textHeight;
+        final int pinyinHeight;
+
+        Metrics(int textHeight, int pinyinHeight) {
+            this.textHeight = textHeight;
+            this.pinyinHeight = pinyinHeight;
+        }
+    }
+
+    private static final class Key {
+        final Typeface typeface;
+        final int textSize;
+        final int pinyinTextSize;
+
+        Key(Typeface typeface, int textSize, int pinyinTextSize) {
+            this.typeface = typeface;
+            this.textSize = textSize;
+            this.pinyinTextSize = pinyinTextSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return textSize == key.textSize
+                    && pinyinTextSize == key.pinyinTextSize
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = typeface == null ? 0 : typeface.hashCode();
+            result = 31 * result + textSize;
+            result = 31 * result + pinyinTextSize;
+            return result;
+        }
+    }
+}
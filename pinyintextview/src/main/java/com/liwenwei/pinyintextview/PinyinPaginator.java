@@ -0,0 +1,160 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.Arrays;
+
+/**
+ * Splits the lines of a {@link PinyinLayout} into pages of a fixed height, for readers which flip
+ * pages instead of scrolling.
+ * <p>
+ * Pages are computed lazily in a single pass over the lines: asking for page N only paginates the
+ * lines up to it, and every line is visited once however the pages are asked for. A page has at
+ * least one line, a line higher than the page is a page of its own.
+ * <p>
+ * This class has no Android dependency, it is not thread-safe.
+ */
+public final class PinyinPaginator {
+
+    private final PinyinLayout mLayout;
+    private final int mPageHeight;
+
+    // first line of each page computed so far
+    private int[] mPageLines = new int[16];
+    private int mPageCount;
+    // first line not in a page yet
+    private int mNextLine;
+
+    /**
+     * @param layout     layout of the tokens, laid out with the page width
+     * @param pageHeight height of the content of a page
+     * @throws IllegalArgumentException if the page height is not positive
+     */
+    public PinyinPaginator(PinyinLayout layout, int pageHeight) {
+        if (pageHeight <= 0) {
+            throw new IllegalArgumentException("Page height must be positive");
+        }
+        mLayout = layout;
+        mPageHeight = pageHeight;
+    }
+
+    public PinyinLayout getLayout() {
+        return mLayout;
+    }
+
+    public int getPageHeight() {
+        return mPageHeight;
+    }
+
+    /**
+     * Paginate all the lines, prefer {@link #hasPage(int)} to only paginate the pages needed.
+     *
+     * @return page count, 0 if there is no token
+     */
+    public int getPageCount() {
+        while (nextPage()) {
+            // paginate to the end
+        }
+        return mPageCount;
+    }
+
+    /**
+     * @return true if the page exists, the pages up to it are paginated
+     */
+    public boolean hasPage(int page) {
+        while (page >= mPageCount && nextPage()) {
+            // paginate to the page
+        }
+        return page >= 0 && page < mPageCount;
+    }
+
+    /**
+     * @return index of the first token of the page
+     * @throws IndexOutOfBoundsException if the page doesn't exist
+     */
+    public int getPageStart(int page) {
+        return mLayout.getLineStart(getPageFirstLine(page));
+    }
+
+    /**
+     * @return index after the last token of the page
+     * @throws IndexOutOfBoundsException if the page doesn't exist
+     */
+    public int getPageEnd(int page) {
+        return mLayout.getLineEnd(getPageLastLine(page));
+    }
+
+    /**
+     * @return first line of the page in the layout
+     * @throws IndexOutOfBoundsException if the page doesn't exist
+     */
+    public int getPageFirstLine(int page) {
+        checkPage(page);
+        return mPageLines[page];
+    }
+
+    /**
+     * @return last line of the page in the layout
+     * @throws IndexOutOfBoundsException if the page doesn't exist
+     */
+    public int getPageLastLine(int page) {
+        checkPage(page);
+        return (page + 1 < mPageCount ? mPageLines[page + 1] : mNextLine) - 1;
+    }
+
+    /**
+     * @return top of the page in the layout, draw the layout moved up by it to draw the page
+     * @throws IndexOutOfBoundsException if the page doesn't exist
+     */
+    public int getPageTop(int page) {
+        return mLayout.getLineTop(getPageFirstLine(page));
+    }
+
+    /**
+     * Find the page of the token, only the pages up to it are paginated.
+     *
+     * @return page of the token
+     * @throws IndexOutOfBoundsException if the token doesn't exist
+     */
+    public int getPageForToken(int index) {
+        if (index < 0 || index >= mLayout.getTokenCount()) {
+            throw new IndexOutOfBoundsException("Token " + index + " of " + mLayout.getTokenCount());
+        }
+        int line = mLayout.getLineForToken(index);
+        while (mNextLine <= line && nextPage()) {
+            // paginate to the line
+        }
+        int page = Arrays.binarySearch(mPageLines, 0, mPageCount, line);
+        return page >= 0 ? page : -page - 2;
+    }
+
+    private void checkPage(int page) {
+        if (!hasPage(page)) {
+            throw new IndexOutOfBoundsException("Page " + page + " of " + mPageCount);
+        }
+    }
+
+    /**
+     * Put the next lines in a page.
+     *
+     * @return false if all the lines are already in pages
+     */
+    private boolean nextPage() {
+        int lineCount = mLayout.getLineCount();
+        if (mNextLine >= lineCount) {
+            return false;
+        }
+        int first = mNextLine;
+        int top = mLayout.getLineTop(first);
+        // the descent of the text is below the last line, like PinyinLayout#getHeight()
+        int descent = mLayout.getTextHeight() / 4;
+        int line = first + 1;
+        while (line < lineCount && mLayout.getLineBottom(line) + descent - top <= mPageHeight) {
+            line++;
+        }
+        if (mPageCount == mPageLines.length) {
+            mPageLines = Arrays.copyOf(mPageLines, mPageCount * 2);
+        }
+        mPageLines[mPageCount++] = first;
+        mNextLine = line;
+        return true;
+    }
+}
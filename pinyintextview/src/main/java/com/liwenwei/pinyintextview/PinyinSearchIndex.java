@@ -0,0 +1,400 @@
+package com.liwenwei.pinyintextview;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Find-in-text index of the tokens of a {@link PinyinTextView}, by hanzi or by pinyin with or
+ * without tone marks.
+ * <p>
+ * The texts and the pinyins of all tokens are concatenated in char arrays, with a prefix sum of
+ * their lengths to map a char back to its token by binary search. The pinyin is kept twice: with
+ * its tone marks, and without tones, spaces and apostrophes with ü written v, so "zhongwen",
+ * "zhōngwén", "zhong1wen2" and "Zhōng wén" all find 中文, whether the tokens are written with tone
+ * marks or tone numbers, which are converted to marks on both sides. All the matches of a query
+ * are found in one linear pass (Knuth-Morris-Pratt) over the chars, without allocating per token.
+ * <p>
+ * A query with a hanzi or another char which is not pinyin is searched in the texts, and may
+ * start and end in the middle of a token. A pinyin query is searched in the pinyins, and has to
+ * start at the start of a token, so "hong" doesn't find 中. The index is immutable and can be
+ * searched from any thread.
+ */
+public final class PinyinSearchIndex {
+
+    // tone marks and their vowel without tone, ü is v without tone
+    private static final String TONE_MARKS = "āáǎàēéěèīíǐìōóǒòūúǔùǖǘǚǜüńňǹḿ";
+    private static final String TONE_BASES = "aaaaeeeeiiiioooouuuuvvvvvnnnm";
+
+    private final int mCount;
+    private final char[] mText;
+    private final int[] mTextOffsets;
+    private final char[] mToned;
+    private final int[] mTonedOffsets;
+    private final char[] mToneless;
+    private final int[] mTonelessOffsets;
+
+    private PinyinSearchIndex(Builder builder) {
+        mCount = builder.count;
+        mText = Arrays.copyOf(builder.text, builder.textLength);
+        mTextOffsets = builder.textOffsets;
+        mToned = Arrays.copyOf(builder.toned, builder.tonedLength);
+        mTonedOffsets = builder.tonedOffsets;
+        mToneless = Arrays.copyOf(builder.toneless, builder.tonelessLength);
+        mTonelessOffsets = builder.tonelessOffsets;
+    }
+
+    /**
+     * Index the tokens.
+     */
+    public static PinyinSearchIndex of(List<PinyinTextView.Token> tokens) {
+        Builder builder = new Builder(tokens.size());
+        for (PinyinTextView.Token token : tokens) {
+            String text = token.getText() == null ? "" : token.getText();
+            String pinyin = token.getPinyin() == null ? "" : token.getPinyin();
+            builder.add(text, 0, text.length(), pinyin, 0, pinyin.length());
+        }
+        return builder.build();
+    }
+
+    public int getTokenCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the concatenated texts of the tokens, the chars {@link #getTokenForTextOffset(int)} maps
+     */
+    public String getText() {
+        return new String(mText);
+    }
+
+    /**
+     * @return offset of the text of the token in {@link #getText()}, the token count gives the length
+     */
+    public int getTextOffset(int token) {
+        return mTextOffsets[token];
+    }
+
+    /**
+     * Map a char of {@link #getText()} to its token.
+     *
+     * @param offset offset of the char
+     * @return index of the token
+     * @throws IndexOutOfBoundsException if the offset is out of the text
+     */
+    public int getTokenForTextOffset(int offset) {
+        if (offset < 0 || offset >= mText.length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " of " + mText.length);
+        }
+        return tokenFor(mTextOffsets, mCount, offset);
+    }
+
+    /**
+     * Find all the matches of the query, see the class doc for the rules.
+     *
+     * @param query hanzi, or pinyin with tone marks, tone numbers or without tone
+     * @return matches in token order, no match overlaps another
+     */
+    public Result search(String query) {
+        if (query == null || query.isEmpty()) {
+            return new Result(query, new int[0], new int[0], 0);
+        }
+        if (!isPinyinQuery(query)) {
+            return search(query, query.toCharArray(), mText, mTextOffsets, false);
+        }
+        // tone numbers are tone marks
+        String marked = PinyinToneConverter.hasToneNumber(query, 0, query.length())
+                ? PinyinToneConverter.convert(query) : query;
+        char[] toned = new char[marked.length()];
+        int tonedLength = normalizeToned(marked, 0, marked.length(), toned, 0);
+        char[] toneless = new char[marked.length()];
+        int tonelessLength = normalizeToneless(marked, 0, marked.length(), toneless, 0);
+        if (tonelessLength == 0) {
+            return new Result(query, new int[0], new int[0], 0);
+        }
+        if (hasToneMark(toned, tonedLength)) {
+            return search(query, Arrays.copyOf(toned, tonedLength), mToned, mTonedOffsets, true);
+        }
+        return search(query, Arrays.copyOf(toneless, tonelessLength), mToneless, mTonelessOffsets, true);
+    }
+
+    private Result search(String query, char[] pattern, char[] chars, int[] offsets, boolean atTokenStart) {
+        int m = pattern.length;
+        // failure function, the length of the longest proper border of each prefix
+        int[] border = new int[m];
+        for (int i = 1, k = 0; i < m; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = border[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            border[i] = k;
+        }
+
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
+        int lastEnd = 0;
+        for (int i = 0, j = 0; i < chars.length; i++) {
+            while (j > 0 && chars[i] != pattern[j]) {
+                j = border[j - 1];
+            }
+            if (chars[i] == pattern[j]) {
+                j++;
+            }
+            if (j < m) {
+                continue;
+            }
+            int start = i - m + 1;
+            j = border[j - 1];
+            if (start < lastEnd) {
+                continue; // overlaps the previous match
+            }
+            int startToken = tokenFor(offsets, mCount, start);
+            if (atTokenStart && offsets[startToken] != start) {
+                continue;
+            }
+            int endToken = tokenFor(offsets, mCount, i) + 1;
+            if (count > 0 && startToken < ends[count - 1]) {
+                // in the same token as the previous match
+                ends[count - 1] = Math.max(ends[count - 1], endToken);
+            } else {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = startToken;
+                ends[count] = endToken;
+                count++;
+            }
+            lastEnd = i + 1;
+        }
+        return new Result(query, starts, ends, count);
+    }
+
+    /**
+     * @return the token whose range of the offsets contains the char, tokens with an empty range are skipped
+     */
+    private static int tokenFor(int[] offsets, int count, int offset) {
+        // the last token starting at or before the offset
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A query is pinyin if it only has latin letters, tone marks, tone numbers, spaces and apostrophes.
+     */
+    private static boolean isPinyinQuery(String query) {
+        boolean letter = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || TONE_MARKS.indexOf(Character.toLowerCase(c)) >= 0) {
+                letter = true;
+            } else if (!(c >= '0' && c <= '5') && c != ' ' && c != '\'' && !isCombiningMark(c)) {
+                return false;
+            }
+        }
+        return letter;
+    }
+
+    private static boolean hasToneMark(char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            int mark = TONE_MARKS.indexOf(chars[i]);
+            // ü is not a tone
+            if ((mark >= 0 && chars[i] != 'ü') || isCombiningMark(chars[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCombiningMark(char c) {
+        return c >= 0x0300 && c <= 0x036F;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\'' || c == '’' || c == '-';
+    }
+
+    /**
+     * Lower case, without separators.
+     *
+     * @return length written
+     */
+    private static int normalizeToned(CharSequence s, int start, int end, char[] dst, int dstStart) {
+        int length = dstStart;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isSeparator(c)) {
+                dst[length++] = Character.toLowerCase(c);
+            }
+        }
+        return length - dstStart;
+    }
+
+    /**
+     * Lower case, without separators, tones and tone numbers, ü is v.
+     *
+     * @return length written
+     */
+    private static int normalizeToneless(CharSequence s, int start, int end, char[] dst, int dstStart) {
+        int length = dstStart;
+        for (int i = start; i < end; i++) {
+            char c = Character.toLowerCase(s.charAt(i));
+            if (isSeparator(c) || isCombiningMark(c) || (c >= '0' && c <= '5')) {
+                continue;
+            }
+            int mark = TONE_MARKS.indexOf(c);
+            dst[length++] = mark >= 0 ? TONE_BASES.charAt(mark) : c == 'ü' ? 'v' : c;
+        }
+        return length - dstStart;
+    }
+
+    /**
+     * Matches of a query, match i covers the tokens from {@link #getTokenStart(int)} to
+     * {@link #getTokenEnd(int)}.
+     */
+    public static final class Result {
+        private final String mQuery;
+        private final int[] mStarts;
+        private final int[] mEnds;
+        private final int mCount;
+
+        Result(String query, int[] starts, int[] ends, int count) {
+            mQuery = query;
+            mStarts = starts;
+            mEnds = ends;
+            mCount = count;
+        }
+
+        public String getQuery() {
+            return mQuery;
+        }
+
+        /**
+         * @return count of matches
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return first token of the match
+         */
+        public int getTokenStart(int match) {
+            checkMatch(match);
+            return mStarts[match];
+        }
+
+        /**
+         * @return index after the last token of the match
+         */
+        public int getTokenEnd(int match) {
+            checkMatch(match);
+            return mEnds[match];
+        }
+
+        /**
+         * Find the match containing the token, or the first match after it, like the next match
+         * from the current position.
+         *
+         * @return index of the match, {@link #getCount()} if there is no match at or after the token
+         */
+        public int getMatchAtOrAfter(int token) {
+            int low = 0;
+            int high = mCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mEnds[mid] <= token) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void checkMatch(int match) {
+            if (match < 0 || match >= mCount) {
+                throw new IndexOutOfBoundsException("Match " + match + " of " + mCount);
+            }
+        }
+    }
+
+    /**
+     * Appends the tokens to the arrays of the index, without creating a string per token.
+     */
+    static final class Builder {
+        final int count;
+        int added;
+        char[] text = new char[64];
+        int textLength;
+        final int[] textOffsets;
+        char[] toned = new char[64];
+        int tonedLength;
+        final int[] tonedOffsets;
+        char[] toneless = new char[64];
+        int tonelessLength;
+        final int[] tonelessOffsets;
+        // tone-numbered pinyin of a token converted to tone marks, the same as the query
+        char[] marked = new char[16];
+        CharBuffer markedChars = CharBuffer.wrap(marked);
+
+        Builder(int count) {
+            this.count = count;
+            textOffsets = new int[count + 1];
+            tonedOffsets = new int[count + 1];
+            tonelessOffsets = new int[count + 1];
+        }
+
+        void add(CharSequence texts, int textStart, int textEnd, CharSequence pinyins, int pinyinStart, int pinyinEnd) {
+            int textCount = textEnd - textStart;
+            text = ensure(text, textLength + textCount);
+            for (int i = textStart; i < textEnd; i++) {
+                text[textLength++] = texts.charAt(i);
+            }
+            int pinyinCount = pinyinEnd - pinyinStart;
+            if (PinyinToneConverter.hasToneNumber(pinyins, pinyinStart, pinyinEnd)) {
+                if (pinyinCount > marked.length) {
+                    marked = ensure(marked, pinyinCount);
+                    markedChars = CharBuffer.wrap(marked);
+                }
+                int markedCount = PinyinToneConverter.convert(pinyins, pinyinStart, pinyinEnd, marked, 0);
+                pinyins = markedChars;
+                pinyinStart = 0;
+                pinyinEnd = markedCount;
+                pinyinCount = markedCount;
+            }
+            toned = ensure(toned, tonedLength + pinyinCount);
+            tonedLength += normalizeToned(pinyins, pinyinStart, pinyinEnd, toned, tonedLength);
+            toneless = ensure(toneless, tonelessLength + pinyinCount);
+            tonelessLength += normalizeToneless(pinyins, pinyinStart, pinyinEnd, toneless, tonelessLength);
+
+            added++;
+            textOffsets[added] = textLength;
+            tonedOffsets[added] = tonedLength;
+            tonelessOffsets[added] = tonelessLength;
+        }
+
+        PinyinSearchIndex build() {
+            if (added != count) {
+                throw new IllegalStateException(added + " tokens added of " + count);
+            }
+            return new PinyinSearchIndex(this);
+        }
+
+        private static char[] ensure(char[] chars, int length) {
+            return length <= chars.length ? chars : Arrays.copyOf(chars, Math.max(length, chars.length * 2));
+        }
+    }
+}
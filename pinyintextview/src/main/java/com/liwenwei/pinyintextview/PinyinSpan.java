@@ -0,0 +1,169 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.style.ReplacementSpan;
+
+import java.util.List;
+
+import androidx.annotation.ColorInt;
+
+/**
+ * Draws a hanzi token with its pinyin above, inside a standard TextView or EditText, like a
+ * token of {@link PinyinTextView#TYPE_PINYIN_AND_TEXT}.
+ * <p>
+ * The span replaces the chars it covers: the token is as wide as the wider of its text and its
+ * pinyin, and both are centered in it. The line grows upwards to make room for the pinyin.
+ * Punctuation has no pinyin. The heights of the text & pinyin are the ones of
+ * {@link PinyinTextView}, shared through {@link PinyinMetricsCache}, so the pinyin is placed above
+ * the text the same way.
+ * <p>
+ * The widths only depend on the paint of the text, so the span works with {@code StaticLayout}
+ * and {@code PrecomputedText}: long annotated text can be precomputed on a background thread, and
+ * the measurement is cached in the span and reused when it is drawn.
+ * <pre>
+ * Spannable text = PinyinSpan.buildText(tokens, 0, 0);
+ * PrecomputedText precomputed = PrecomputedText.create(text, textView.getTextMetricsParams());
+ * </pre>
+ */
+public class PinyinSpan extends ReplacementSpan {
+
+    private final String mPinyin;
+    private final int mPinyinTextSize;
+    private final @ColorInt int mPinyinColor;
+    private final int mPinyinTextSpacing;
+    private final boolean mDrawPinyin;
+
+    // measure cache, the paint of the text and the text the widths are measured with
+    private final TextPaint mPinyinPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
+    private String mMeasuredText;
+    private float mMeasuredTextSize = -1;
+    private Typeface mMeasuredTypeface;
+    private float mMeasuredTextScaleX;
+    private float mTextWidth;
+    private float mPinyinWidth;
+    private PinyinMetricsCache.Metrics mMetrics;
+
+    /**
+     * @param pinyin pinyin of the token, null or empty draws only the text
+     */
+    public PinyinSpan(String pinyin) {
+        this(pinyin, 0, 0, 0);
+    }
+
+    /**
+     * @param pinyin            pinyin of the token, null or empty draws only the text
+     * @param pinyinTextSize    pinyin text size in pixels, 0 for half of the text size
+     * @param pinyinColor       pinyin color, 0 for the color of the text
+     * @param pinyinTextSpacing spacing between the pinyin and the text in pixels
+     */
+    public PinyinSpan(String pinyin, int pinyinTextSize, @ColorInt int pinyinColor, int pinyinTextSpacing) {
+        if (pinyinTextSize < 0 || pinyinTextSpacing < 0) {
+            throw new IllegalArgumentException("Pinyin text size and spacing must not be negative");
+        }
+        mPinyin = pinyin == null ? "" : pinyin;
+        mPinyinTextSize = pinyinTextSize;
+        mPinyinColor = pinyinColor;
+        mPinyinTextSpacing = pinyinTextSpacing;
+        mDrawPinyin = !mPinyin.isEmpty() && !PunctuationUtils.isPunctuation(mPinyin);
+    }
+
+    public String getPinyin() {
+        return mPinyin;
+    }
+
+    /**
+     * Build a text of the tokens, each token with a span of its pinyin.
+     *
+     * @param tokens            tokens to annotate
+     * @param pinyinTextSize    pinyin text size in pixels, 0 for half of the text size
+     * @param pinyinTextSpacing spacing between the pinyin and the text in pixels
+     */
+    public static SpannableStringBuilder buildText(List<PinyinTextView.Token> tokens, int pinyinTextSize,
+                                                   int pinyinTextSpacing) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (PinyinTextView.Token token : tokens) {
+            String text = token.getText();
+            if (TextUtils.isEmpty(text)) {
+                continue;
+            }
+            int start = builder.length();
+            builder.append(text);
+            builder.setSpan(new PinyinSpan(token.getPinyin(), pinyinTextSize, token.getPinyinColor(),
+                    pinyinTextSpacing), start, builder.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return builder;
+    }
+
+    @Override
+    public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
+        int width;
+        PinyinMetricsCache.Metrics metrics;
+        synchronized (this) {
+            measure(paint, text, start, end);
+            width = (int) Math.ceil(Math.max(mTextWidth, mPinyinWidth));
+            metrics = mMetrics;
+        }
+        if (fm != null) {
+            paint.getFontMetricsInt(fm);
+            if (mDrawPinyin) {
+                // the top of the pinyin, like a line of PinyinTextView above the baseline
+                int ascent = -(metrics.textHeight + mPinyinTextSpacing + metrics.pinyinHeight);
+                fm.top += Math.min(0, ascent - fm.ascent);
+                fm.ascent = Math.min(fm.ascent, ascent);
+            }
+        }
+        return width;
+    }
+
+    @Override
+    public void draw(Canvas canvas, CharSequence text, int start, int end, float x,
+                     int top, int y, int bottom, Paint paint) {
+        synchronized (this) {
+            // usually measured by getSize, unless the paint changed since
+            measure(paint, text, start, end);
+            float width = Math.max(mTextWidth, mPinyinWidth);
+            canvas.drawText(text, start, end, x + (width - mTextWidth) / 2, y, paint);
+            if (mDrawPinyin) {
+                mPinyinPaint.setColor(mPinyinColor == 0 ? paint.getColor() : mPinyinColor);
+                float baseline = y - mMetrics.textHeight - mPinyinTextSpacing;
+                canvas.drawText(mPinyin, x + (width - mPinyinWidth) / 2, baseline, mPinyinPaint);
+            }
+        }
+    }
+
+    /**
+     * Measure the text & pinyin, only if the text or the paint changed since the last time.
+     */
+    private void measure(Paint paint, CharSequence text, int start, int end) {
+        int length = end - start;
+        if (mMeasuredText != null && mMeasuredTextSize == paint.getTextSize()
+                && mMeasuredTextScaleX == paint.getTextScaleX()
+                && (mMeasuredTypeface == null ? paint.getTypeface() == null
+                : mMeasuredTypeface.equals(paint.getTypeface()))
+                && mMeasuredText.length() == length
+                && TextUtils.regionMatches(text, start, mMeasuredText, 0, length)) {
+            return;
+        }
+        mMeasuredText = text.subSequence(start, end).toString();
+        mMeasuredTextSize = paint.getTextSize();
+        mMeasuredTypeface = paint.getTypeface();
+        mMeasuredTextScaleX = paint.getTextScaleX();
+        mTextWidth = paint.measureText(text, start, end);
+
+        // the sizes of the heights of PinyinTextView, in whole pixels
+        int textSize = Math.round(paint.getTextSize());
+        int pinyinTextSize = mPinyinTextSize > 0
+                ? mPinyinTextSize : Math.max(1, (int) (textSize * PinyinStyle.PINYIN_TEXT_SIZE_RATIO));
+        mPinyinPaint.set(paint);
+        mPinyinPaint.setTextSize(pinyinTextSize);
+        mPinyinWidth = mDrawPinyin ? mPinyinPaint.measureText(mPinyin) : 0;
+        mMetrics = PinyinMetricsCache.get(paint.getTypeface(), textSize, pinyinTextSize,
+                PinyinTextView.TYPE_PINYIN_AND_TEXT);
+    }
+}
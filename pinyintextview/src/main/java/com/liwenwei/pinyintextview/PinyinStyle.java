@@ -0,0 +1,409 @@
+package com.liwenwei.pinyintextview;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.DashPathEffect;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import androidx.annotation.ColorInt;
+
+/**
+ * Immutable style of a {@link PinyinTextView}: typeface, text sizes, colors, spacings, underline
+ * and measure mode.
+ * <p>
+ * A style is meant to be built once and shared by many views, like the rows of a list, with
+ * {@link PinyinTextView#setPinyinStyle(PinyinStyle)} or
+ * {@link PinyinTextView#PinyinTextView(Context, PinyinStyle)}, which skips the defaults and the
+ * xml attributes. The text & pinyin heights and the underline paint are computed when the style
+ * is built, so applying it costs nothing more. Styles are compared by value.
+ * <p>
+ * The widths of the tokens only depend on the typeface, the text sizes and the measure mode, the
+ * caches of measurements are keyed by {@link #getMeasureKey()}, so a style of other colors or
+ * spacings shares the measurements.
+ */
+public final class PinyinStyle {
+
+    /**
+     * Default ratio of the pinyin text size to the text size
+     */
+    static final float PINYIN_TEXT_SIZE_RATIO = 0.5F;
+
+    // default style of the last display metrics, most apps only have one
+    private static PinyinStyle sDefault;
+    private static float sDefaultDensity;
+    private static float sDefaultScaledDensity;
+
+    private final Typeface mTypeface;
+    private final int mTextSize;
+    private final int mPinyinTextSize;
+    @ColorInt
+    private final int mTextColor;
+    @ColorInt
+    private final int mPinyinColor;
+    private final int mHorizontalSpacing;
+    private final int mLineSpacing;
+    private final int mPinyinTextSpacing;
+    private final int mUnderlineVerticalSpacing;
+    private final boolean mUnderline;
+    @PinyinTextView.MeasureMode
+    private final int mMeasureMode;
+
+    // derived values
+    private final MeasureKey mMeasureKey;
+    private final PinyinMetricsCache.Metrics mMetrics;
+    private final Paint mUnderlinePaint;
+    private final int mHashCode;
+
+    private PinyinStyle(Builder builder) {
+        mTypeface = builder.mTypeface;
+        mTextSize = builder.mTextSize;
+        mPinyinTextSize = builder.mPinyinTextSize > 0
+                ? builder.mPinyinTextSize : (int) (builder.mTextSize * PINYIN_TEXT_SIZE_RATIO);
+        mTextColor = builder.mTextColor;
+        mPinyinColor = builder.mPinyinColor;
+        mHorizontalSpacing = builder.mHorizontalSpacing;
+        mLineSpacing = builder.mLineSpacing;
+        mPinyinTextSpacing = builder.mPinyinTextSpacing >= 0
+                ? builder.mPinyinTextSpacing : builder.mHorizontalSpacing / 2;
+        mUnderlineVerticalSpacing = builder.mUnderlineVerticalSpacing;
+        mUnderline = builder.mUnderline;
+        mMeasureMode = builder.mMeasureMode;
+        if (mPinyinTextSize <= 0) {
+            throw new IllegalArgumentException("Pinyin text size must larger than 1px");
+        }
+
+        mMeasureKey = new MeasureKey(mTypeface, mTextSize, mPinyinTextSize, mMeasureMode);
+        mMetrics = PinyinMetricsCache.get(mTypeface, mTextSize, mPinyinTextSize, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        mUnderlinePaint = new Paint();
+        mUnderlinePaint.setARGB(255, 0, 0, 0);
+        mUnderlinePaint.setStyle(Paint.Style.STROKE);
+        mUnderlinePaint.setPathEffect(new DashPathEffect(new float[]{2, 2, 2, 2}, 0));
+        mHashCode = computeHashCode();
+    }
+
+    /**
+     * Get the default style of the display of the context: text size 14sp, pinyin of half of the
+     * text size, dark gray, spacing 5dp between tokens and 10dp between lines. It is shared.
+     *
+     * @param context context of the display, null for the system display
+     */
+    public static synchronized PinyinStyle getDefault(Context context) {
+        Resources r = context == null ? Resources.getSystem() : context.getResources();
+        DisplayMetrics dm = r.getDisplayMetrics();
+        if (sDefault == null || sDefaultDensity != dm.density || sDefaultScaledDensity != dm.scaledDensity) {
+            sDefault = new Builder()
+                    .setTextSize((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14, dm))
+                    .setHorizontalSpacing((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 5, dm))
+                    .setLineSpacing((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 10, dm))
+                    .build();
+            sDefaultDensity = dm.density;
+            sDefaultScaledDensity = dm.scaledDensity;
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return a builder with the values of this style
+     */
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    public Typeface getTypeface() {
+        return mTypeface;
+    }
+
+    public int getTextSize() {
+        return mTextSize;
+    }
+
+    public int getPinyinTextSize() {
+        return mPinyinTextSize;
+    }
+
+    @ColorInt
+    public int getTextColor() {
+        return mTextColor;
+    }
+
+    @ColorInt
+    public int getPinyinColor() {
+        return mPinyinColor;
+    }
+
+    public int getHorizontalSpacing() {
+        return mHorizontalSpacing;
+    }
+
+    public int getLineSpacing() {
+        return mLineSpacing;
+    }
+
+    public int getPinyinTextSpacing() {
+        return mPinyinTextSpacing;
+    }
+
+    public int getUnderlineVerticalSpacing() {
+        return mUnderlineVerticalSpacing;
+    }
+
+    public boolean isUnderline() {
+        return mUnderline;
+    }
+
+    @PinyinTextView.MeasureMode
+    public int getMeasureMode() {
+        return mMeasureMode;
+    }
+
+    /**
+     * @return text height in {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} mode
+     */
+    public int getTextHeight() {
+        return mMetrics.textHeight;
+    }
+
+    /**
+     * @return pinyin height in {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} mode
+     */
+    public int getPinyinHeight() {
+        return mMetrics.pinyinHeight;
+    }
+
+    PinyinMetricsCache.Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return the values of this style the token widths depend on
+     */
+    MeasureKey getMeasureKey() {
+        return mMeasureKey;
+    }
+
+    /**
+     * @return underline paint shared by the views of this style, it must not be changed
+     */
+    Paint getUnderlinePaint() {
+        return mUnderlinePaint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PinyinStyle)) {
+            return false;
+        }
+        PinyinStyle style = (PinyinStyle) o;
+        return mHashCode == style.mHashCode
+                && mTextSize == style.mTextSize
+                && mPinyinTextSize == style.mPinyinTextSize
+                && mTextColor == style.mTextColor
+                && mPinyinColor == style.mPinyinColor
+                && mHorizontalSpacing == style.mHorizontalSpacing
+                && mLineSpacing == style.mLineSpacing
+                && mPinyinTextSpacing == style.mPinyinTextSpacing
+                && mUnderlineVerticalSpacing == style.mUnderlineVerticalSpacing
+                && mUnderline == style.mUnderline
+                && mMeasureMode == style.mMeasureMode
+                && (mTypeface == null ? style.mTypeface == null : mTypeface.equals(style.mTypeface));
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    private int computeHashCode() {
+        int result = mTypeface == null ? 0 : mTypeface.hashCode();
+        result = 31 * result + mTextSize;
+        result = 31 * result + mPinyinTextSize;
+        result = 31 * result + mTextColor;
+        result = 31 * result + mPinyinColor;
+        result = 31 * result + mHorizontalSpacing;
+        result = 31 * result + mLineSpacing;
+        result = 31 * result + mPinyinTextSpacing;
+        result = 31 * result + mUnderlineVerticalSpacing;
+        result = 31 * result + (mUnderline ? 1 : 0);
+        result = 31 * result + mMeasureMode;
+        return result;
+    }
+
+    /**
+     * Typeface, text sizes and measure mode of a style, the values the token widths depend on.
+     * Widths measured with a key are valid for all styles of an equal key, whatever their colors
+     * and spacings are.
+     */
+    static final class MeasureKey {
+        final Typeface typeface;
+        final int textSize;
+        final int pinyinTextSize;
+        @PinyinTextView.MeasureMode
+        final int measureMode;
+        private final int mHashCode;
+
+        MeasureKey(Typeface typeface, int textSize, int pinyinTextSize, @PinyinTextView.MeasureMode int measureMode) {
+            this.typeface = typeface;
+            this.textSize = textSize;
+            this.pinyinTextSize = pinyinTextSize;
+            this.measureMode = measureMode;
+            int result = typeface == null ? 0 : typeface.hashCode();
+            result = 31 * result + textSize;
+            result = 31 * result + pinyinTextSize;
+            result = 31 * result + measureMode;
+            mHashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MeasureKey)) {
+                return false;
+            }
+            MeasureKey key = (MeasureKey) o;
+            return mHashCode == key.mHashCode
+                    && textSize == key.textSize && pinyinTextSize == key.pinyinTextSize
+                    && measureMode == key.measureMode
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * Builder of {@link PinyinStyle}, the sizes and spacings are in pixels.
+     */
+    public static final class Builder {
+        private Typeface mTypeface;
+        private int mTextSize;
+        private int mPinyinTextSize;
+        private int mTextColor = 0xff333333;
+        private int mPinyinColor = 0xff333333;
+        private int mHorizontalSpacing = 6;
+        private int mLineSpacing = 10;
+        private int mPinyinTextSpacing = -1;
+        private int mUnderlineVerticalSpacing = 14;
+        private boolean mUnderline;
+        private int mMeasureMode = PinyinTextView.MEASURE_SHAPED;
+
+        /**
+         * Start from the default style of the display of the context, see {@link #getDefault(Context)}.
+         */
+        public Builder(Context context) {
+            this(getDefault(context));
+        }
+
+        public Builder(PinyinStyle style) {
+            mTypeface = style.mTypeface;
+            mTextSize = style.mTextSize;
+            mPinyinTextSize = style.mPinyinTextSize;
+            mTextColor = style.mTextColor;
+            mPinyinColor = style.mPinyinColor;
+            mHorizontalSpacing = style.mHorizontalSpacing;
+            mLineSpacing = style.mLineSpacing;
+            mPinyinTextSpacing = style.mPinyinTextSpacing;
+            mUnderlineVerticalSpacing = style.mUnderlineVerticalSpacing;
+            mUnderline = style.mUnderline;
+            mMeasureMode = style.mMeasureMode;
+        }
+
+        private Builder() {
+        }
+
+        /**
+         * @param typeface typeface of text & pinyin, null for the default typeface
+         */
+        public Builder setTypeface(Typeface typeface) {
+            mTypeface = typeface;
+            return this;
+        }
+
+        /**
+         * Set the text size, the pinyin text size becomes half of it like
+         * {@link PinyinTextView#setTextSize(int)}, set it afterwards to change it.
+         */
+        public Builder setTextSize(int px) {
+            if (px < 2) {
+                throw new IllegalArgumentException("Text size must larger than 2px");
+            }
+            mTextSize = px;
+            mPinyinTextSize = 0;
+            return this;
+        }
+
+        public Builder setPinyinTextSize(int px) {
+            if (px <= 0) {
+                throw new IllegalArgumentException("Pinyin text size must larger than 1px");
+            }
+            mPinyinTextSize = px;
+            return this;
+        }
+
+        public Builder setTextColor(@ColorInt int color) {
+            mTextColor = color;
+            return this;
+        }
+
+        public Builder setPinyinColor(@ColorInt int color) {
+            mPinyinColor = color;
+            return this;
+        }
+
+        /**
+         * Set the spacing between two tokens, the spacing between pinyin and text becomes half of
+         * it like {@link PinyinTextView#setHorizontalSpacing(int)}, set it afterwards to change it.
+         */
+        public Builder setHorizontalSpacing(int px) {
+            mHorizontalSpacing = px;
+            mPinyinTextSpacing = -1;
+            return this;
+        }
+
+        public Builder setLineSpacing(int px) {
+            mLineSpacing = px;
+            return this;
+        }
+
+        public Builder setPinyinTextSpacing(int px) {
+            mPinyinTextSpacing = px;
+            return this;
+        }
+
+        public Builder setUnderlineVerticalSpacing(int px) {
+            mUnderlineVerticalSpacing = px;
+            return this;
+        }
+
+        public Builder setUnderline(boolean underline) {
+            mUnderline = underline;
+            return this;
+        }
+
+        public Builder setMeasureMode(@PinyinTextView.MeasureMode int mode) {
+            mMeasureMode = mode;
+            return this;
+        }
+
+        /**
+         * Build the style and compute its derived values.
+         *
+         * @throws IllegalArgumentException if the text size is not set
+         */
+        public PinyinStyle build() {
+            if (mTextSize < 2) {
+                throw new IllegalArgumentException("Text size must larger than 2px");
+            }
+            return new PinyinStyle(this);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.liwenwei.pinyintextview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe tokens which background producers, like a network sync or an annotator, change
+ * while a {@link PinyinTextView} shows them.
+ * <p>
+ * Every change publishes a new immutable {@link Snapshot} with the next version. The snapshot is
+ * copied on write and swapped in by compare-and-set, so producers never block each other nor the
+ * main thread. An append shares the tokens of the previous snapshot and only costs the appended
+ * tokens, so streaming a long text one token at a time stays linear. A view bound by {@link PinyinTextView#setModel(PinyinTextModel, int)} takes the
+ * latest snapshot at its next frame: many changes between two frames are shown once. Tokens
+ * appended since the shown snapshot are added to what the view shows, other changes are shown
+ * from scratch.
+ * <p>
+ * The tokens are copied when they are added, changing them afterwards doesn't change the model.
+ * The copies take the strings of {@link TokenStringPool}.
+ */
+public final class PinyinTextModel {
+
+    /**
+     * Notified after a snapshot is published, on the thread of the producer.
+     */
+    public interface Listener {
+        void onModelChanged(PinyinTextModel model);
+    }
+
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    public PinyinTextModel() {
+    }
+
+    public PinyinTextModel(List<PinyinTextView.Token> tokens) {
+        setTokens(tokens);
+    }
+
+    /**
+     * @return the latest snapshot
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    /**
+     * Replace all the tokens.
+     */
+    public void setTokens(List<PinyinTextView.Token> tokens) {
+        Entry[] entries = toEntries(tokens);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            next = new Snapshot(current.mVersion + 1, entries);
+        } while (!mSnapshot.compareAndSet(current, next));
+        notifyListeners();
+    }
+
+    /**
+     * Append the tokens, like an annotator which streams its output.
+     */
+    public void addTokens(List<PinyinTextView.Token> tokens) {
+        Entry[] entries = toEntries(tokens);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            next = current.append(entries);
+        } while (!mSnapshot.compareAndSet(current, next));
+        notifyListeners();
+    }
+
+    /**
+     * Replace one token.
+     *
+     * @throws IndexOutOfBoundsException if the token doesn't exist in the latest snapshot
+     */
+    public void setToken(int index, PinyinTextView.Token token) {
+        replaceTokens(index, index + 1, Collections.singletonList(token));
+    }
+
+    /**
+     * Replace the tokens from start to end by the tokens in one change, an empty list removes them.
+     *
+     * @throws IndexOutOfBoundsException if the range is not in the latest snapshot
+     */
+    public void replaceTokens(int start, int end, List<PinyinTextView.Token> tokens) {
+        Entry[] entries = toEntries(tokens);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            if (start < 0 || end < start || end > current.size()) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of " + current.size());
+            }
+            next = current.splice(start, end, entries);
+        } while (!mSnapshot.compareAndSet(current, next));
+        notifyListeners();
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : mListeners) {
+            listener.onModelChanged(this);
+        }
+    }
+
+    private static Entry[] toEntries(List<PinyinTextView.Token> tokens) {
+        Entry[] entries = new Entry[tokens.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(tokens.get(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Immutable tokens of a version of the model.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, new Entry[0]);
+
+        private static final int CHUNK_SHIFT = 8;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final long mVersion;
+        // entries in chunks of CHUNK_SIZE, shared by the snapshots appended to this one; a chunk
+        // may hold entries of a later snapshot past mSize
+        private final Entry[][] mChunks;
+        private final int mSize;
+        // entries written to the chunks by the snapshots sharing them, the first append from a
+        // snapshot of this size writes in place, any other one copies the last chunk
+        private final AtomicInteger mFilled;
+        // version of the last change which was not an append
+        private final long mAppendBase;
+
+        Snapshot(long version, Entry[] entries) {
+            mVersion = version;
+            mChunks = new Entry[(entries.length + CHUNK_MASK) >>> CHUNK_SHIFT][];
+            for (int i = 0; i < mChunks.length; i++) {
+                mChunks[i] = Arrays.copyOfRange(entries, i << CHUNK_SHIFT, (i + 1) << CHUNK_SHIFT);
+            }
+            mSize = entries.length;
+            mFilled = new AtomicInteger(mSize);
+            mAppendBase = version;
+        }
+
+        private Snapshot(long version, Entry[][] chunks, int size, AtomicInteger filled, long appendBase) {
+            mVersion = version;
+            mChunks = chunks;
+            mSize = size;
+            mFilled = filled;
+            mAppendBase = appendBase;
+        }
+
+        /**
+         * @return version of the snapshot, increased by every change of the model
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public String getText(int index) {
+            return get(index).text;
+        }
+
+        public String getPinyin(int index) {
+            return get(index).pinyin;
+        }
+
+        public int getTextColor(int index) {
+            return get(index).textColor;
+        }
+
+        public int getPinyinColor(int index) {
+            return get(index).pinyinColor;
+        }
+
+        private Entry get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + mSize);
+            }
+            return mChunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        /**
+         * @return new tokens of the snapshot, owned by the caller
+         */
+        public List<PinyinTextView.Token> toTokens() {
+            return toTokens(0);
+        }
+
+        /**
+         * @return new tokens of the snapshot from the start, owned by the caller
+         */
+        List<PinyinTextView.Token> toTokens(int start) {
+            List<PinyinTextView.Token> tokens = new ArrayList<>(mSize - start);
+            for (int i = start; i < mSize; i++) {
+                tokens.add(get(i).toToken());
+            }
+            return tokens;
+        }
+
+        /**
+         * @return true if the tokens of the version are the first tokens of this snapshot, only
+         * appended to since
+         */
+        boolean isAppendedTo(long version) {
+            return version >= mAppendBase && version <= mVersion;
+        }
+
+        /**
+         * Append in place to the chunks of this snapshot if no other snapshot was appended to it,
+         * else to a copy sharing all the chunks but the last one. The entries past the size of a
+         * snapshot are only read by the snapshots which are published after them.
+         */
+        Snapshot append(Entry[] entries) {
+            int size = mSize + entries.length;
+            Entry[][] chunks = mChunks;
+            AtomicInteger filled = mFilled;
+            if (!filled.compareAndSet(mSize, size)) {
+                // another append, which may lose its compare-and-set, owns the rest of the chunks
+                int chunkCount = (mSize + CHUNK_MASK) >>> CHUNK_SHIFT;
+                chunks = Arrays.copyOf(chunks, chunkCount);
+                if ((mSize & CHUNK_MASK) != 0) {
+                    chunks[chunkCount - 1] = chunks[chunkCount - 1].clone();
+                }
+                filled = new AtomicInteger(size);
+            }
+            int chunkCount = (size + CHUNK_MASK) >>> CHUNK_SHIFT;
+            if (chunkCount > chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(chunkCount, chunks.length * 2));
+            }
+            for (int i = 0; i < entries.length; i++) {
+                int index = mSize + i;
+                Entry[] chunk = chunks[index >>> CHUNK_SHIFT];
+                if (chunk == null) {
+                    chunk = new Entry[CHUNK_SIZE];
+                    chunks[index >>> CHUNK_SHIFT] = chunk;
+                }
+                chunk[index & CHUNK_MASK] = entries[i];
+            }
+            return new Snapshot(mVersion + 1, chunks, size, filled, mAppendBase);
+        }
+
+        Snapshot splice(int start, int end, Entry[] entries) {
+            Entry[] spliced = new Entry[mSize - (end - start) + entries.length];
+            for (int i = 0; i < start; i++) {
+                spliced[i] = get(i);
+            }
+            System.arraycopy(entries, 0, spliced, start, entries.length);
+            for (int i = end; i < mSize; i++) {
+                spliced[start + entries.length + i - end] = get(i);
+            }
+            return new Snapshot(mVersion + 1, spliced);
+        }
+    }
+
+    /**
+     * Frozen copy of a token.
+     */
+    private static final class Entry {
+        final String text;
+        final String pinyin;
+        final int textColor;
+        final int pinyinColor;
+        final int backgroundColor;
+        final Boolean underline;
+        final float textWidth;
+        final float pinyinWidth;
+
+        Entry(PinyinTextView.Token token) {
+            text = TokenStringPool.intern(token.getText());
+            pinyin = TokenStringPool.intern(token.getPinyin());
+            textColor = token.getTextColor();
+            pinyinColor = token.getPinyinColor();
+            backgroundColor = token.getBackgroundColor();
+            underline = token.getUnderline();
+            textWidth = token.getPrecomputedTextWidth();
+            pinyinWidth = token.getPrecomputedPinyinWidth();
+        }
+
+        PinyinTextView.Token toToken() {
+            PinyinTextView.Token token = new PinyinTextView.Token(text, textColor, pinyin, pinyinColor);
+            token.setBackgroundColor(backgroundColor);
+            token.setUnderline(underline);
+            token.setPrecomputedWidths(textWidth, pinyinWidth);
+            return token;
+        }
+    }
+}
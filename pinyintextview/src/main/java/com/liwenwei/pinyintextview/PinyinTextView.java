@@ -1,12 +1,12 @@
 package com.liwenwei.pinyintextview;
 
 import android.content.Context;
-import android.content.res.Resources;
+import android.content.pm.ApplicationInfo;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
-import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.text.Html;
 import android.text.Layout;
 import android.text.Layout.Alignment;
@@ -15,18 +15,26 @@ import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
-import android.util.DisplayMetrics;
+import android.util.Log;
 import android.util.Pair;
-import android.util.TypedValue;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.IntDef;
+import androidx.core.view.ViewCompat;
 
 /**
  * Displays pinyin and text to the user.<br/>
@@ -65,12 +73,79 @@ public class PinyinTextView extends View {
      * draw only pinyin
      */
     public static final int TYPE_PINYIN = 3;
+    /**
+     * @hide
+     */
+    @IntDef({LINE_BREAK_GREEDY, LINE_BREAK_BALANCED})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface LineBreakStrategy {
+    }
+
+    /**
+     * fill every line with as many tokens as fit, see {@link GreedyLineBreaker}
+     */
+    public static final int LINE_BREAK_GREEDY = 0;
+    /**
+     * lines with similar lengths, no orphan token on the last line, see {@link BalancedLineBreaker}
+     */
+    public static final int LINE_BREAK_BALANCED = 1;
+    /**
+     * @hide
+     */
+    @IntDef({MEASURE_SHAPED, MEASURE_ADVANCES})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface MeasureMode {
+    }
+
+    /**
+     * measure every token by full text shaping
+     */
+    public static final int MEASURE_SHAPED = 0;
+    /**
+     * measure hanzi & pinyin tokens by summing cached char advances, other tokens by full text
+     * shaping, see {@link AdvanceTable}
+     */
+    public static final int MEASURE_ADVANCES = 1;
+    /**
+     * @hide
+     */
+    @IntDef({ACCESSIBILITY_UNIT_TOKEN, ACCESSIBILITY_UNIT_LINE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface AccessibilityUnit {
+    }
+
+    /**
+     * screen readers move through the text token by token
+     */
+    public static final int ACCESSIBILITY_UNIT_TOKEN = 0;
+    /**
+     * screen readers move through the text line by line
+     */
+    public static final int ACCESSIBILITY_UNIT_LINE = 1;
+
     /**
      * draw type. Must be one value of {@link #TYPE_PINYIN_AND_TEXT} or {@link #TYPE_PLAIN_TEXT}
      */
     private int mDrawType = TYPE_PLAIN_TEXT;
 
-    private static final float PINYIN_TEXT_SIZE_RADIO = 0.5F;
+    private static final float PINYIN_TEXT_SIZE_RADIO = PinyinStyle.PINYIN_TEXT_SIZE_RATIO;
+
+    private static final String ELLIPSIS = "\u2026";
+    // values of android:ellipsize
+    private static final int ELLIPSIZE_NONE = 0;
+    private static final int ELLIPSIZE_END = 3;
+    private static final String TAG = "PinyinTextView";
+
+    /**
+     * Tokens with precomputed widths measured again in debuggable apps, to catch widths of another
+     * font, per doubling of the tokens with precomputed widths
+     */
+    private static final int PRECOMPUTED_WIDTH_SAMPLES = 16;
+
+    /**
+     * Delay between two read-along frames where postOnAnimation is not available
+     */
+    private static final long PLAYBACK_FRAME_DELAY = 16;
 
     /**
      * Text size in pixels<br/>
@@ -124,6 +199,34 @@ public class PinyinTextView extends View {
      */
     private boolean mUnderline = false;
 
+    /**
+     * Max lines in {@link #TYPE_PINYIN_AND_TEXT} mode, the tokens after them are neither measured nor drawn.<br/>
+     * Def in xml <b>android:maxLines=""</b>
+     */
+    private int mMaxLines = Integer.MAX_VALUE;
+
+    /**
+     * Append {@link #ELLIPSIS} to the last line if the tokens are truncated by {@link #mMaxLines}.<br/>
+     * Def in xml <b>android:ellipsize="end"</b>
+     */
+    private boolean mEllipsize;
+
+    /**
+     * How tokens are measured in {@link #TYPE_PINYIN_AND_TEXT} mode.<br/>
+     * Def in xml <b>app:measureMode=""</b>
+     */
+    @MeasureMode
+    private int mMeasureMode = MEASURE_SHAPED;
+
+    // virtual accessibility hierarchy of the tokens, see PinyinAccessibilityHelper
+    private final PinyinAccessibilityHelper mAccessibilityHelper = new PinyinAccessibilityHelper(this);
+    @AccessibilityUnit
+    private int mAccessibilityUnit = ACCESSIBILITY_UNIT_TOKEN;
+    // char advances of text & pinyin size in MEASURE_ADVANCES mode, looked up again if the style changes
+    // or the memory manager trimmed them
+    private AdvanceTable mTextAdvances;
+    private AdvanceTable mPinyinAdvances;
+
     // text & pinyin string
     private String mPlainTextString;
     private String mTextString;
@@ -136,18 +239,147 @@ public class PinyinTextView extends View {
     // Pinyin data
     private List<PinyinCompat> mPinyinCompats = new ArrayList<>();
     private List<Token> mPinyinTokens = new ArrayList<>();
+    // tokens set by offsets, there are no compats & tokens then
+    private PackedTokens mPackedTokens;
+
+    // line index of TYPE_PINYIN_AND_TEXT layout, index of the first token & top of each line
+    private int[] mLineStarts = new int[0];
+    private int[] mLineTops = new int[16];
+    private int mLineCount;
+
+    // line breaking, the version is bumped when widths, spacing or the breaker change
+    private LineBreaker mLineBreaker = GreedyLineBreaker.INSTANCE;
+    private final LineBreakCache mLineBreakCache = new LineBreakCache();
+    private int mLayoutVersion;
+    private PinyinLayout mLayout;
+    private int mLayoutWidth;
+    // inputs of mLayout besides the width, spacing and heights, see isLayoutValid(int)
+    private int mLayoutVersionOfLayout = -1;
+    private int mLayoutColumnsVersion;
+    private int mLayoutMaxLines;
+    private boolean mLayoutEllipsize;
+    // bumped when the column widths of the alignment group change
+    private int mColumnsVersion;
+    // columns of mLayout, the layout gets a shorter copy when the ellipsis is shown
+    private int[] mLayoutColumnWidths;
+    // layout version & count of the token widths last reported to the alignment group
+    private int mReportedWidthsVersion = -1;
+    private int mReportedWidthsCount;
+    // layout loaded by loadLayout(File), installed as is while the version and the content width match
+    private PinyinLayout mSavedLayout;
+    private int[] mSavedLineStarts;
+    private int mSavedLayoutVersion;
+    private int mSavedLayoutWidth;
+
+    // measured widths of tokens, text & pinyin & max of them
+    private int[] mTextWidths = new int[0];
+    private int[] mPinyinWidths = new int[0];
+    private int[] mTokenWidths = new int[0];
+    private int mTokenWidthsVersion = -1;
+    // tokens measured in the current version, tokens after max lines are not measured
+    private int mTokenWidthsCount;
+    // tokens with precomputed widths measured in the current version, -1 once they were warned about
+    private int mPrecomputedWidthsSeen;
+
+    // shared heights & column widths with other views, see PinyinAlignmentGroup
+    private PinyinAlignmentGroup mAlignmentGroup;
+    // column widths of the group in the current measure, token widths widened to them
+    private int[] mColumnWidths;
+    private int[] mAlignedWidths = new int[0];
+
+    // find-in-text, the index is built by the first search and dropped with the tokens
+    private PinyinSearchIndex mSearchIndex;
+    private PinyinSearchIndex.Result mSearchResult;
+    private final BitSet mSearchMatches = new BitSet();
+    private final Rect mSearchRect = new Rect();
+
+    // style set by setPinyinStyle, null once a value is changed by its setter
+    private PinyinStyle mStyle;
+
+    // tokens published by background producers, see setModel
+    private PinyinTextModel mModel;
+    private long mModelVersion = -1;
+    // a frame to take the latest snapshot is posted, the versions published before it are coalesced
+    private final AtomicBoolean mModelFramePosted = new AtomicBoolean();
+    private final PinyinTextModel.Listener mModelListener = new PinyinTextModel.Listener() {
+        @Override
+        public void onModelChanged(PinyinTextModel model) {
+            // on the thread of the producer, posting is thread-safe
+            if (mModelFramePosted.compareAndSet(false, true)) {
+                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
+                    postOnAnimation(mModelFrame);
+                } else {
+                    post(mModelFrame);
+                }
+            }
+        }
+    };
+    private final Runnable mModelFrame = new Runnable() {
+        @Override
+        public void run() {
+            mModelFramePosted.set(false);
+            applyModelSnapshot();
+        }
+    };
+
+    // pending setPinyinTextAsync, null if there is none
+    private PinyinBinder.Request mBindRequest;
+    // request cancelled by the detach, it is bound again when the view is attached again
+    private PinyinBinder.Request mDetachedBindRequest;
+    // size of the duplicate strings dropped for pooled ones, see TokenStringPool
+    private long mSharedStringBytes;
+
+    // tokens in the layout, the others are truncated by max lines
+    private int mVisibleTokenCount;
+    // index of the ellipsis in the layout, -1 if there is none
+    private int mEllipsisIndex = -1;
 
     // text & pinyin paint
     private TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
     // underline
     private Paint mUnderlinePaint = new Paint();
+    // token background
+    private Paint mBackgroundPaint = new Paint();
+    // search matches background
+    private Paint mSearchPaint = new Paint();
 
     // bounds
     private Rect mBounds = new Rect();
+    private Rect mClipBounds = new Rect();
+
+    // token state changed in TYPE_PINYIN_AND_TEXT mode, the html string of other modes is out of date
+    private boolean mTextStringStale;
 
     // for draw plain text
     private StaticLayout mStaticLayout;
 
+    // read-along highlight, see setHighlightTimeline(long[])
+    @ColorInt
+    private int mHighlightColor = 0xffe91e63;
+    private int mHighlightIndex = -1;
+    private long[] mHighlightTimeline;
+    private TimeSource mTimeSource;
+    private final Runnable mPlaybackFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (mTimeSource == null) {
+                return;
+            }
+            if (!mTimeSource.isPlaying()) {
+                // paused or stopped, keep the highlight until playback is started again
+                mTimeSource = null;
+                return;
+            }
+            setHighlightTime(mTimeSource.getCurrentTime());
+            if (mHighlightTimeline != null && mHighlightIndex == mHighlightTimeline.length - 1) {
+                // the last token is highlighted, there is nothing to move to
+                mTimeSource = null;
+                return;
+            }
+            postNextPlaybackFrame();
+        }
+    };
+
     private boolean debugDraw = false; //  for debug, set false when release
     private Paint mDebugPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 
@@ -166,12 +398,29 @@ public class PinyinTextView extends View {
         init(context, null);
     }
 
+    /**
+     * Create a view of the style, without parsing attributes, for views created in code in a list.
+     */
+    public PinyinTextView(Context context, PinyinStyle style) {
+        super(context);
+        if (style == null) {
+            throw new IllegalArgumentException("Style must not be null");
+        }
+        init(context, null, style);
+    }
+
     private void init(Context context, AttributeSet attrs) {
+        init(context, attrs, null);
+    }
+
+    private void init(Context context, AttributeSet attrs, PinyinStyle style) {
         if (this.isInEditMode()) { // eclipse preview mode
             return;
         }
 
-        initDefault(); // initialize default value
+        initDefault(style); // initialize default value
+        PinyinMemoryManager.register(context);
+        ViewCompat.setAccessibilityDelegate(this, mAccessibilityHelper);
 
         if (attrs == null) {
             return;
@@ -204,43 +453,112 @@ public class PinyinTextView extends View {
         if (a.hasValue(R.styleable.PinyinTextView_underline)) {
             mUnderline = a.getBoolean(R.styleable.PinyinTextView_underline, mUnderline);
         }
+        if (a.hasValue(R.styleable.PinyinTextView_android_maxLines)) {
+            mMaxLines = a.getInt(R.styleable.PinyinTextView_android_maxLines, mMaxLines);
+        }
+        if (a.hasValue(R.styleable.PinyinTextView_android_ellipsize)) {
+            // none is 0, end is 3, start, middle and marquee are not supported
+            int ellipsize = a.getInt(R.styleable.PinyinTextView_android_ellipsize, ELLIPSIZE_NONE);
+            if (ellipsize != ELLIPSIZE_NONE && ellipsize != ELLIPSIZE_END) {
+                Log.w(TAG, "Only android:ellipsize=\"end\" is supported, the ellipsis is not shown");
+            }
+            mEllipsize = ellipsize == ELLIPSIZE_END;
+        }
+        if (a.hasValue(R.styleable.PinyinTextView_measureMode)) {
+            mMeasureMode = a.getInt(R.styleable.PinyinTextView_measureMode, MEASURE_SHAPED);
+        }
+        if (a.hasValue(R.styleable.PinyinTextView_lineBreakStrategy)) {
+            setLineBreakStrategy(a.getInt(R.styleable.PinyinTextView_lineBreakStrategy, LINE_BREAK_GREEDY));
+        }
         a.recycle();
         setTextSize(mTextSize);
     }
 
-    private void initDefault() {
-        Context c = getContext();
-        Resources r;
-
-        if (c == null) {
-            r = Resources.getSystem();
-        } else {
-            r = c.getResources();
-        }
-
-        DisplayMetrics dm = r.getDisplayMetrics();
-
-        // Text size default 14sp
-        mTextSize = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14, dm);
-        mPinyinTextSize = (int) (mTextSize * PINYIN_TEXT_SIZE_RADIO);
-
-        // spacing
-        mHorizontalSpacing = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 5, dm);
-        mLineSpacing = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, mLineSpacing, dm);
-        mPinyinTextSpacing = mHorizontalSpacing / 2;
-
-        // set default text color
-        mTextColor = 0xff333333;
-        mPinyinColor = 0xff333333;
-
+    private void initDefault(PinyinStyle style) {
         mPaint.setStyle(Paint.Style.FILL);
         mDebugPaint.setStyle(Paint.Style.STROKE);
-        mUnderlinePaint.setARGB(255, 0, 0, 0);
-        mUnderlinePaint.setStyle(Paint.Style.STROKE);
-        mUnderlinePaint.setPathEffect(new DashPathEffect(new float[]{2, 2, 2, 2}, 0));
+        mBackgroundPaint.setStyle(Paint.Style.FILL);
+        mSearchPaint.setStyle(Paint.Style.FILL);
+        mSearchPaint.setColor(0x66ffeb3b);
         // The method setPathEffect is not supported by hardware acceleration. By default it is turned on (I think since Android 4.0)
         // turn off hardware acceleration
         this.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+
+        // the values of the default style are computed once for all views
+        applyStyle(style != null ? style : PinyinStyle.getDefault(getContext()));
+    }
+
+    /**
+     * Copy the values of the style, the derived values are used when the style is still set.
+     */
+    private void applyStyle(PinyinStyle style) {
+        mStyle = style;
+        mPaint.setTypeface(style.getTypeface());
+        mTextSize = style.getTextSize();
+        mPinyinTextSize = style.getPinyinTextSize();
+        mTextColor = style.getTextColor();
+        mPinyinColor = style.getPinyinColor();
+        mHorizontalSpacing = style.getHorizontalSpacing();
+        mLineSpacing = style.getLineSpacing();
+        mPinyinTextSpacing = style.getPinyinTextSpacing();
+        mUnderlineVerticalSpacing = style.getUnderlineVerticalSpacing();
+        mUnderline = style.isUnderline();
+        mMeasureMode = style.getMeasureMode();
+        mUnderlinePaint = style.getUnderlinePaint();
+    }
+
+    /**
+     * Apply a shared style in one call, instead of the setters one by one. Changing a value by its
+     * setter afterwards detaches the view from the style.
+     *
+     * @param style style to apply
+     */
+    public void setPinyinStyle(PinyinStyle style) {
+        if (style == null) {
+            throw new IllegalArgumentException("Style must not be null");
+        }
+        if (style.equals(mStyle)) {
+            return;
+        }
+        boolean colorsChanged = style.getTextColor() != mTextColor || style.getPinyinColor() != mPinyinColor;
+        applyStyle(style);
+        calTextHeight();
+        onLayoutChanged();
+        if (colorsChanged && !mPinyinTokens.isEmpty()) {
+            // the same as setTextColor(int) & setPinyinColor(int)
+            for (Token token : mPinyinTokens) {
+                token.setTextColor(mTextColor);
+                token.setPinyinColor(mPinyinColor);
+            }
+            setTokens(mPinyinTokens, mDrawType);
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Get the current style, the style set by {@link #setPinyinStyle(PinyinStyle)} if no value is
+     * changed since, otherwise a style of the current values.
+     *
+     * @return current style
+     */
+    public PinyinStyle getPinyinStyle() {
+        if (mStyle == null) {
+            mStyle = PinyinStyle.getDefault(getContext()).buildUpon()
+                    .setTypeface(mPaint.getTypeface())
+                    .setTextSize(mTextSize)
+                    .setPinyinTextSize(mPinyinTextSize)
+                    .setTextColor(mTextColor)
+                    .setPinyinColor(mPinyinColor)
+                    .setHorizontalSpacing(mHorizontalSpacing)
+                    .setLineSpacing(mLineSpacing)
+                    .setPinyinTextSpacing(mPinyinTextSpacing)
+                    .setUnderlineVerticalSpacing(mUnderlineVerticalSpacing)
+                    .setUnderline(mUnderline)
+                    .setMeasureMode(mMeasureMode)
+                    .build();
+        }
+        return mStyle;
     }
 
     /**
@@ -268,9 +586,28 @@ public class PinyinTextView extends View {
     }
 
     public String getText() {
+        if (mPlainTextString == null && mPackedTokens != null) {
+            mPlainTextString = mPackedTokens.getPlainText();
+        } else if (mPlainTextString == null && !mPinyinCompats.isEmpty()) {
+            // cleared by the appended tokens of a model
+            StringBuilder text = new StringBuilder();
+            for (PinyinCompat compat : mPinyinCompats) {
+                text.append(compat.text);
+            }
+            mPlainTextString = text.toString();
+        }
         return mPlainTextString;
     }
 
+    /**
+     * Get the count of the tokens set by setPinyinText methods.
+     *
+     * @return token count, 0 if there are no tokens
+     */
+    public int getTokenCount() {
+        return mPackedTokens != null ? mPackedTokens.count : mPinyinCompats.size();
+    }
+
     /**
      * Set pinyin text size in pixels. If not set, pinyin text size will be the size of {@link #getTextSize()} *
      * {@value #PINYIN_TEXT_SIZE_RADIO}. <br/><br/>
@@ -281,6 +618,7 @@ public class PinyinTextView extends View {
      * @param px - pinyin text size in pixels
      */
     private void setPinyinTextSize(int px) {
+        mStyle = null;
         mPinyinTextSize = px;
         if (mPinyinTextSize <= 0) {
             throw new IllegalArgumentException("Pinyin text size must larger than 1px");
@@ -288,6 +626,7 @@ public class PinyinTextView extends View {
 
         // calculate text & pinyin height
         calTextHeight();
+        onLayoutChanged();
 
         requestLayout();
         invalidate();
@@ -302,6 +641,7 @@ public class PinyinTextView extends View {
      * @param color text color.
      */
     public void setTextColor(@ColorInt int color) {
+        mStyle = null;
         mTextColor = color;
         for (Token token : mPinyinTokens) {
             token.setTextColor(mTextColor);
@@ -310,7 +650,7 @@ public class PinyinTextView extends View {
             requestLayout();
             invalidate();
         } else {
-            setPinyinTextByTokens(mPinyinTokens, mDrawType);
+            setTokens(mPinyinTokens, mDrawType);
         }
     }
 
@@ -321,6 +661,7 @@ public class PinyinTextView extends View {
      * @param color pinyin text color.
      */
     public void setPinyinColor(@ColorInt int color) {
+        mStyle = null;
         mPinyinColor = color;
         for (Token token : mPinyinTokens) {
             token.setPinyinColor(mPinyinColor);
@@ -329,7 +670,7 @@ public class PinyinTextView extends View {
             requestLayout();
             invalidate();
         } else {
-            setPinyinTextByTokens(mPinyinTokens, mDrawType);
+            setTokens(mPinyinTokens, mDrawType);
         }
     }
 
@@ -341,18 +682,21 @@ public class PinyinTextView extends View {
      * @see #setHorizontalSpacing(int)
      */
     public void setLineSpacing(int px) {
+        mStyle = null;
         mLineSpacing = px;
         requestLayout();
         invalidate();
     }
 
     public void setPinyinTextSpacing(int px) {
+        mStyle = null;
         mPinyinTextSpacing = px;
         requestLayout();
         invalidate();
     }
 
     public void setUnderlineVerticalSpacing(int px) {
+        mStyle = null;
         this.mUnderlineVerticalSpacing = px;
     }
 
@@ -361,10 +705,125 @@ public class PinyinTextView extends View {
     }
 
     public void setUnderline(boolean isShow) {
+        mStyle = null;
         this.mUnderline = isShow;
         invalidate();
     }
 
+    /**
+     * Set the max lines in {@link #TYPE_PINYIN_AND_TEXT} mode. Only the tokens of these lines are
+     * measured and drawn, so a preview of a long text costs as much as its visible lines.<br/>
+     * Def in xml <b>android:maxLines=""</b>
+     *
+     * @param maxLines max lines, {@link Integer#MAX_VALUE} for no limit
+     */
+    public void setMaxLines(int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("Max lines must be positive");
+        }
+        if (mMaxLines == maxLines) {
+            return;
+        }
+        mMaxLines = maxLines;
+        requestLayout();
+        invalidate();
+    }
+
+    public int getMaxLines() {
+        return mMaxLines;
+    }
+
+    /**
+     * Set whether to end the last line with an ellipsis if the tokens are truncated by
+     * {@link #setMaxLines(int)}. Tokens at the end of the last line are removed to make space for it.<br/>
+     * Def in xml <b>android:ellipsize="end"</b>, the other values are not supported and show no ellipsis
+     *
+     * @param ellipsize true to show the ellipsis
+     */
+    public void setEllipsize(boolean ellipsize) {
+        mEllipsize = ellipsize;
+        requestLayout();
+        invalidate();
+    }
+
+    public boolean isEllipsize() {
+        return mEllipsize;
+    }
+
+    /**
+     * Set how tokens are measured in {@link #TYPE_PINYIN_AND_TEXT} mode.<br/>
+     * Def in xml <b>app:measureMode=""</b>
+     *
+     * @param mode {@link #MEASURE_SHAPED}, or {@link #MEASURE_ADVANCES} which is faster for long
+     *             texts of hanzi and pinyin
+     */
+    public void setMeasureMode(@MeasureMode int mode) {
+        if (mMeasureMode == mode) {
+            return;
+        }
+        mStyle = null;
+        mMeasureMode = mode;
+        onLayoutChanged();
+        requestLayout();
+        invalidate();
+    }
+
+    @MeasureMode
+    public int getMeasureMode() {
+        return mMeasureMode;
+    }
+
+    /**
+     * Set how screen readers move through the text in {@link #TYPE_PINYIN_AND_TEXT} mode. The
+     * tokens or lines are virtual views built only when a screen reader asks for them, in the
+     * other modes the view reads as a whole.
+     *
+     * @param unit {@link #ACCESSIBILITY_UNIT_TOKEN} or {@link #ACCESSIBILITY_UNIT_LINE}
+     */
+    public void setAccessibilityUnit(@AccessibilityUnit int unit) {
+        if (mAccessibilityUnit == unit) {
+            return;
+        }
+        mAccessibilityUnit = unit;
+        mAccessibilityHelper.invalidateRoot();
+    }
+
+    @AccessibilityUnit
+    public int getAccessibilityUnit() {
+        return mAccessibilityUnit;
+    }
+
+    /**
+     * @return the layout of the tokens shown, null if there is none
+     */
+    PinyinLayout getAccessibilityLayout() {
+        return mDrawType == TYPE_PINYIN_AND_TEXT && mLineCount > 0 ? mLayout : null;
+    }
+
+    int getVisibleTokenCount() {
+        return mVisibleTokenCount;
+    }
+
+    String getTokenText(int index) {
+        return mPackedTokens != null ? mPackedTokens.getText(index) : mPinyinCompats.get(index).text;
+    }
+
+    @Override
+    public boolean dispatchHoverEvent(MotionEvent event) {
+        return mAccessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        return mAccessibilityHelper.dispatchKeyEvent(event) || super.dispatchKeyEvent(event);
+    }
+
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        mAccessibilityHelper.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+    }
+
     /**
      * Set horizontal space between two tokens.<br/>
      * Def in xml <b>app:horizontalSpacing=""</b>
@@ -372,14 +831,16 @@ public class PinyinTextView extends View {
      * @param px line spacing in pixels.
      */
     public void setHorizontalSpacing(int px) {
+        mStyle = null;
         mHorizontalSpacing = px;
         mPinyinTextSpacing = mHorizontalSpacing / 2; // half of line spacing
+        onLayoutChanged();
         requestLayout();
         invalidate();
     }
 
     public void setPinyinText(List<Pair<String, String>> pinyinList, @PinyinMode int mode) {
-        mPinyinTokens.clear();
+        List<Token> tokens = new ArrayList<>(pinyinList.size());
         for (Pair<String, String> pair : pinyinList) {
             Token token = new Token();
             token.setText(pair.first);
@@ -393,9 +854,9 @@ public class PinyinTextView extends View {
                 token.setPinyin(pair.second);
             }
             token.setPinyinColor(mPinyinColor);
-            mPinyinTokens.add(token);
+            tokens.add(token);
         }
-        setPinyinTextByTokens(mPinyinTokens, mode);
+        setOwnTokens(tokens, mode);
     }
 
     /**
@@ -408,127 +869,894 @@ public class PinyinTextView extends View {
     }
 
     /**
-     * Init the PinyinTextView with Chinese-Pinyin pair list.
+     * Set the tokens packed in two char sequences in {@link #TYPE_PINYIN_AND_TEXT} mode, without
+     * creating an object per token. It is meant for loading long texts from a packed format, the
+     * sequences and arrays are kept by reference and must not be changed afterwards.
+     * <p>
+     * Token i is the text {@code texts[textOffsets[i], textOffsets[i + 1])} with the pinyin
+     * {@code pinyins[pinyinOffsets[i], pinyinOffsets[i + 1])}. Per-token state like
+     * {@link #setTokenTextColor(int, int)} is not available for packed tokens, switching to another
+     * mode creates the tokens.
      *
-     * @param pinyinList Chinese-Pinyin pair list, like <code>Pair.create("你", "nǐ")</code>, if the
-     *                   string is special character, set the pinyin is empty string, like
-     *                   <code>Pair.create("!", " ")</code>
-     * @param mode
+     * @param texts         texts of all tokens
+     * @param textOffsets   start of the text of each token, plus the end of the last one, so its
+     *                      size is token count + 1
+     * @param pinyins       pinyins of all tokens
+     * @param pinyinOffsets start of the pinyin of each token, plus the end of the last one
+     * @param textColors    text color of each token, 0 means the color of {@link #setTextColor(int)},
+     *                      null for all default
+     * @param pinyinColors  pinyin color of each token, 0 means the color of {@link #setPinyinColor(int)},
+     *                      null for all default
+     * @throws IllegalArgumentException if the offsets are out of range or not sorted, or the sizes don't match
      */
-    public void setPinyinTextByTokens(List<Token> pinyinList, @PinyinMode int mode) {
-        mDrawType = mode; // set draw type
-        clearAll(); // clear what is shown
-        mPinyinTokens = pinyinList;
-        StringBuilder plainTextBuilder = new StringBuilder();
-        StringBuilder textBuilder = new StringBuilder();
-        StringBuilder pinyinBuilder = new StringBuilder();
-        for (Token token : pinyinList) {
-            String src = token.getText();
-            String trg = token.getPinyin();
-            if (src == null) {
-                src = "";
-            }
-            if (TextUtils.isEmpty(trg)) {
-                trg = "";
-            }
-            pinyinBuilder.append(convertTokenToHtml(trg, convertColorHexString(token.pinyinColor)));
-            textBuilder.append(convertTokenToHtml(src, convertColorHexString(token.textColor)));
-            plainTextBuilder.append(src);
-
-            PinyinCompat compat = new PinyinCompat();
-            compat.text = src;
-            compat.textColor = token.getTextColor() == 0 ? mTextColor : token.getTextColor();
-            compat.pinyin = trg;
-            compat.pinyinColor = token.getPinyinColor() == 0 ? mPinyinColor : token.getPinyinColor();
-            compat.textRect = new Rect();
-            compat.pinyinRect = new Rect();
-            compat.pinyinTextRect = new Rect();
-            mPinyinCompats.add(compat);
-        }
+    public void setPinyinText(CharSequence texts, int[] textOffsets, CharSequence pinyins, int[] pinyinOffsets,
+                              int[] textColors, int[] pinyinColors) {
+        setPackedTokens(PackedTokens.of(texts, textOffsets, pinyins, pinyinOffsets, textColors, pinyinColors));
+    }
 
-        // string buffer
-        mTextString = textBuilder.toString();
-        mPlainTextString = plainTextBuilder.toString();
-        mPinyinString = pinyinBuilder.toString();
+    /**
+     * The same as {@link #setPinyinText(CharSequence, int[], CharSequence, int[], int[], int[])},
+     * the arrays are drawn directly.
+     */
+    public void setPinyinText(char[] texts, int[] textOffsets, char[] pinyins, int[] pinyinOffsets,
+                              int[] textColors, int[] pinyinColors) {
+        setPackedTokens(PackedTokens.of(texts, textOffsets, pinyins, pinyinOffsets, textColors, pinyinColors));
+    }
+
+    private void setPackedTokens(PackedTokens packedTokens) {
+        setModel(null, TYPE_PINYIN_AND_TEXT);
+        mDrawType = TYPE_PINYIN_AND_TEXT;
+        clearAll();
+        mPinyinTokens = new ArrayList<>();
+        setSharedStringBytes(0);
+        mPackedTokens = packedTokens;
+        mTextStringStale = false;
 
-        // calculate text & pinyin height
         calTextHeight();
+        onLayoutChanged();
         requestLayout();
         invalidate();
     }
 
     /**
-     * Display only plain text to user, like TextView
-     *
-     * @param text plain text to display.
+     * Create the tokens of the packed tokens, for the modes and the per-token state which need them.
      */
-    public void setText(String text) {
-        mDrawType = TYPE_PLAIN_TEXT; // set draw type
-        clearAll();
-        this.mPlainTextString = text;
-        this.mTextString = text;
-        this.mPinyinString = text;
-        requestLayout();
-        invalidate();
+    private List<Token> unpackTokens() {
+        PackedTokens packed = mPackedTokens;
+        List<Token> tokens = new ArrayList<>(packed.count);
+        for (int i = 0; i < packed.count; i++) {
+            String text = packed.getText(i);
+            String pinyin = packed.getPinyin(i);
+            // the same as setPinyinText(List, int), punctuation is shown as its pinyin
+            if (pinyin.isEmpty() && isPunctuation(text)) {
+                pinyin = text;
+            }
+            tokens.add(new Token(text, packed.getTextColor(i), pinyin, packed.getPinyinColor(i)));
+        }
+        return tokens;
     }
 
-    public void setMode(@PinyinMode int mode) {
-        mDrawType = mode;
-        calTextHeight();
-        requestLayout();
-        invalidate();
+    /**
+     * Annotate the text to tokens on a background executor, and show them when they are ready,
+     * like {@link #setPinyinTextByTokens(List, int)}. It is meant for views bound in a list: the
+     * view is empty until the tokens are delivered on the main thread, and the request is
+     * cancelled when the view is set again, so a recycled view never shows a stale text. A
+     * detached view stops waiting and requests the text again when it is attached again, like a
+     * view re-attached from the cache of a RecyclerView without being bound. Requests of the same
+     * text, annotator, mode and style are annotated once.
+     * <p>
+     * The token widths are measured on the executor as well, with the current style. If the style
+     * changes before the tokens are delivered, they are measured again on the main thread.
+     *
+     * @param text      raw text to annotate
+     * @param annotator annotator of the text, called on the executor, it should implement equals
+     *                  if different instances annotate the same way. If it throws, the exception
+     *                  is logged and the view stays empty
+     * @param mode      mode to show the tokens
+     */
+    public void setPinyinTextAsync(String text, Annotator annotator, @PinyinMode int mode) {
+        setPinyinTextAsync(text, annotator, mode, null);
     }
 
     /**
-     * Set whether draw debug rect.
+     * The same as {@link #setPinyinTextAsync(String, Annotator, int)}, annotate on the executor.
      *
-     * @param debugDraw debug mode.
+     * @param executor executor to annotate on, null for the default one
      */
-    public void setDebugDraw(boolean debugDraw) {
-        this.debugDraw = debugDraw;
+    public void setPinyinTextAsync(String text, Annotator annotator, @PinyinMode int mode, Executor executor) {
+        if (text == null || annotator == null) {
+            throw new IllegalArgumentException("Text and annotator must not be null");
+        }
+        // cancels the previous request and clears the stale text
+        setOwnTokens(new ArrayList<Token>(), mode);
+        mBindRequest = PinyinBinder.bind(this, text, annotator, mode, getMeasureKey(), executor);
     }
 
-    private void clearAll() {
-        mPinyinCompats.clear(); // clear
-
-        mPlainTextString = null;
-        mTextString = null;
-        mPinyinString = null;
+    /**
+     * Cancel the pending {@link #setPinyinTextAsync(String, Annotator, int)}, the view stays empty.
+     */
+    public void cancelPinyinTextAsync() {
+        if (mBindRequest != null) {
+            mBindRequest.cancel();
+            mBindRequest = null;
+        }
+        mDetachedBindRequest = null;
+    }
 
-        mTextHeight = 0;
-        mPinyinHeight = 0;
+    /**
+     * @return true if the tokens of {@link #setPinyinTextAsync(String, Annotator, int)} are not
+     * shown yet, also while the view is detached
+     */
+    public boolean isPinyinTextPending() {
+        return mBindRequest != null || mDetachedBindRequest != null;
     }
 
     /**
-     * calculate text & pinyin height
-     * <p>
-     * Why we calculate the text height by hard code text, not the {@link PinyinTextView#mTextString}
-     * and {@link PinyinTextView#mPinyinString} ?
-     * <p>
-     * Sometimes, we have to align multiple PinyinTextView by horizontal, if we measure different text,
-     * we get different height, so we have to measure the same text to keep the same height
+     * Set the executor of {@link #setPinyinTextAsync(String, Annotator, int)} without an executor,
+     * a small pool of background threads by default.
      */
-    private void calTextHeight() {
-        // calculate text height
-        String chinese = "你好";
-        mPaint.setTextSize(mTextSize);
-        mPaint.getTextBounds(chinese, 0, chinese.length(), mBounds);
-        mTextHeight = mBounds.height();
+    public static void setDefaultAnnotateExecutor(Executor executor) {
+        PinyinBinder.setDefaultExecutor(executor);
+    }
 
-        // calculate pinyin height
-        String pinyin = "āáǎàaHhJjPpYyGg";
-        if (mDrawType == TYPE_PINYIN) {
-            mPaint.setTextSize(mTextSize);
-        } else {
-            mPaint.setTextSize(mPinyinTextSize);
+    /**
+     * Tokens of {@link #setPinyinTextAsync(String, Annotator, int)} are ready, on the main thread.
+     */
+    void onBindResult(PinyinBinder.Request request, List<Token> tokens, int[] textWidths, int[] pinyinWidths) {
+        if (mBindRequest != request) {
+            return;
+        }
+        mBindRequest = null;
+        setOwnTokens(tokens, request.getMode());
+        if (textWidths != null && mDrawType == TYPE_PINYIN_AND_TEXT && request.getMeasureKey().equals(getMeasureKey())) {
+            setTokenWidths(textWidths, pinyinWidths);
         }
-        mPaint.getTextBounds(pinyin, 0, pinyin.length() - 1, mBounds);
-        mPinyinHeight = mBounds.height();
     }
 
-    @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        if (mPinyinCompats.isEmpty()) {
+    /**
+     * Annotating the text of {@link #setPinyinTextAsync(String, Annotator, int)} failed, on the
+     * main thread. The view stays empty and is no longer pending.
+     */
+    void onBindFailed(PinyinBinder.Request request) {
+        if (mBindRequest == request) {
+            mBindRequest = null;
+        }
+    }
+
+    /**
+     * Show the tokens of a model changed by background producers. The view takes the latest
+     * snapshot of the model at its next frame, versions published between two frames are never
+     * shown. The view only listens to the model while it is attached, and catches up when it is
+     * attached again. Setting other tokens or text unbinds the model, changing the mode or the
+     * style doesn't.
+     *
+     * @param model model to show, null to unbind the current one
+     * @param mode  mode to show the tokens
+     */
+    public void setModel(PinyinTextModel model, @PinyinMode int mode) {
+        if (mModel == model) {
+            if (model != null && mDrawType != mode) {
+                setMode(mode);
+            }
+            return;
+        }
+        if (mModel != null) {
+            mModel.removeListener(mModelListener);
+            removeCallbacks(mModelFrame);
+            mModelFramePosted.set(false);
+        }
+        mModel = model;
+        mModelVersion = -1;
+        if (model == null) {
+            return;
+        }
+        if (getWindowToken() != null) {
+            model.addListener(mModelListener);
+        }
+        mDrawType = mode;
+        applyModelSnapshot();
+    }
+
+    public PinyinTextModel getModel() {
+        return mModel;
+    }
+
+    /**
+     * Show the latest snapshot of the model if it is not shown yet, on the main thread. Tokens
+     * appended since the shown version are added, the shown tokens are kept with their widths.
+     */
+    private void applyModelSnapshot() {
+        if (mModel == null) {
+            return;
+        }
+        PinyinTextModel.Snapshot snapshot = mModel.getSnapshot();
+        if (snapshot.getVersion() == mModelVersion) {
+            return;
+        }
+        boolean appended = mModelVersion >= 0 && snapshot.isAppendedTo(mModelVersion)
+                && mDrawType == TYPE_PINYIN_AND_TEXT && mPackedTokens == null
+                && mPinyinCompats.size() <= snapshot.size();
+        mModelVersion = snapshot.getVersion();
+        if (appended) {
+            appendTokens(snapshot.toTokens(mPinyinCompats.size()));
+        } else {
+            setTokens(snapshot.toTokens(), mDrawType);
+        }
+    }
+
+    /**
+     * Add the tokens after the shown ones in {@link #TYPE_PINYIN_AND_TEXT} mode. Only the new
+     * tokens are measured, the strings of the other modes are built when the mode changes.
+     */
+    private void appendTokens(List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        setSharedStringBytes(mSharedStringBytes + internStrings(tokens, 0));
+        for (Token token : tokens) {
+            mPinyinTokens.add(token);
+            mPinyinCompats.add(newCompat(token));
+        }
+        mPlainTextString = null;
+        mTextString = null;
+        mPinyinString = null;
+        mTextStringStale = true;
+        mSearchIndex = null;
+        mSearchResult = null;
+        mSearchMatches.clear();
+
+        // the widths of the shown tokens stay valid, only the lines are broken again
+        boolean widthsValid = mTokenWidthsVersion == mLayoutVersion;
+        onLayoutChanged();
+        if (widthsValid) {
+            mTokenWidthsVersion = mLayoutVersion;
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Convert the tone-numbered pinyin of the tokens to pinyin with tone marks in place, like
+     * "zhong1" to "zhōng", see {@link PinyinToneConverter}. Call it before the tokens are set,
+     * tokens without tone number keep their pinyin instance.
+     *
+     * @param tokens tokens to convert
+     */
+    public static void convertToneNumbers(List<Token> tokens) {
+        StringBuilder builder = new StringBuilder();
+        for (Token token : tokens) {
+            String pinyin = token.getPinyin();
+            if (pinyin == null || !PinyinToneConverter.hasToneNumber(pinyin, 0, pinyin.length())) {
+                continue;
+            }
+            builder.setLength(0);
+            PinyinToneConverter.convert(pinyin, 0, pinyin.length(), builder);
+            token.setPinyin(builder.toString());
+        }
+    }
+
+    /**
+     * Init the PinyinTextView with Chinese-Pinyin pair list.
+     *
+     * @param pinyinList Chinese-Pinyin pair list, like <code>Pair.create("你", "nǐ")</code>, if the
+     *                   string is special character, set the pinyin is empty string, like
+     *                   <code>Pair.create("!", " ")</code>. The view keeps its own copies of the
+     *                   tokens, with the strings shared through {@link TokenStringPool}, so the
+     *                   list can be dropped to free the duplicate strings
+     * @param mode
+     */
+    public void setPinyinTextByTokens(List<Token> pinyinList, @PinyinMode int mode) {
+        setOwnTokens(copyTokens(pinyinList), mode);
+    }
+
+    /**
+     * Show tokens which belong to the view, nobody else changes them.
+     */
+    private void setOwnTokens(List<Token> tokens, @PinyinMode int mode) {
+        setModel(null, mode);
+        setTokens(tokens, mode);
+    }
+
+    /**
+     * @return copies of the tokens, owned by the caller
+     */
+    static List<Token> copyTokens(List<Token> tokens) {
+        List<Token> copy = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            Token tokenCopy = new Token(token.text, token.textColor, token.pinyin, token.pinyinColor);
+            tokenCopy.backgroundColor = token.backgroundColor;
+            tokenCopy.underline = token.underline;
+            tokenCopy.setPrecomputedWidths(token.textWidth, token.pinyinWidth);
+            copy.add(tokenCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Show the tokens, without unbinding the model, for the changes of the style or the mode.
+     * The tokens must belong to the view, new ones get the pooled strings.
+     */
+    private void setTokens(List<Token> pinyinList, @PinyinMode int mode) {
+        mDrawType = mode; // set draw type
+        clearAll(); // clear what is shown
+        if (pinyinList != mPinyinTokens) {
+            setSharedStringBytes(internStrings(pinyinList, 0));
+        }
+        mPinyinTokens = pinyinList;
+        StringBuilder plainTextBuilder = new StringBuilder();
+        StringBuilder textBuilder = new StringBuilder();
+        StringBuilder pinyinBuilder = new StringBuilder();
+        for (Token token : pinyinList) {
+            PinyinCompat compat = newCompat(token);
+            mPinyinCompats.add(compat);
+            pinyinBuilder.append(convertTokenToHtml(compat.pinyin, convertColorHexString(token.pinyinColor)));
+            textBuilder.append(convertTokenToHtml(compat.text, convertColorHexString(token.textColor)));
+            plainTextBuilder.append(compat.text);
+        }
+
+        // string buffer
+        mTextString = textBuilder.toString();
+        mPlainTextString = plainTextBuilder.toString();
+        mPinyinString = pinyinBuilder.toString();
+        mTextStringStale = false;
+
+        // calculate text & pinyin height
+        calTextHeight();
+        onLayoutChanged();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Share the strings of the tokens from the start across all views, the duplicates are dropped.
+     *
+     * @return approximate size of the dropped duplicates in bytes
+     */
+    private static long internStrings(List<Token> tokens, int start) {
+        long shared = 0;
+        for (int i = start; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            String text = TokenStringPool.intern(token.text);
+            if (text != token.text) {
+                shared += TokenStringPool.sizeOf(text);
+                token.text = text;
+            }
+            String pinyin = TokenStringPool.intern(token.pinyin);
+            if (pinyin != token.pinyin) {
+                shared += TokenStringPool.sizeOf(pinyin);
+                token.pinyin = pinyin;
+            }
+        }
+        return shared;
+    }
+
+    private void setSharedStringBytes(long bytes) {
+        mSharedStringBytes = bytes;
+        TokenStringPool.setSharedBytes(this, bytes);
+    }
+
+    private PinyinCompat newCompat(Token token) {
+        String src = token.getText();
+        String trg = token.getPinyin();
+        PinyinCompat compat = new PinyinCompat();
+        compat.text = src == null ? "" : src;
+        compat.textColor = token.getTextColor() == 0 ? mTextColor : token.getTextColor();
+        compat.pinyin = TextUtils.isEmpty(trg) ? "" : trg;
+        compat.pinyinColor = token.getPinyinColor() == 0 ? mPinyinColor : token.getPinyinColor();
+        compat.backgroundColor = token.getBackgroundColor();
+        compat.underline = token.getUnderline();
+        compat.textWidth = token.textWidth;
+        compat.pinyinWidth = token.pinyinWidth;
+        compat.textRect = new Rect();
+        compat.pinyinRect = new Rect();
+        compat.pinyinTextRect = new Rect();
+        return compat;
+    }
+
+    /**
+     * Display only plain text to user, like TextView
+     *
+     * @param text plain text to display.
+     */
+    public void setText(String text) {
+        setModel(null, TYPE_PLAIN_TEXT);
+        mDrawType = TYPE_PLAIN_TEXT; // set draw type
+        clearAll();
+        this.mPlainTextString = text;
+        this.mTextString = text;
+        this.mPinyinString = text;
+        requestLayout();
+        invalidate();
+    }
+
+    public void setMode(@PinyinMode int mode) {
+        if (mPackedTokens != null && mode != TYPE_PINYIN_AND_TEXT) {
+            setTokens(unpackTokens(), mode);
+            return;
+        }
+        if (mTextStringStale && mode != TYPE_PINYIN_AND_TEXT) {
+            setTokens(mPinyinTokens, mode);
+            return;
+        }
+        mDrawType = mode;
+        calTextHeight();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Set the text color of a single token. In {@link #TYPE_PINYIN_AND_TEXT} mode only the
+     * token is redrawn.
+     *
+     * @param index index of the token
+     * @param color text color, 0 means the color of {@link #setTextColor(int)}
+     */
+    public void setTokenTextColor(int index, @ColorInt int color) {
+        getToken(index).setTextColor(color);
+        mPinyinCompats.get(index).textColor = color == 0 ? mTextColor : color;
+        onTokenStateChanged(index);
+    }
+
+    /**
+     * Set the pinyin color of a single token. In {@link #TYPE_PINYIN_AND_TEXT} mode only the
+     * token is redrawn.
+     *
+     * @param index index of the token
+     * @param color pinyin color, 0 means the color of {@link #setPinyinColor(int)}
+     */
+    public void setTokenPinyinColor(int index, @ColorInt int color) {
+        getToken(index).setPinyinColor(color);
+        mPinyinCompats.get(index).pinyinColor = color == 0 ? mPinyinColor : color;
+        onTokenStateChanged(index);
+    }
+
+    /**
+     * Set the background color of a single token, only drawn in {@link #TYPE_PINYIN_AND_TEXT}
+     * mode, and only the token is redrawn.
+     *
+     * @param index index of the token
+     * @param color background color, 0 means no background
+     */
+    public void setTokenBackgroundColor(int index, @ColorInt int color) {
+        getToken(index).setBackgroundColor(color);
+        mPinyinCompats.get(index).backgroundColor = color;
+        invalidateToken(index);
+    }
+
+    /**
+     * Show or hide the underline of a single token, only drawn in {@link #TYPE_PINYIN_AND_TEXT}
+     * mode, and only the token is redrawn.
+     *
+     * @param index index of the token
+     * @param show  true to show, false to hide, null to follow {@link #setUnderline(boolean)}
+     */
+    public void setTokenUnderline(int index, Boolean show) {
+        getToken(index).setUnderline(show);
+        mPinyinCompats.get(index).underline = show;
+        invalidateToken(index);
+    }
+
+    private Token getToken(int index) {
+        if (mPackedTokens != null) {
+            throw new IllegalStateException("Per-token state is not available for packed tokens");
+        }
+        if (index < 0 || index >= mPinyinCompats.size()) {
+            throw new IndexOutOfBoundsException("Token index " + index + " out of range " + mPinyinCompats.size());
+        }
+        return mPinyinTokens.get(index);
+    }
+
+    private void onTokenStateChanged(int index) {
+        if (mDrawType == TYPE_PINYIN_AND_TEXT) {
+            mTextStringStale = true;
+            invalidateToken(index);
+        } else {
+            setTokens(mPinyinTokens, mDrawType);
+        }
+    }
+
+    /**
+     * Set the color of the highlighted token in read-along playback.
+     *
+     * @param color highlight color of both pinyin and text
+     */
+    public void setHighlightColor(@ColorInt int color) {
+        mHighlightColor = color;
+        invalidateToken(mHighlightIndex);
+    }
+
+    /**
+     * Set the start time of every token for read-along playback, only drawn in
+     * {@link #TYPE_PINYIN_AND_TEXT} mode. Token i is highlighted from {@code timeline[i]} until
+     * {@code timeline[i + 1]}, the last token stays highlighted until the playback stops.
+     *
+     * @param timeline sorted start times, one per token, in the unit of the {@link TimeSource},
+     *                 or null to remove the highlight
+     * @throws IllegalArgumentException if the size of timeline is not the token count, so set
+     *                                  the tokens first
+     */
+    public void setHighlightTimeline(long[] timeline) {
+        if (timeline != null && timeline.length != getTokenCount()) {
+            throw new IllegalArgumentException("Timeline size must equal the token count");
+        }
+        mHighlightTimeline = timeline;
+        setHighlightIndex(-1);
+    }
+
+    /**
+     * Start read-along playback, the current time is polled from the time source on every
+     * animation frame and the highlight moves to the token of that time. Only the previous and
+     * the next highlighted tokens are invalidated, and the frames do not allocate.
+     * <p>
+     * Playback stops by itself when the source is no longer playing or the last token is
+     * highlighted, start it again after resuming or seeking back.
+     *
+     * @param source time source, like the position of the audio player
+     * @see #setHighlightTimeline(long[])
+     */
+    public void startHighlightPlayback(TimeSource source) {
+        removeCallbacks(mPlaybackFrame);
+        mTimeSource = source;
+        postNextPlaybackFrame();
+    }
+
+    /**
+     * Stop read-along playback, the current highlight is kept.
+     */
+    public void stopHighlightPlayback() {
+        mTimeSource = null;
+        removeCallbacks(mPlaybackFrame);
+    }
+
+    /**
+     * Move the highlight to the token of the given time, use it to drive the highlight without
+     * {@link #startHighlightPlayback(TimeSource)}.
+     *
+     * @param time current time in the unit of the timeline
+     */
+    public void setHighlightTime(long time) {
+        long[] timeline = mHighlightTimeline;
+        if (timeline == null || timeline.length != getTokenCount()) {
+            return;
+        }
+        // playback usually moves forward, check the current and the next token first
+        int index = mHighlightIndex;
+        if (isHighlightTimeOf(timeline, index, time)) {
+            return;
+        }
+        if (isHighlightTimeOf(timeline, index + 1, time)) {
+            setHighlightIndex(index + 1);
+            return;
+        }
+
+        index = Arrays.binarySearch(timeline, time);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // same start time, highlight the last one
+            while (index + 1 < timeline.length && timeline[index + 1] == time) {
+                index++;
+            }
+        }
+        setHighlightIndex(index);
+    }
+
+    /**
+     * Get the index of the highlighted token.
+     *
+     * @return highlighted token index, or -1 if no token is highlighted
+     */
+    public int getHighlightIndex() {
+        return mHighlightIndex;
+    }
+
+    private static boolean isHighlightTimeOf(long[] timeline, int index, long time) {
+        return index >= 0 && index < timeline.length && time >= timeline[index]
+                && (index + 1 == timeline.length || time < timeline[index + 1]);
+    }
+
+    private void setHighlightIndex(int index) {
+        if (index == mHighlightIndex) {
+            return;
+        }
+        invalidateToken(mHighlightIndex);
+        mHighlightIndex = index;
+        invalidateToken(index);
+    }
+
+    private void postNextPlaybackFrame() {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(mPlaybackFrame);
+        } else {
+            postDelayed(mPlaybackFrame, PLAYBACK_FRAME_DELAY);
+        }
+    }
+
+    /**
+     * Get the find-in-text index of the tokens, it is built on the first call and kept until the
+     * tokens are set again.
+     *
+     * @return index of the current tokens
+     */
+    public PinyinSearchIndex getSearchIndex() {
+        if (mSearchIndex == null) {
+            int count = getTokenCount();
+            PinyinSearchIndex.Builder builder = new PinyinSearchIndex.Builder(count);
+            PackedTokens packed = mPackedTokens;
+            for (int i = 0; i < count; i++) {
+                if (packed != null) {
+                    builder.add(packed.texts, packed.textOffsets[i], packed.textOffsets[i + 1],
+                            packed.pinyins, packed.pinyinOffsets[i], packed.pinyinOffsets[i + 1]);
+                } else {
+                    PinyinCompat compat = mPinyinCompats.get(i);
+                    builder.add(compat.text, 0, compat.text.length(), compat.pinyin, 0, compat.pinyin.length());
+                }
+            }
+            mSearchIndex = builder.build();
+        }
+        return mSearchIndex;
+    }
+
+    /**
+     * Find the query in the tokens by hanzi or pinyin, see {@link PinyinSearchIndex}, and
+     * highlight all the matches in {@link #TYPE_PINYIN_AND_TEXT} mode. Only the tokens whose
+     * highlight changes are invalidated.
+     *
+     * @param query hanzi, or pinyin with tone marks, tone numbers or without tone, null or empty
+     *              to clear the matches
+     * @return matches, use {@link #getTokenBounds(int, Rect)} to scroll to one
+     */
+    public PinyinSearchIndex.Result search(String query) {
+        PinyinSearchIndex.Result result = getSearchIndex().search(query);
+        BitSet matches = new BitSet(getTokenCount());
+        for (int i = 0; i < result.getCount(); i++) {
+            matches.set(result.getTokenStart(i), result.getTokenEnd(i));
+        }
+        setSearchMatches(matches);
+        mSearchResult = result;
+        return result;
+    }
+
+    /**
+     * Remove the highlight of the matches of {@link #search(String)}.
+     */
+    public void clearSearch() {
+        setSearchMatches(new BitSet());
+        mSearchResult = null;
+    }
+
+    /**
+     * @return matches of the last {@link #search(String)}, null if it is cleared
+     */
+    public PinyinSearchIndex.Result getSearchResult() {
+        return mSearchResult;
+    }
+
+    /**
+     * Set the background color of the tokens matched by {@link #search(String)}.
+     *
+     * @param color background color, a translucent yellow by default
+     */
+    public void setSearchHighlightColor(@ColorInt int color) {
+        mSearchPaint.setColor(color);
+        if (!mSearchMatches.isEmpty()) {
+            invalidate();
+        }
+    }
+
+    private void setSearchMatches(BitSet matches) {
+        BitSet changed = (BitSet) mSearchMatches.clone();
+        changed.xor(matches);
+        mSearchMatches.clear();
+        mSearchMatches.or(matches);
+        if (changed.cardinality() > mVisibleTokenCount / 2) {
+            // most of the view changes, cheaper than a rect per token
+            invalidate();
+            return;
+        }
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            invalidateToken(i);
+        }
+    }
+
+    /**
+     * Invalidate only the area of the token, including its underline.
+     */
+    @SuppressWarnings("deprecation")
+    private void invalidateToken(int index) {
+        Rect rect = mBounds;
+        if (!getTokenBounds(index, rect)) {
+            return;
+        }
+        // the underline is drawn to the next token, the descent of text is below the rect
+        int right = rect.right + mHorizontalSpacing + 1;
+        int bottom = rect.bottom + Math.max(mTextHeight / 4, mUnderlineVerticalSpacing) + 1;
+        // deprecated as hardware accelerated views ignore the rect since API 21, it still limits
+        // the redraw of software layers and of older devices, which need it the most
+        invalidate(rect.left, rect.top, right, bottom);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mPlaybackFrame);
+        // a detached view may be dropped, it doesn't wait for its text until it is attached again
+        if (mBindRequest != null) {
+            mBindRequest.cancel();
+            mDetachedBindRequest = mBindRequest;
+            mBindRequest = null;
+        }
+        if (mModel != null) {
+            // don't leak the view through a model which outlives it
+            mModel.removeListener(mModelListener);
+            removeCallbacks(mModelFrame);
+            mModelFramePosted.set(false);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mDetachedBindRequest != null) {
+            PinyinBinder.Request request = mDetachedBindRequest;
+            mDetachedBindRequest = null;
+            mBindRequest = PinyinBinder.bind(this, request, getMeasureKey());
+        }
+        if (mModel != null) {
+            mModel.addListener(mModelListener);
+            applyModelSnapshot();
+        }
+        if (mTimeSource != null) {
+            removeCallbacks(mPlaybackFrame);
+            postNextPlaybackFrame();
+        }
+    }
+
+    /**
+     * Set whether draw debug rect.
+     *
+     * @param debugDraw debug mode.
+     */
+    public void setDebugDraw(boolean debugDraw) {
+        this.debugDraw = debugDraw;
+    }
+
+    private void clearAll() {
+        cancelPinyinTextAsync();
+        mPinyinCompats.clear(); // clear
+        mPackedTokens = null;
+
+        mPlainTextString = null;
+        mTextString = null;
+        mPinyinString = null;
+
+        mTextHeight = 0;
+        mPinyinHeight = 0;
+
+        mLineCount = 0;
+        mLayout = null;
+        mVisibleTokenCount = 0;
+        mEllipsisIndex = -1;
+        mHighlightIndex = -1;
+
+        mSearchIndex = null;
+        mSearchResult = null;
+        mSearchMatches.clear();
+    }
+
+    /**
+     * calculate text & pinyin height
+     * <p>
+     * Why we calculate the text height by hard code text, not the {@link PinyinTextView#mTextString}
+     * and {@link PinyinTextView#mPinyinString} ?
+     * <p>
+     * Sometimes, we have to align multiple PinyinTextView by horizontal, if we measure different text,
+     * we get different height, so we have to measure the same text to keep the same height.
+     * The heights are shared by all views through {@link PinyinMetricsCache}.
+     */
+    private void calTextHeight() {
+        PinyinMetricsCache.Metrics metrics =
+                mAlignmentGroup != null ? mAlignmentGroup.onMemberStyleChanged(this) : getOwnMetrics();
+        mTextHeight = metrics.textHeight;
+        mPinyinHeight = metrics.pinyinHeight;
+    }
+
+    /**
+     * @return the values of the style of this view the token widths depend on
+     */
+    private PinyinStyle.MeasureKey getMeasureKey() {
+        if (mStyle != null) {
+            return mStyle.getMeasureKey();
+        }
+        return new PinyinStyle.MeasureKey(mPaint.getTypeface(), mTextSize, mPinyinTextSize, mMeasureMode);
+    }
+
+    /**
+     * @return text & pinyin height of the style of this view, without the alignment group
+     */
+    PinyinMetricsCache.Metrics getOwnMetrics() {
+        if (mStyle != null && mDrawType != TYPE_PINYIN) {
+            // computed when the style is built
+            return mStyle.getMetrics();
+        }
+        return PinyinMetricsCache.get(mPaint.getTypeface(), mTextSize, mPinyinTextSize, mDrawType);
+    }
+
+    /**
+     * Join an alignment group, the lines of all the views in the group have the same height, and
+     * their tokens can be aligned in columns. A view is in at most one group.
+     *
+     * @param group group to join, null to leave the current group
+     */
+    public void setAlignmentGroup(PinyinAlignmentGroup group) {
+        if (mAlignmentGroup == group) {
+            return;
+        }
+        if (mAlignmentGroup != null) {
+            mAlignmentGroup.remove(this);
+        }
+        mAlignmentGroup = group;
+        mReportedWidthsVersion = -1;
+        if (group != null) {
+            group.add(this);
+        }
+        calTextHeight();
+        mLineBreakCache.clear();
+        requestLayout();
+        invalidate();
+    }
+
+    public PinyinAlignmentGroup getAlignmentGroup() {
+        return mAlignmentGroup;
+    }
+
+    /**
+     * The shared heights of the group changed by another member.
+     */
+    void onGroupMetricsChanged(PinyinMetricsCache.Metrics metrics) {
+        mTextHeight = metrics.textHeight;
+        mPinyinHeight = metrics.pinyinHeight;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * The column widths of the group changed by another member, the token widths are still valid.
+     */
+    void onGroupColumnsChanged() {
+        mColumnsVersion++;
+        mLineBreakCache.clear();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Report the token widths of this view to the alignment group once per layout version, so
+     * every member measures its own tokens in its own measure pass.
+     */
+    private void reportTokenWidths() {
+        int count = mDrawType == TYPE_PINYIN_AND_TEXT ? getTokenCount() : 0;
+        if (mAlignmentGroup == null || (mReportedWidthsVersion == mLayoutVersion && mReportedWidthsCount == count)) {
+            return;
+        }
+        ensureTokenWidths(count);
+        mAlignmentGroup.onMemberWidthsMeasured(this, mTokenWidths, count);
+        mReportedWidthsVersion = mLayoutVersion;
+        mReportedWidthsCount = count;
+    }
+
+    /**
+     * @return width of the token, widened to its column in an alignment group
+     */
+    private int getTokenWidth(int index) {
+        int width = mTokenWidths[index];
+        return mColumnWidths != null && index < mColumnWidths.length ? Math.max(width, mColumnWidths[index]) : width;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        reportTokenWidths();
+        if (getTokenCount() == 0) {
             measurePlainText(widthMeasureSpec, heightMeasureSpec);
         } else {
             if (mDrawType == TYPE_PINYIN_AND_TEXT) {
@@ -581,79 +1809,629 @@ public class PinyinTextView extends View {
         int measuredWidth = modeWidth == MeasureSpec.EXACTLY ? sizeWidth : 0;
         int measuredHeight = modeHeight == MeasureSpec.EXACTLY ? sizeHeight : 0;
 
-        int line = 0;
-        int col = 0;
-        int lineLength = 0;
-        int baseLine = 0; // top of pinyin
-        boolean newLine = false;
+        if (modeWidth == MeasureSpec.UNSPECIFIED) {
+            sizeWidth = Integer.MAX_VALUE;
+        }
 
-        for (PinyinCompat compat : mPinyinCompats) {
-            int textWidth = getTextWidth(compat.text, mTextSize);
-            int pinyinWidth = getTextWidth(compat.pinyin, mPinyinTextSize);
+        int count = getTokenCount();
+        mColumnWidths = mAlignmentGroup != null && mDrawType == TYPE_PINYIN_AND_TEXT
+                ? mAlignmentGroup.getColumnWidths() : null;
+        if (!isLayoutValid(sizeWidth)) {
+            layoutTokens(count, sizeWidth);
+        }
 
-            int maxWidth = Math.max(textWidth, pinyinWidth);
+        if (modeWidth != MeasureSpec.EXACTLY) {
+            // fill the width as TextView does if the text is broken into lines
+            measuredWidth = mLineCount > 1 ? sizeWidth : Math.min(mLayout.getWidth(), sizeWidth);
+        }
+        if (modeHeight != MeasureSpec.EXACTLY) {
+            measuredHeight = mLayout.getHeight();
+        }
 
-            if (newLine) {
-                line++;
-                col = 0;
-                newLine = false;
-            }
+        setMeasuredDimension(measuredWidth + paddingLeft + paddingRight, measuredHeight + paddingTop + paddingBottom);
+    }
 
-            if (lineLength + maxWidth + (col == 0 ? 0 : mHorizontalSpacing) > sizeWidth) { // new row
-                lineLength = maxWidth;
+    /**
+     * Whether {@link #mLayout} is still valid for the width, so a measure pass with nothing
+     * changed, like a parent measuring its children twice, allocates nothing.
+     */
+    private boolean isLayoutValid(int sizeWidth) {
+        PinyinLayout layout = mLayout;
+        return layout != null && mLayoutWidth == sizeWidth && mLayoutVersionOfLayout == mLayoutVersion
+                && mLayoutColumnsVersion == mColumnsVersion && mLayoutColumnWidths == mColumnWidths
+                && mLayoutMaxLines == mMaxLines && mLayoutEllipsize == mEllipsize
+                && layout.getHorizontalSpacing() == mHorizontalSpacing && layout.getLineSpacing() == mLineSpacing
+                && layout.getPinyinTextSpacing() == mPinyinTextSpacing
+                && layout.getTextHeight() == mTextHeight && layout.getPinyinHeight() == mPinyinHeight;
+    }
 
-                baseLine += mTextHeight + mPinyinHeight + mPinyinTextSpacing + mLineSpacing;
-                // TODO: add the underline vertical space if show underline
+    /**
+     * Break the tokens into lines of the width and place them into {@link #mLayout}.
+     */
+    private void layoutTokens(int count, int sizeWidth) {
+        int[] lineStarts = mMaxLines == Integer.MAX_VALUE ? null : breakMaxLines(count, sizeWidth);
+        int[] textWidths;
+        int[] pinyinWidths;
+        PinyinLayout layout = null;
+        mEllipsisIndex = -1;
+        if (mSavedLayout != null && mSavedLayoutVersion != mLayoutVersion) {
+            mSavedLayout = null;
+            mSavedLineStarts = null;
+        }
+        if (lineStarts == null && mSavedLayout != null && mSavedLayoutWidth == sizeWidth && mColumnWidths == null) {
+            // loaded layout at the width it was saved with, nothing to measure, break or place
+            layout = mSavedLayout;
+            lineStarts = mSavedLineStarts;
+            mVisibleTokenCount = count;
+            textWidths = mTextWidths;
+            pinyinWidths = mPinyinWidths;
+        } else if (lineStarts == null) {
+            // all the tokens are shown
+            ensureTokenWidths(count);
+            lineStarts = mLineBreakCache.get(mLayoutVersion, sizeWidth);
+            if (lineStarts == null) {
+                lineStarts = ForcedLineBreaks.breakLines(mLineBreaker, getAlignedWidths(count), count,
+                        mHorizontalSpacing, sizeWidth, findLineBreaks(count));
+                mLineBreakCache.put(mLayoutVersion, sizeWidth, lineStarts);
+            }
+            mVisibleTokenCount = count;
+            textWidths = mTextWidths;
+            pinyinWidths = mPinyinWidths;
+        } else if (mEllipsize) {
+            // the ellipsis is the last token of the layout, text without pinyin
+            mEllipsisIndex = mVisibleTokenCount;
+            textWidths = Arrays.copyOf(mTextWidths, mVisibleTokenCount + 1);
+            pinyinWidths = Arrays.copyOf(mPinyinWidths, mVisibleTokenCount + 1);
+            textWidths[mEllipsisIndex] = getTextWidth(ELLIPSIS, mTextSize);
+            pinyinWidths[mEllipsisIndex] = 0;
+        } else {
+            textWidths = mTextWidths;
+            pinyinWidths = mPinyinWidths;
+        }
+        if (layout == null) {
+            int layoutCount = mEllipsisIndex >= 0 ? mEllipsisIndex + 1 : mVisibleTokenCount;
+            int[] columnWidths = mColumnWidths;
+            if (mEllipsisIndex >= 0 && columnWidths != null && columnWidths.length > mEllipsisIndex) {
+                // the ellipsis is not a token, it is not widened to a column
+                columnWidths = Arrays.copyOf(columnWidths, mEllipsisIndex);
+            }
+            layout = new PinyinLayout(textWidths, pinyinWidths, columnWidths, layoutCount, lineStarts,
+                    mHorizontalSpacing, mLineSpacing, mPinyinTextSpacing, mTextHeight, mPinyinHeight);
+        }
+        mLayout = layout;
+        mLayoutWidth = sizeWidth;
+        mLayoutVersionOfLayout = mLayoutVersion;
+        mLayoutColumnsVersion = mColumnsVersion;
+        mLayoutColumnWidths = mColumnWidths;
+        mLayoutMaxLines = mMaxLines;
+        mLayoutEllipsize = mEllipsize;
+        mLineStarts = lineStarts;
+        mLineCount = lineStarts.length;
+        if (mLineTops.length < mLineCount) {
+            mLineTops = new int[mLineCount];
+        }
+        for (int line = 0; line < mLineCount; line++) {
+            mLineTops[line] = mLayout.getLineTop(line);
+            if (mPackedTokens != null) {
+                continue; // packed tokens are drawn from the layout directly
+            }
+            for (int i = mLayout.getLineStart(line), end = Math.min(mLayout.getLineEnd(line), mVisibleTokenCount); i < end; i++) {
+                placeToken(mPinyinCompats.get(i), i, line);
+            }
+        }
+    }
 
-                if (modeWidth != MeasureSpec.EXACTLY) {
-                    measuredWidth = sizeWidth;
-                }
+    /**
+     * Copy the placement of the token from {@link #mLayout} to its rects
+     */
+    private void placeToken(PinyinCompat compat, int index, int line) {
+        compat.pinyinRect.left = mLayout.getPinyinLeft(index);
+        compat.pinyinRect.right = compat.pinyinRect.left + mLayout.getPinyinWidth(index);
+        compat.pinyinRect.top = mLayout.getLineTop(line);
+        compat.pinyinRect.bottom = mLayout.getPinyinBaseline(line);
+
+        compat.textRect.left = mLayout.getTextLeft(index);
+        compat.textRect.right = compat.textRect.left + mLayout.getTextWidth(index);
+        compat.textRect.top = compat.pinyinRect.bottom + mPinyinTextSpacing;
+        compat.textRect.bottom = mLayout.getLineBottom(line);
+
+        compat.pinyinTextRect.left = mLayout.getTokenLeft(index);
+        compat.pinyinTextRect.right = compat.pinyinTextRect.left + mLayout.getTokenWidth(index);
+        compat.pinyinTextRect.top = compat.pinyinRect.top;
+        compat.pinyinTextRect.bottom = compat.textRect.bottom;
+    }
 
-                newLine = true;
-            } else {
-                if (col != 0 || line != 0) { // not the first item of first row
-                    lineLength += mHorizontalSpacing;
+    /**
+     * Break the tokens greedily into {@link #mMaxLines} lines, measuring them on the way, so the
+     * tokens after the last line are never measured. Line break tokens end their line, like
+     * {@link ForcedLineBreaks} does. Tokens at the end of the last line are
+     * removed if there is no space for the ellipsis. The visible tokens are then broken again by
+     * the line breaker if it isn't greedy, and the greedy lines are kept if it needs more lines.
+     *
+     * @return line starts, or null if all the tokens fit in the max lines
+     */
+    private int[] breakMaxLines(int count, int maxWidth) {
+        int[] starts = new int[Math.min(mMaxLines, Math.max(count, 1))];
+        int lineCount = 0;
+        int lineLength = 0;
+        int end = 0;
+        for (; end < count; end++) {
+            ensureTokenWidths(end + 1);
+            int width = getTokenWidth(end);
+            boolean forced = end > 0 && isLineBreakToken(end - 1);
+            if (end == 0 || forced || (!isLineBreakToken(end) && lineLength + mHorizontalSpacing + width > maxWidth)) {
+                // new line
+                if (lineCount == mMaxLines) {
+                    break;
                 }
-                lineLength += maxWidth;
+                starts[lineCount++] = end;
+                lineLength = width;
+            } else {
+                lineLength += mHorizontalSpacing + width;
+            }
+        }
+        if (end == count) {
+            return null;
+        }
+
+        if (mEllipsize) {
+            int ellipsisWidth = getTextWidth(ELLIPSIS, mTextSize);
+            int lineStart = starts[lineCount - 1];
+            while (end > lineStart && lineLength + mHorizontalSpacing + ellipsisWidth > maxWidth) {
+                end--;
+                lineLength -= getTokenWidth(end) + (end > lineStart ? mHorizontalSpacing : 0);
+            }
+        }
+        mVisibleTokenCount = end;
+        if (mLineBreaker == GreedyLineBreaker.INSTANCE) {
+            return starts;
+        }
+        // the ellipsis is the last token of the layout
+        int breakCount = mEllipsize ? end + 1 : end;
+        if (mAlignedWidths.length < breakCount) {
+            mAlignedWidths = new int[breakCount];
+        }
+        for (int i = 0; i < end; i++) {
+            mAlignedWidths[i] = getTokenWidth(i);
+        }
+        if (mEllipsize) {
+            mAlignedWidths[end] = getTextWidth(ELLIPSIS, mTextSize);
+        }
+        int[] lineStarts = ForcedLineBreaks.breakLines(mLineBreaker, mAlignedWidths, breakCount, mHorizontalSpacing,
+                maxWidth, findLineBreaks(end));
+        return lineStarts.length <= mMaxLines ? lineStarts : starts;
+    }
 
-                if (modeWidth != MeasureSpec.EXACTLY && measuredWidth < lineLength) {
-                    measuredWidth = lineLength;
-                    if (measuredWidth > sizeWidth) {
-                        measuredWidth = sizeWidth;
-                    }
+    /**
+     * @return true if the token is a line break, see {@link ForcedLineBreaks}
+     */
+    private boolean isLineBreakToken(int index) {
+        PackedTokens packed = mPackedTokens;
+        if (packed != null) {
+            return ForcedLineBreaks.isLineBreak(packed.texts, packed.textOffsets[index], packed.textOffsets[index + 1]);
+        }
+        return ForcedLineBreaks.isLineBreak(mPinyinCompats.get(index).text);
+    }
+
+    /**
+     * @return index of every line break token before end, ascending
+     */
+    private int[] findLineBreaks(int end) {
+        int[] breaks = null;
+        int breakCount = 0;
+        for (int i = 0; i < end; i++) {
+            if (isLineBreakToken(i)) {
+                if (breaks == null || breakCount == breaks.length) {
+                    breaks = breaks == null ? new int[8] : Arrays.copyOf(breaks, breakCount * 2);
                 }
-                col++;
+                breaks[breakCount++] = i;
             }
+        }
+        return breaks == null ? new int[0] : Arrays.copyOf(breaks, breakCount);
+    }
+
+    /**
+     * @return token widths to break lines, widened to the columns in an alignment group
+     */
+    private int[] getAlignedWidths(int count) {
+        if (mColumnWidths == null) {
+            return mTokenWidths;
+        }
+        if (mAlignedWidths.length < count) {
+            mAlignedWidths = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            mAlignedWidths[i] = getTokenWidth(i);
+        }
+        return mAlignedWidths;
+    }
 
-            // Center the pinyin/text
-            int pinyinBias = 0;
-            int textBias = 0;
-            if (pinyinWidth < textWidth) {
-                pinyinBias = (textWidth - pinyinWidth) / 2;
+    /**
+     * Measure the text & pinyin width of the tokens before end once per layout version
+     */
+    private void ensureTokenWidths(int end) {
+        int count = getTokenCount();
+        if (mTokenWidthsVersion != mLayoutVersion) {
+            mTokenWidthsVersion = mLayoutVersion;
+            mTokenWidthsCount = 0;
+        }
+        if (mTokenWidths.length < count) {
+            // keeps the widths measured before tokens are appended
+            int capacity = Math.max(count, mTokenWidthsCount > 0 ? mTokenWidths.length * 2 : 0);
+            mTextWidths = Arrays.copyOf(mTextWidths, capacity);
+            mPinyinWidths = Arrays.copyOf(mPinyinWidths, capacity);
+            mTokenWidths = Arrays.copyOf(mTokenWidths, capacity);
+        }
+        if (end <= mTokenWidthsCount) {
+            return;
+        }
+        PackedTokens packed = mPackedTokens;
+        for (int i = mTokenWidthsCount; i < end; i++) {
+            if (packed != null) {
+                int textStart = packed.textOffsets[i];
+                int textEnd = packed.textOffsets[i + 1];
+                mTextWidths[i] = getTextWidth(packed.texts, textStart, textEnd, mTextSize);
+                if (packed.pinyinOffsets[i] == packed.pinyinOffsets[i + 1]
+                        && PunctuationUtils.isPunctuation(packed.texts, textStart, textEnd)) {
+                    // punctuation is its own pinyin, like setPinyinText(List, int) does
+                    mPinyinWidths[i] = getTextWidth(packed.texts, textStart, textEnd, mPinyinTextSize);
+                } else {
+                    mPinyinWidths[i] = getTextWidth(packed.pinyins, packed.pinyinOffsets[i],
+                            packed.pinyinOffsets[i + 1], mPinyinTextSize);
+                }
             } else {
-                textBias = (pinyinWidth - textWidth) / 2;
+                // precomputed widths skip the measurement
+                PinyinCompat compat = mPinyinCompats.get(i);
+                mTextWidths[i] = compat.textWidth >= 0
+                        ? scaleWidth(compat.textWidth, mTextSize) : getTextWidth(compat.text, mTextSize);
+                mPinyinWidths[i] = compat.pinyinWidth >= 0
+                        ? scaleWidth(compat.pinyinWidth, mPinyinTextSize) : getTextWidth(compat.pinyin, mPinyinTextSize);
             }
-            compat.pinyinRect.left = lineLength - maxWidth + pinyinBias;
-            compat.pinyinRect.right = compat.pinyinRect.left + pinyinWidth;
-            compat.pinyinRect.top = baseLine;
-            compat.pinyinRect.bottom = compat.pinyinRect.top + mPinyinHeight;
+            mTokenWidths[i] = Math.max(mTextWidths[i], mPinyinWidths[i]);
+        }
+        if (packed == null && isDebuggable()) {
+            verifyPrecomputedWidths(mTokenWidthsCount, end);
+        }
+        mTokenWidthsCount = end;
+    }
+
+    /**
+     * @param width width in em, see {@link Token#setPrecomputedWidths(float, float)}
+     * @return width in pixels at the text size, rounded up like a measured width
+     */
+    static int scaleWidth(float width, int textSize) {
+        return (int) Math.ceil(width * textSize);
+    }
 
-            compat.textRect.left = lineLength - maxWidth + textBias;
-            compat.textRect.right = compat.textRect.left + textWidth;
-            compat.textRect.top = compat.pinyinRect.bottom + mPinyinTextSpacing;
-            compat.textRect.bottom = compat.textRect.top + mTextHeight;
+    private boolean isDebuggable() {
+        return (getContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
 
-            compat.pinyinTextRect.left = lineLength - maxWidth;
-            compat.pinyinTextRect.right = compat.pinyinRect.left + Math.max(pinyinWidth, textWidth);
-            compat.pinyinTextRect.top = baseLine;
-            compat.pinyinTextRect.bottom = compat.pinyinRect.top + mPinyinHeight + mPinyinTextSpacing + mTextHeight;
+    /**
+     * Measure a sample of the newly measured tokens with precomputed widths, and warn if the widths
+     * don't match the font of the view. Only in debuggable apps, release builds trust the widths.
+     * <p>
+     * The sample is taken of the tokens with widths only, so a few of them among many measured
+     * tokens are still verified. It doesn't depend on how the tokens are split into ranges, so
+     * tokens measured one at a time under max lines or appended later are sampled like the ones
+     * of a whole layout: the first {@link #PRECOMPUTED_WIDTH_SAMPLES}, then as many per doubling.
+     */
+    private void verifyPrecomputedWidths(int start, int end) {
+        if (start == 0) {
+            mPrecomputedWidthsSeen = 0;
+        } else if (mPrecomputedWidthsSeen < 0) {
+            // warned once in this version
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            PinyinCompat compat = mPinyinCompats.get(i);
+            if (!hasPrecomputedWidth(compat)) {
+                continue;
+            }
+            int seen = mPrecomputedWidthsSeen++;
+            if (seen >= PRECOMPUTED_WIDTH_SAMPLES
+                    && seen % Integer.highestOneBit(seen / PRECOMPUTED_WIDTH_SAMPLES) != 0) {
+                continue;
+            }
+            int textWidth = compat.textWidth >= 0 ? getTextWidth(compat.text, mTextSize) : mTextWidths[i];
+            int pinyinWidth = compat.pinyinWidth >= 0 ? getTextWidth(compat.pinyin, mPinyinTextSize) : mPinyinWidths[i];
+            // the rounding of the scaled width may differ by a pixel
+            if (Math.abs(textWidth - mTextWidths[i]) > 1 || Math.abs(pinyinWidth - mPinyinWidths[i]) > 1) {
+                Log.w(TAG, "Precomputed widths of token " + i + " \"" + compat.text + "\" are "
+                        + mTextWidths[i] + "/" + mPinyinWidths[i] + "px, measured " + textWidth + "/" + pinyinWidth
+                        + "px, they are not of the font or the sizes of the view");
+                mPrecomputedWidthsSeen = -1;
+                return;
+            }
         }
+    }
 
-        if (modeHeight != MeasureSpec.EXACTLY) {
-            measuredHeight = baseLine + mPinyinHeight + mPinyinTextSpacing + mTextHeight + mTextHeight / 4;
+    private static boolean hasPrecomputedWidth(PinyinCompat compat) {
+        return compat.textWidth >= 0 || compat.pinyinWidth >= 0;
+    }
+
+    /**
+     * Use the widths measured elsewhere with the current style, instead of measuring the tokens.
+     * The arrays are owned by the view afterwards.
+     */
+    private void setTokenWidths(int[] textWidths, int[] pinyinWidths) {
+        int count = textWidths.length;
+        mTextWidths = textWidths;
+        mPinyinWidths = pinyinWidths;
+        mTokenWidths = new int[count];
+        for (int i = 0; i < count; i++) {
+            mTokenWidths[i] = Math.max(mTextWidths[i], mPinyinWidths[i]);
         }
+        mTokenWidthsVersion = mLayoutVersion;
+        mTokenWidthsCount = count;
+        mPrecomputedWidthsSeen = 0;
+    }
 
-        setMeasuredDimension(measuredWidth + paddingLeft + paddingRight, measuredHeight + paddingTop + paddingBottom);
+    /**
+     * Token widths, spacing or line breaker changed, the line breaks have to be computed again.
+     */
+    private void onLayoutChanged() {
+        mLayoutVersion++;
+        // only sent while a screen reader is enabled
+        mAccessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * Split the tokens into pages in {@link #TYPE_PINYIN_AND_TEXT} mode, with the style of this
+     * view, without changing what it shows. The tokens are measured once and broken into lines of
+     * the page width, the pages are computed lazily by the returned paginator.
+     * <p>
+     * A page is shown by setting its tokens, from {@link PinyinPaginator#getPageStart(int)} to
+     * {@link PinyinPaginator#getPageEnd(int)}, to a view with the same style and content size.
+     * Lines are always broken greedily here, whatever the line breaker of this view: only greedy
+     * breaking gives the tokens of a page the same lines as in the whole text, so the page view
+     * has to use {@link #LINE_BREAK_GREEDY} too.
+     *
+     * @param pageWidth  width of the content of a page, without padding
+     * @param pageHeight height of the content of a page, without padding
+     * @return paginator of the tokens, it keeps its own copy of the widths
+     * @throws IllegalStateException    if the view is not in {@link #TYPE_PINYIN_AND_TEXT} mode
+     * @throws IllegalArgumentException if the page size is not positive
+     */
+    public PinyinPaginator paginate(int pageWidth, int pageHeight) {
+        if (mDrawType != TYPE_PINYIN_AND_TEXT) {
+            throw new IllegalStateException("Pagination is only available in TYPE_PINYIN_AND_TEXT mode");
+        }
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        int count = getTokenCount();
+        ensureTokenWidths(count);
+        // the cache holds the lines of the view's own line breaker
+        boolean greedy = mLineBreaker == GreedyLineBreaker.INSTANCE;
+        int[] lineStarts = greedy ? mLineBreakCache.get(mLayoutVersion, pageWidth) : null;
+        if (lineStarts == null) {
+            lineStarts = ForcedLineBreaks.breakLines(GreedyLineBreaker.INSTANCE, getAlignedWidths(count), count,
+                    mHorizontalSpacing, pageWidth, findLineBreaks(count));
+            if (greedy) {
+                mLineBreakCache.put(mLayoutVersion, pageWidth, lineStarts);
+            }
+        }
+        // the view measures again into its arrays and the group replaces the columns, the paginator outlives them
+        int[] columnWidths = mColumnWidths != null ? mColumnWidths.clone() : null;
+        PinyinLayout layout = new PinyinLayout(Arrays.copyOf(mTextWidths, count), Arrays.copyOf(mPinyinWidths, count),
+                columnWidths, count, lineStarts, mHorizontalSpacing, mLineSpacing, mPinyinTextSpacing,
+                mTextHeight, mPinyinHeight);
+        return new PinyinPaginator(layout, pageHeight);
+    }
+
+    /**
+     * Save the tokens and their current layout, so they can be shown by {@link #loadLayout(File)}
+     * later without measuring again. Only available in {@link #TYPE_PINYIN_AND_TEXT} mode after
+     * the view is measured.
+     *
+     * @param file file to write, replaced if it exists
+     * @throws IOException           if the file can't be written
+     * @throws IllegalStateException if there is no layout to save
+     */
+    public void saveLayout(File file) throws IOException {
+        if (mDrawType != TYPE_PINYIN_AND_TEXT || mLayout == null) {
+            throw new IllegalStateException("No pinyin layout to save, the view is not measured");
+        }
+        if (mEllipsisIndex >= 0 || mColumnWidths != null) {
+            throw new IllegalStateException("Truncated or aligned pinyin layouts can't be saved");
+        }
+        PinyinLayoutFile layoutFile;
+        if (mPackedTokens != null) {
+            PackedTokens packed = mPackedTokens;
+            layoutFile = new PinyinLayoutFile(packed.texts, packed.textOffsets, packed.pinyins, packed.pinyinOffsets,
+                    packed.textColors, packed.pinyinColors, mTextSize, mPinyinTextSize, getFontFingerprint(),
+                    mLineBreaker, mLayoutWidth, mLayout);
+        } else {
+            int count = mPinyinTokens.size();
+            String[] texts = new String[count];
+            String[] pinyins = new String[count];
+            int[] textColors = new int[count];
+            int[] pinyinColors = new int[count];
+            for (int i = 0; i < count; i++) {
+                Token token = mPinyinTokens.get(i);
+                texts[i] = token.getText();
+                pinyins[i] = token.getPinyin();
+                textColors[i] = token.getTextColor();
+                pinyinColors[i] = token.getPinyinColor();
+            }
+            layoutFile = new PinyinLayoutFile(texts, pinyins, textColors, pinyinColors, mTextSize, mPinyinTextSize,
+                    getFontFingerprint(), mLineBreaker, mLayoutWidth, mLayout);
+        }
+        layoutFile.write(file);
+    }
+
+    /**
+     * Show the tokens saved by {@link #saveLayout(File)} in {@link #TYPE_PINYIN_AND_TEXT} mode, as
+     * packed tokens. The file is read by memory-mapped I/O. If it was saved with the same font,
+     * the same sizes and the same measure mode, the saved widths are used, and if the style and the line breaker are the same too, the saved
+     * layout is installed as is when the view is measured at the content width it was saved with.
+     * At another width, the saved widths are broken into lines again.
+     *
+     * @param file file to read
+     * @return true if the saved layout is reused at the saved content width, false if the tokens
+     * have to be laid out again
+     * @throws IOException if the file can't be read, is corrupted or of another version
+     */
+    public boolean loadLayout(File file) throws IOException {
+        PinyinLayoutFile layoutFile = PinyinLayoutFile.read(file);
+        setPackedTokens(PackedTokens.of(layoutFile.getTexts(), layoutFile.getTextOffsets(), layoutFile.getPinyins(),
+                layoutFile.getPinyinOffsets(), layoutFile.getTextColors(), layoutFile.getPinyinColors()));
+
+        PinyinLayout layout = layoutFile.getLayout();
+        if (layoutFile.getTextSize() != mTextSize || layoutFile.getPinyinTextSize() != mPinyinTextSize
+                || layout.getTextHeight() != mTextHeight || layout.getPinyinHeight() != mPinyinHeight
+                || layoutFile.getFontFingerprint() != getFontFingerprint()) {
+            return false;
+        }
+        // same font, the widths are valid
+        setTokenWidths(layoutFile.getTextWidths(), layoutFile.getPinyinWidths());
+        if (!layoutFile.matches(mTextSize, mPinyinTextSize, mHorizontalSpacing, mLineSpacing,
+                mPinyinTextSpacing, mTextHeight, mPinyinHeight) || !layoutFile.isBrokenBy(mLineBreaker)) {
+            return false;
+        }
+        // same style, measurePinyinText checks the real content width
+        mLineBreakCache.put(mLayoutVersion, layoutFile.getWidth(), layoutFile.getLineStarts());
+        mSavedLayout = layout;
+        mSavedLineStarts = layoutFile.getLineStarts();
+        mSavedLayoutVersion = mLayoutVersion;
+        mSavedLayoutWidth = layoutFile.getWidth();
+        return true;
+    }
+
+    /**
+     * @return fingerprint of the font and the measure mode of the tokens, see {@link PinyinLayoutFile}
+     */
+    private int getFontFingerprint() {
+        return PinyinLayoutFile.fontFingerprint(new PinyinLayoutFile.SampleMeasurer() {
+            @Override
+            public int measureText(String sample) {
+                return getTextWidth(sample, mTextSize);
+            }
+
+            @Override
+            public int measurePinyin(String sample) {
+                return getTextWidth(sample, mPinyinTextSize);
+            }
+        }, mMeasureMode);
+    }
+
+    /**
+     * Show the tokens of a file written by the headless corpus annotator, see {@link PinyinTokenFile},
+     * as packed tokens in {@link #TYPE_PINYIN_AND_TEXT} mode. The file is read by memory-mapped I/O
+     * and no object is created per token.
+     *
+     * @param file file to read
+     * @throws IOException if the file can't be read, is corrupted or of another version
+     */
+    public void loadTokens(File file) throws IOException {
+        PinyinTokenFile tokenFile = PinyinTokenFile.read(file);
+        setPinyinText(tokenFile.getTexts(), tokenFile.getTextOffsets(), tokenFile.getPinyins(),
+                tokenFile.getPinyinOffsets(), tokenFile.getTextColors(), tokenFile.getPinyinColors());
+    }
+
+    /**
+     * Set the strategy to break tokens into lines in {@link #TYPE_PINYIN_AND_TEXT} mode.<br/>
+     * Def in xml <b>app:lineBreakStrategy=""</b>
+     *
+     * @param strategy {@link #LINE_BREAK_GREEDY} or {@link #LINE_BREAK_BALANCED}
+     */
+    public void setLineBreakStrategy(@LineBreakStrategy int strategy) {
+        setLineBreaker(strategy == LINE_BREAK_BALANCED ? BalancedLineBreaker.INSTANCE : GreedyLineBreaker.INSTANCE);
+    }
+
+    /**
+     * Set a custom line breaker in {@link #TYPE_PINYIN_AND_TEXT} mode.
+     *
+     * @param lineBreaker line breaker, must be stateless
+     */
+    public void setLineBreaker(LineBreaker lineBreaker) {
+        if (lineBreaker == null) {
+            throw new IllegalArgumentException("Line breaker must not be null");
+        }
+        if (mLineBreaker == lineBreaker) {
+            return;
+        }
+        mLineBreaker = lineBreaker;
+        onLayoutChanged();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Get the index of the token under the given point, only available in
+     * {@link #TYPE_PINYIN_AND_TEXT} mode after the view is measured.
+     * <p>
+     * The line is found by binary search on line tops, then the token by binary search on
+     * the token x-positions of that line, so it stays fast for very long texts.
+     *
+     * @param x x coordinate relative to this view
+     * @param y y coordinate relative to this view
+     * @return index of the token in the list passed to {@link #setPinyinTextByTokens(List, int)},
+     * or -1 if there is no token at that point
+     */
+    public int getTokenIndexAt(float x, float y) {
+        if (mDrawType != TYPE_PINYIN_AND_TEXT || mLayout == null || mLineCount == 0) {
+            return -1;
+        }
+        int px = (int) x - getPaddingLeft();
+        int py = (int) y - getPaddingTop();
+        if (py < 0 || px < 0) {
+            return -1;
+        }
+
+        int line = findLine(py);
+        if (line < 0) {
+            return -1;
+        }
+        int start = mLineStarts[line];
+        int end = mLayout.getLineEnd(line);
+        if (start >= end || py >= mLayout.getLineBottom(line)) {
+            return -1; // in line spacing
+        }
+
+        // last token whose left <= x
+        int lo = start;
+        int hi = end - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (mLayout.getTokenLeft(mid) <= px) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo < mVisibleTokenCount && px < mLayout.getTokenLeft(lo) + mLayout.getTokenWidth(lo) ? lo : -1;
+    }
+
+    /**
+     * Find the last line whose top <= y.
+     *
+     * @return line index, or -1 if y is above the first line
+     */
+    private int findLine(int y) {
+        int line = Arrays.binarySearch(mLineTops, 0, mLineCount, y);
+        return line < 0 ? -line - 2 : line;
+    }
+
+    /**
+     * Get the bounds of the token (pinyin and text) relative to this view, only available in
+     * {@link #TYPE_PINYIN_AND_TEXT} mode after the view is measured.
+     *
+     * @param index index of the token
+     * @param out   rect to receive the bounds
+     * @return true if the bounds is set, false if the index is out of range or no layout
+     */
+    public boolean getTokenBounds(int index, Rect out) {
+        if (mDrawType != TYPE_PINYIN_AND_TEXT || mLayout == null || mLineCount == 0
+                || index < 0 || index >= mVisibleTokenCount) {
+            return false;
+        }
+        int line = mLayout.getLineForToken(index);
+        int left = mLayout.getTokenLeft(index);
+        out.set(left, mLayout.getLineTop(line), left + mLayout.getTokenWidth(index), mLayout.getLineBottom(line));
+        out.offset(getPaddingLeft(), getPaddingTop());
+        return true;
     }
 
     private void measurePlainText(int widthMeasureSpec, int heightMeasureSpec) {
@@ -726,7 +2504,7 @@ public class PinyinTextView extends View {
             return;
         }
 
-        if (mPinyinCompats.isEmpty()) {
+        if (getTokenCount() == 0) {
             drawPlainText(canvas);
         } else {
             if (mDrawType == TYPE_PINYIN_AND_TEXT) {
@@ -742,26 +2520,60 @@ public class PinyinTextView extends View {
     private void drawPinyinAndText(Canvas canvas) {
         int paddingLeft = this.getPaddingLeft();
         int paddingTop = this.getPaddingTop();
+        // the rects are relative to the content, keep them untouched so they can be hit-tested
+        canvas.save();
+        canvas.translate(paddingLeft, paddingTop);
+
+        // only draw the lines in the dirty area
+        int start = 0;
+        int end = mVisibleTokenCount;
+        if (mLineCount > 0 && canvas.getClipBounds(mClipBounds)) {
+            int lineHeight = mPinyinHeight + mPinyinTextSpacing + mTextHeight
+                    + Math.max(mTextHeight / 4, mUnderlineVerticalSpacing) + 1;
+            int firstLine = Math.max(findLine(mClipBounds.top - lineHeight), 0);
+            int lastLine = Math.max(findLine(mClipBounds.bottom), firstLine);
+            start = mLineStarts[firstLine];
+            end = lastLine + 1 < mLineCount ? Math.min(mLineStarts[lastLine + 1], end) : end;
+        }
+        drawEllipsis(canvas);
+
+        if (mPackedTokens != null) {
+            drawPackedTokens(canvas, start, end);
+            canvas.restore();
+            return;
+        }
 
-        for (int i = 0; i < mPinyinCompats.size(); i++) {
+        for (int i = start; i < end; i++) {
             PinyinCompat compat = mPinyinCompats.get(i);
+            if (ForcedLineBreaks.isLineBreak(compat.text)) {
+                continue; // ends its line, nothing to draw
+            }
+
+            boolean highlight = i == mHighlightIndex;
+
+            if (compat.backgroundColor != 0) {
+                mBackgroundPaint.setColor(compat.backgroundColor);
+                canvas.drawRect(compat.pinyinTextRect, mBackgroundPaint);
+            }
+            if (mSearchMatches.get(i)) {
+                canvas.drawRect(compat.pinyinTextRect, mSearchPaint);
+            }
 
             // draw pinyin
-            mPaint.setColor(compat.pinyinColor);
+            mPaint.setColor(highlight ? mHighlightColor : compat.pinyinColor);
             mPaint.setTextSize(mPinyinTextSize);
-            compat.pinyinRect.offset(paddingLeft, paddingTop);
             // If the draw mode is TYPE_PINYIN_AND_TEXT, don't draw the pinyin if it's punctuation
             if (!isPunctuation(compat.pinyin)) {
                 canvas.drawText(compat.pinyin, compat.pinyinRect.left, compat.pinyinRect.bottom, mPaint);
             }
 
             // draw text
-            mPaint.setColor(compat.textColor);
+            mPaint.setColor(highlight ? mHighlightColor : compat.textColor);
             mPaint.setTextSize(mTextSize);
-            compat.textRect.offset(paddingLeft, paddingTop);
             canvas.drawText(compat.text, compat.textRect.left, compat.textRect.bottom, mPaint);
 
-            if (mUnderline && !isPunctuation(compat.text)) {
+            boolean underline = compat.underline == null ? mUnderline : compat.underline;
+            if (underline && !isPunctuation(compat.text)) {
                 canvas.drawLine(
                         compat.pinyinTextRect.left,
                         compat.pinyinTextRect.bottom + mUnderlineVerticalSpacing,
@@ -785,6 +2597,78 @@ public class PinyinTextView extends View {
                 canvas.drawRect(compat.pinyinTextRect, mDebugPaint);
             }
         }
+        canvas.restore();
+    }
+
+    /**
+     * Draw the packed tokens in [start, end) by their ranges, placed by {@link #mLayout}.
+     */
+    private void drawPackedTokens(Canvas canvas, int start, int end) {
+        PackedTokens packed = mPackedTokens;
+        if (mLayout == null || start >= end) {
+            return;
+        }
+        int line = mLayout.getLineForToken(start);
+        int lineEnd = mLayout.getLineEnd(line);
+        for (int i = start; i < end; i++) {
+            while (i >= lineEnd) {
+                lineEnd = mLayout.getLineEnd(++line);
+            }
+            boolean highlight = i == mHighlightIndex;
+            int textStart = packed.textOffsets[i];
+            int textEnd = packed.textOffsets[i + 1];
+            int pinyinStart = packed.pinyinOffsets[i];
+            int pinyinEnd = packed.pinyinOffsets[i + 1];
+            if (ForcedLineBreaks.isLineBreak(packed.texts, textStart, textEnd)) {
+                continue; // ends its line, nothing to draw
+            }
+
+            if (mSearchMatches.get(i)) {
+                int left = mLayout.getTokenLeft(i);
+                mSearchRect.set(left, mLayout.getLineTop(line), left + mLayout.getTokenWidth(i), mLayout.getLineBottom(line));
+                canvas.drawRect(mSearchRect, mSearchPaint);
+            }
+
+            // draw pinyin, punctuation has no pinyin
+            if (pinyinStart < pinyinEnd && !PunctuationUtils.isPunctuation(packed.pinyins, pinyinStart, pinyinEnd)) {
+                int color = packed.getPinyinColor(i);
+                mPaint.setColor(highlight ? mHighlightColor : color == 0 ? mPinyinColor : color);
+                mPaint.setTextSize(mPinyinTextSize);
+                drawRange(canvas, packed.pinyins, packed.pinyinChars, pinyinStart, pinyinEnd,
+                        mLayout.getPinyinLeft(i), mLayout.getPinyinBaseline(line));
+            }
+
+            // draw text
+            int color = packed.getTextColor(i);
+            mPaint.setColor(highlight ? mHighlightColor : color == 0 ? mTextColor : color);
+            mPaint.setTextSize(mTextSize);
+            drawRange(canvas, packed.texts, packed.textChars, textStart, textEnd,
+                    mLayout.getTextLeft(i), mLayout.getLineBottom(line));
+
+            if (mUnderline && !PunctuationUtils.isPunctuation(packed.texts, textStart, textEnd)) {
+                int left = mLayout.getTokenLeft(i);
+                int y = mLayout.getLineBottom(line) + mUnderlineVerticalSpacing;
+                canvas.drawLine(left, y, left + mLayout.getTokenWidth(i) + mHorizontalSpacing, y, mUnderlinePaint);
+            }
+        }
+    }
+
+    private void drawEllipsis(Canvas canvas) {
+        if (mEllipsisIndex < 0 || mLayout == null) {
+            return;
+        }
+        mPaint.setColor(mTextColor);
+        mPaint.setTextSize(mTextSize);
+        canvas.drawText(ELLIPSIS, mLayout.getTextLeft(mEllipsisIndex),
+                mLayout.getLineBottom(mLayout.getLineCount() - 1), mPaint);
+    }
+
+    private void drawRange(Canvas canvas, CharSequence text, char[] chars, int start, int end, float x, float y) {
+        if (chars != null) {
+            canvas.drawText(chars, start, end - start, x, y, mPaint);
+        } else {
+            canvas.drawText(text, start, end, x, y, mPaint);
+        }
     }
 
     private void drawPlainText(Canvas canvas) {
@@ -819,20 +2703,68 @@ public class PinyinTextView extends View {
     }
 
     private boolean isPunctuation(String text) {
-        if (TextUtils.isEmpty(text)) {
-            return false;
-        }
-        text = text.trim();
-        if (text.length() != 1) {
-            return false;
-        }
-        return StringUtils.isPunctuation(text.charAt(0));
+        return PunctuationUtils.isPunctuation(text);
     }
 
     private int getTextWidth(String text, int textSize) {
+        return getTextWidth(text, 0, text.length(), textSize);
+    }
+
+    private int getTextWidth(CharSequence text, int start, int end, int textSize) {
+        if (ForcedLineBreaks.isLineBreak(text, start, end)) {
+            return 0;
+        }
+        if (mMeasureMode == MEASURE_ADVANCES) {
+            float width = getAdvanceTable(textSize).measure(text, start, end);
+            if (width >= 0) {
+                return (int) Math.ceil(width);
+            }
+            // not only hanzi & pinyin, shape it
+        }
         mPaint.setTextSize(textSize);
 
-        return (int) Math.ceil(Layout.getDesiredWidth(text, mPaint));
+        return (int) Math.ceil(Layout.getDesiredWidth(text, start, end, mPaint));
+    }
+
+    private AdvanceTable getAdvanceTable(int textSize) {
+        Typeface typeface = mPaint.getTypeface();
+        if (textSize == mTextSize) {
+            if (mTextAdvances == null || !mTextAdvances.matches(typeface, textSize)) {
+                mTextAdvances = AdvanceTable.get(typeface, textSize);
+            }
+            return mTextAdvances;
+        }
+        if (mPinyinAdvances == null || !mPinyinAdvances.matches(typeface, textSize)) {
+            mPinyinAdvances = AdvanceTable.get(typeface, textSize);
+        }
+        return mPinyinAdvances;
+    }
+
+    /**
+     * Annotates raw text to tokens for {@link #setPinyinTextAsync(String, Annotator, int)}, it is
+     * called on a background thread and must be thread-safe.
+     */
+    public interface Annotator {
+        /**
+         * @param text raw text
+         * @return tokens of the text, owned by the view afterwards
+         */
+        List<Token> annotate(String text);
+    }
+
+    /**
+     * Time source of read-along playback, like the position of the audio player.
+     */
+    public interface TimeSource {
+        /**
+         * @return current time, in the same unit as the highlight timeline
+         */
+        long getCurrentTime();
+
+        /**
+         * @return false once the source is paused or stopped, the playback stops then
+         */
+        boolean isPlaying();
     }
 
     static class PinyinCompat {
@@ -842,6 +2774,12 @@ public class PinyinTextView extends View {
         String pinyin;
         @ColorInt
         int pinyinColor;
+        @ColorInt
+        int backgroundColor;
+        Boolean underline;
+        // precomputed widths in em, negative if they are measured
+        float textWidth = -1;
+        float pinyinWidth = -1;
 
         Rect pinyinTextRect;
         Rect textRect;
@@ -855,6 +2793,11 @@ public class PinyinTextView extends View {
         private String pinyin;
         private @ColorInt
         int pinyinColor = 0;
+        private @ColorInt
+        int backgroundColor = 0;
+        private Boolean underline;
+        private float textWidth = -1;
+        private float pinyinWidth = -1;
 
         public Token() {
 
@@ -898,5 +2841,51 @@ public class PinyinTextView extends View {
         public void setPinyinColor(int pinyinColor) {
             this.pinyinColor = pinyinColor;
         }
+
+        public int getBackgroundColor() {
+            return backgroundColor;
+        }
+
+        /**
+         * Set the background color, only drawn in {@link #TYPE_PINYIN_AND_TEXT} mode, 0 means no background.
+         */
+        public void setBackgroundColor(int backgroundColor) {
+            this.backgroundColor = backgroundColor;
+        }
+
+        public Boolean getUnderline() {
+            return underline;
+        }
+
+        /**
+         * Show or hide the underline of this token, only used in {@link #TYPE_PINYIN_AND_TEXT} mode,
+         * null follows {@link PinyinTextView#setUnderline(boolean)}.
+         */
+        public void setUnderline(Boolean underline) {
+            this.underline = underline;
+        }
+
+        public float getPrecomputedTextWidth() {
+            return textWidth;
+        }
+
+        public float getPrecomputedPinyinWidth() {
+            return pinyinWidth;
+        }
+
+        /**
+         * Set the widths measured ahead, like on a server with the font bundled in the app, so the
+         * view doesn't measure this token. The widths are in em, the width at a text size of 1px,
+         * so they scale with the text and pinyin sizes of the view. They are only right for the
+         * font they were measured with, debuggable apps measure a sample of the tokens again and
+         * log a warning if they don't match.
+         *
+         * @param textWidth   width of the text in em, negative to measure it
+         * @param pinyinWidth width of the pinyin in em, negative to measure it
+         */
+        public void setPrecomputedWidths(float textWidth, float pinyinWidth) {
+            this.textWidth = textWidth;
+            this.pinyinWidth = pinyinWidth;
+        }
     }
 }
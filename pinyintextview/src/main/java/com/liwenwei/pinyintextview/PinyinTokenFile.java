@@ -0,0 +1,390 @@
+package com.liwenwei.pinyintextview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Annotated tokens in a compact versioned binary file, produced offline from a corpus and loaded
+ * by {@link PinyinTextView} as packed tokens, without a string or an object per token.
+ * <p>
+ * Unlike {@link PinyinLayoutFile} there is no layout in the file, so it is valid for any style
+ * and width. The file is read through memory-mapped I/O. A paragraph break of the corpus is a
+ * token "\n" without pinyin, {@link PinyinTextView} and the headless renderer start a new line after
+ * it, see {@link ForcedLineBreaks}.
+ * <p>
+ * Format, big endian:
+ * <pre>
+ * int      magic "PYTK"
+ * int      version
+ * int      flags, 1 if there are colors
+ * int      token count n, text char count t, pinyin char count p
+ * int[n+1] text offsets, int[n+1] pinyin offsets
+ * int[n]   text colors, int[n] pinyin colors, only with colors
+ * char[t]  texts of all tokens
+ * char[p]  pinyins of all tokens
+ * </pre>
+ * This class has no Android dependency, the files are written by the headless corpus annotator.
+ */
+public final class PinyinTokenFile {
+
+    private static final int MAGIC = 0x5059544B; // PYTK
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 3 + 3;
+    private static final int FLAG_COLORS = 1;
+
+    private final int mCount;
+    private final char[] mTexts;
+    private final int[] mTextOffsets;
+    private final char[] mPinyins;
+    private final int[] mPinyinOffsets;
+    private final int[] mTextColors;
+    private final int[] mPinyinColors;
+
+    private PinyinTokenFile(int count, char[] texts, int[] textOffsets, char[] pinyins, int[] pinyinOffsets,
+                            int[] textColors, int[] pinyinColors) {
+        mCount = count;
+        mTexts = texts;
+        mTextOffsets = textOffsets;
+        mPinyins = pinyins;
+        mPinyinOffsets = pinyinOffsets;
+        mTextColors = textColors;
+        mPinyinColors = pinyinColors;
+    }
+
+    /**
+     * Read a token file through memory-mapped I/O.
+     *
+     * @throws IOException if the file can't be read, is corrupted or of another version
+     */
+    public static PinyinTokenFile read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static PinyinTokenFile read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_INTS * 4 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a pinyin token file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pinyin token file version " + version);
+        }
+        int flags = buffer.getInt();
+        int count = buffer.getInt();
+        int textCount = buffer.getInt();
+        int pinyinCount = buffer.getInt();
+        boolean colors = (flags & FLAG_COLORS) != 0;
+        if (count < 0 || textCount < 0 || pinyinCount < 0 || buffer.remaining()
+                != (2L * (count + 1) + (colors ? 2L * count : 0)) * 4 + 2L * (textCount + pinyinCount)) {
+            throw new IOException("Corrupted pinyin token file");
+        }
+        int[] textOffsets = readInts(buffer, count + 1);
+        int[] pinyinOffsets = readInts(buffer, count + 1);
+        int[] textColors = colors ? readInts(buffer, count) : null;
+        int[] pinyinColors = colors ? readInts(buffer, count) : null;
+        char[] texts = readChars(buffer, textCount);
+        char[] pinyins = readChars(buffer, pinyinCount);
+        checkOffsets(textOffsets, textCount);
+        checkOffsets(pinyinOffsets, pinyinCount);
+        return new PinyinTokenFile(count, texts, textOffsets, pinyins, pinyinOffsets, textColors, pinyinColors);
+    }
+
+    public int getTokenCount() {
+        return mCount;
+    }
+
+    /**
+     * @return texts of all tokens, token i is from {@code textOffsets[i]} to {@code textOffsets[i + 1]}
+     */
+    public char[] getTexts() {
+        return mTexts;
+    }
+
+    public int[] getTextOffsets() {
+        return mTextOffsets;
+    }
+
+    /**
+     * @return pinyins of all tokens, token i is from {@code pinyinOffsets[i]} to {@code pinyinOffsets[i + 1]}
+     */
+    public char[] getPinyins() {
+        return mPinyins;
+    }
+
+    public int[] getPinyinOffsets() {
+        return mPinyinOffsets;
+    }
+
+    /**
+     * @return text color of each token, 0 means the default color, null if the file has no colors
+     */
+    public int[] getTextColors() {
+        return mTextColors;
+    }
+
+    /**
+     * @return pinyin color of each token, 0 means the default color, null if the file has no colors
+     */
+    public int[] getPinyinColors() {
+        return mPinyinColors;
+    }
+
+    public String getText(int index) {
+        return new String(mTexts, mTextOffsets[index], mTextOffsets[index + 1] - mTextOffsets[index]);
+    }
+
+    public String getPinyin(int index) {
+        return new String(mPinyins, mPinyinOffsets[index], mPinyinOffsets[index + 1] - mPinyinOffsets[index]);
+    }
+
+    private static void checkOffsets(int[] offsets, int length) throws IOException {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != length) {
+            throw new IOException("Corrupted pinyin token file");
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new IOException("Corrupted pinyin token file");
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static char[] readChars(ByteBuffer buffer, int count) {
+        char[] chars = new char[count];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + count * 2);
+        return chars;
+    }
+
+    /**
+     * Collects tokens in order and writes them to a token file, it is not thread-safe.
+     * <p>
+     * Every section of the file is buffered in a small buffer and spilled to a temporary file
+     * when it is full, so the memory of the writer doesn't grow with the tokens, a whole corpus
+     * can be written. The temporary files are deleted by {@link #close()}.
+     */
+    public static final class Writer implements Closeable {
+        private static final int SECTION_BUFFER_SIZE = 1 << 16;
+
+        private final File mTempDir;
+        private final Section mTextOffsets;
+        private final Section mPinyinOffsets;
+        private final Section mTexts;
+        private final Section mPinyins;
+        // created with the first color, the tokens before it have the default colors
+        private Section mTextColors;
+        private Section mPinyinColors;
+        private int mCount;
+        private int mTextLength;
+        private int mPinyinLength;
+
+        /**
+         * Spill the sections to the default temporary directory.
+         */
+        public Writer() {
+            this(null);
+        }
+
+        /**
+         * @param tempDir directory of the temporary files, null for the default one
+         */
+        public Writer(File tempDir) {
+            mTempDir = tempDir;
+            mTextOffsets = new Section();
+            mPinyinOffsets = new Section();
+            mTexts = new Section();
+            mPinyins = new Section();
+            // the first offsets, the buffers are empty
+            mTextOffsets.mBuffer.putInt(0);
+            mPinyinOffsets.mBuffer.putInt(0);
+        }
+
+        /**
+         * Add a token with the default colors.
+         */
+        public void add(CharSequence text, CharSequence pinyin) throws IOException {
+            add(text, pinyin, 0, 0);
+        }
+
+        /**
+         * Add a token.
+         *
+         * @param text        text of the token
+         * @param pinyin      pinyin of the token, empty for punctuation
+         * @param textColor   text color, 0 means the default color
+         * @param pinyinColor pinyin color, 0 means the default color
+         */
+        public void add(CharSequence text, CharSequence pinyin, int textColor, int pinyinColor) throws IOException {
+            add(text, 0, text.length(), pinyin, 0, pinyin.length(), textColor, pinyinColor);
+        }
+
+        /**
+         * Add a token from ranges of chars, without creating a string per token.
+         */
+        public void add(CharSequence texts, int textStart, int textEnd, CharSequence pinyins, int pinyinStart,
+                        int pinyinEnd, int textColor, int pinyinColor) throws IOException {
+            if ((textColor != 0 || pinyinColor != 0) && mTextColors == null) {
+                mTextColors = new Section();
+                mPinyinColors = new Section();
+                for (int i = 0; i < mCount; i++) {
+                    mTextColors.putInt(0);
+                    mPinyinColors.putInt(0);
+                }
+            }
+            if (mTextColors != null) {
+                mTextColors.putInt(textColor);
+                mPinyinColors.putInt(pinyinColor);
+            }
+            for (int i = textStart; i < textEnd; i++) {
+                mTexts.putChar(texts.charAt(i));
+            }
+            for (int i = pinyinStart; i < pinyinEnd; i++) {
+                mPinyins.putChar(pinyins.charAt(i));
+            }
+            mTextLength += textEnd - textStart;
+            mPinyinLength += pinyinEnd - pinyinStart;
+            mCount++;
+            mTextOffsets.putInt(mTextLength);
+            mPinyinOffsets.putInt(mPinyinLength);
+        }
+
+        public int getTokenCount() {
+            return mCount;
+        }
+
+        /**
+         * Write the tokens added so far, the file is replaced if it exists. More tokens can be
+         * added and written again afterwards.
+         *
+         * @return bytes written
+         */
+        public long write(File file) throws IOException {
+            boolean colors = mTextColors != null;
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(colors ? FLAG_COLORS : 0);
+                header.putInt(mCount);
+                header.putInt(mTextLength);
+                header.putInt(mPinyinLength);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                mTextOffsets.copyTo(channel);
+                mPinyinOffsets.copyTo(channel);
+                if (colors) {
+                    mTextColors.copyTo(channel);
+                    mPinyinColors.copyTo(channel);
+                }
+                mTexts.copyTo(channel);
+                mPinyins.copyTo(channel);
+                return channel.size();
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Delete the temporary files, the writer can't be used afterwards.
+         */
+        @Override
+        public void close() throws IOException {
+            mTextOffsets.close();
+            mPinyinOffsets.close();
+            mTexts.close();
+            mPinyins.close();
+            if (mTextColors != null) {
+                mTextColors.close();
+                mPinyinColors.close();
+            }
+        }
+
+        /**
+         * A section of the file, in a buffer spilled to a temporary file when it is full.
+         */
+        private final class Section {
+            private final ByteBuffer mBuffer = ByteBuffer.allocate(SECTION_BUFFER_SIZE);
+            private File mFile;
+            private RandomAccessFile mSpill;
+
+            void putInt(int value) throws IOException {
+                if (mBuffer.remaining() < 4) {
+                    spill();
+                }
+                mBuffer.putInt(value);
+            }
+
+            void putChar(char c) throws IOException {
+                if (mBuffer.remaining() < 2) {
+                    spill();
+                }
+                mBuffer.putChar(c);
+            }
+
+            private void spill() throws IOException {
+                if (mSpill == null) {
+                    mFile = File.createTempFile("pytk", ".part", mTempDir);
+                    mSpill = new RandomAccessFile(mFile, "rw");
+                }
+                FileChannel channel = mSpill.getChannel();
+                channel.position(channel.size());
+                mBuffer.flip();
+                while (mBuffer.hasRemaining()) {
+                    channel.write(mBuffer);
+                }
+                mBuffer.clear();
+            }
+
+            /**
+             * Copy the spilled and the buffered bytes to the end of the channel.
+             */
+            void copyTo(FileChannel out) throws IOException {
+                if (mSpill != null) {
+                    FileChannel channel = mSpill.getChannel();
+                    long size = channel.size();
+                    for (long position = 0; position < size; ) {
+                        position += channel.transferTo(position, size - position, out);
+                    }
+                }
+                ByteBuffer buffered = mBuffer.duplicate();
+                buffered.flip();
+                while (buffered.hasRemaining()) {
+                    out.write(buffered);
+                }
+            }
+
+            void close() throws IOException {
+                if (mSpill != null) {
+                    mSpill.close();
+                    mSpill = null;
+                    if (!mFile.delete()) {
+                        mFile.deleteOnExit();
+                    }
+                }
+            }
+        }
+    }
+}
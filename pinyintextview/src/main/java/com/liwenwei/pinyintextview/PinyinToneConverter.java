@@ -0,0 +1,294 @@
+package com.liwenwei.pinyintextview;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Converts tone-numbered pinyin to pinyin with tone marks, like "zhong1 wen2" to "zhōng wén" and
+ * "lv4" to "lǜ".
+ * <p>
+ * A syllable is a run of latin letters followed by a tone number, 1 to 4 for the four tones,
+ * 5 or 0 for the neutral tone. The mark is put on "a" or "e" if there is one, on the "o" of
+ * "ou", otherwise on the last vowel. "v" and "u:" are written as "ü" in a syllable with tone
+ * number, the syllables "m", "n" and "ng" are marked on the first letter. Runs without tone number,
+ * like English words or pinyin with marks already, are kept as they are.
+ * <p>
+ * The converted text is never longer than the source. The methods write into a caller supplied
+ * buffer and don't allocate, so they can be used on whole documents, see
+ * {@link #convert(Reader, Writer)}. This class has no Android dependency.
+ */
+public final class PinyinToneConverter {
+
+    private static final String VOWELS = "aeiouüAEIOUÜ";
+
+    // the 4 tones of each vowel in VOWELS
+    private static final String MARKED_VOWELS = "āáǎà" + "ēéěè" + "īíǐì" + "ōóǒò" + "ūúǔù" + "ǖǘǚǜ"
+            + "ĀÁǍÀ" + "ĒÉĚÈ" + "ĪÍǏÌ" + "ŌÓǑÒ" + "ŪÚǓÙ" + "ǕǗǙǛ";
+
+    // combining marks of the 4 tones, for "m" and "n" which have no precomposed char of every tone
+    private static final String COMBINING_MARKS = "\u0304\u0301\u030C\u0300";
+
+    // precomposed "m" and "n" of the 4 tones, 0 if there is none
+    private static final char[] MARKED_M = {0, 'ḿ', 0, 0};
+    private static final char[] MARKED_UPPER_M = {0, 'Ḿ', 0, 0};
+    private static final char[] MARKED_N = {0, 'ń', 'ň', 'ǹ'};
+    private static final char[] MARKED_UPPER_N = {0, 'Ń', 'Ň', 'Ǹ'};
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    private PinyinToneConverter() {
+    }
+
+    /**
+     * Convert a string.
+     *
+     * @param pinyin tone-numbered pinyin, may be null
+     * @return pinyin with tone marks, the same instance if there is no tone number
+     */
+    public static String convert(String pinyin) {
+        if (pinyin == null || !hasToneNumber(pinyin, 0, pinyin.length())) {
+            return pinyin;
+        }
+        char[] dst = new char[pinyin.length()];
+        int length = convert(pinyin, 0, pinyin.length(), dst, 0);
+        return new String(dst, 0, length);
+    }
+
+    /**
+     * Convert the range of the source and append it to the builder.
+     *
+     * @param src   tone-numbered pinyin
+     * @param start start of the range, inclusive
+     * @param end   end of the range, exclusive
+     * @param out   builder to append to, reuse it to avoid allocation
+     */
+    public static void convert(CharSequence src, int start, int end, StringBuilder out) {
+        out.ensureCapacity(out.length() + end - start);
+        convert(src, start, end, null, 0, out);
+    }
+
+    /**
+     * Convert the range of the source into the array.
+     *
+     * @param src      tone-numbered pinyin
+     * @param start    start of the range, inclusive
+     * @param end      end of the range, exclusive
+     * @param dst      array to write to, at least {@code end - start} chars from dstStart
+     * @param dstStart index of dst to write the first char
+     * @return count of chars written
+     */
+    public static int convert(CharSequence src, int start, int end, char[] dst, int dstStart) {
+        if (dst.length - dstStart < end - start) {
+            throw new IllegalArgumentException("Destination must have at least " + (end - start) + " chars");
+        }
+        return convert(src, start, end, dst, dstStart, null) - dstStart;
+    }
+
+    /**
+     * Convert a whole document chunk by chunk, a syllable across two chunks is kept for the
+     * next one. The buffers are allocated once per call.
+     *
+     * @param in  tone-numbered pinyin, not closed
+     * @param out pinyin with tone marks, not closed or flushed
+     * @return count of chars written
+     */
+    public static long convert(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[STREAM_BUFFER_SIZE];
+        char[] converted = new char[STREAM_BUFFER_SIZE];
+        CharBuffer source = CharBuffer.wrap(buffer);
+        long written = 0;
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            // keep the last run of letters, its tone number may be in the next chunk
+            int cut = length;
+            while (cut > 0 && isSyllableChar(buffer, cut - 1)) {
+                cut--;
+            }
+            if (cut == 0 && length < buffer.length) {
+                continue;
+            }
+            if (cut == 0) {
+                cut = length; // no syllable is that long, convert it as it is
+            }
+            int count = convert(source, 0, cut, converted, 0, null);
+            out.write(converted, 0, count);
+            written += count;
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+        }
+        int count = convert(source, 0, length, converted, 0, null);
+        out.write(converted, 0, count);
+        return written + count;
+    }
+
+    /**
+     * Whether the range has a syllable with tone number, nothing is converted if not.
+     */
+    public static boolean hasToneNumber(CharSequence src, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            if (isToneNumber(src.charAt(i)) && isSyllableChar(src, i - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert to dst if it is not null, otherwise append to out.
+     *
+     * @return index of dst after the last char written
+     */
+    private static int convert(CharSequence src, int start, int end, char[] dst, int pos, StringBuilder out) {
+        int i = start;
+        while (i < end) {
+            char c = src.charAt(i);
+            if (!isLetter(c)) {
+                pos = put(c, dst, pos, out);
+                i++;
+                continue;
+            }
+            int syllableEnd = i + 1;
+            while (syllableEnd < end && isSyllableChar(src, syllableEnd)) {
+                syllableEnd++;
+            }
+            if (syllableEnd < end && isToneNumber(src.charAt(syllableEnd)) && isPinyin(src, i, syllableEnd)) {
+                int tone = src.charAt(syllableEnd) - '0';
+                int mark = findMark(src, i, syllableEnd);
+                if (mark >= 0 || isNasal(src, i, syllableEnd)) {
+                    // the neutral tone has no mark
+                    mark = tone == 0 || tone == 5 ? -1 : mark < 0 ? i : mark;
+                    pos = putSyllable(src, i, syllableEnd, mark, tone, dst, pos, out);
+                    i = syllableEnd + 1;
+                    continue;
+                }
+            }
+            // no tone number, not pinyin like "zhōng1", or nothing to mark like "mp3"
+            for (; i < syllableEnd; i++) {
+                pos = put(src.charAt(i), dst, pos, out);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Write the syllable with "v" and "u:" as "ü" and the mark on the char at index mark.
+     */
+    private static int putSyllable(CharSequence src, int start, int end, int mark, int tone,
+                                   char[] dst, int pos, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == ':') {
+                continue; // the colon of "u:"
+            }
+            c = toUmlaut(src, i, end);
+            if (i != mark) {
+                pos = put(c, dst, pos, out);
+                continue;
+            }
+            int vowel = VOWELS.indexOf(c);
+            if (vowel >= 0) {
+                pos = put(MARKED_VOWELS.charAt(vowel * 4 + tone - 1), dst, pos, out);
+                continue;
+            }
+            // "m", "n" or "ng"
+            char[] marked = c == 'm' ? MARKED_M : c == 'M' ? MARKED_UPPER_M : c == 'n' ? MARKED_N : MARKED_UPPER_N;
+            if (marked[tone - 1] != 0) {
+                pos = put(marked[tone - 1], dst, pos, out);
+            } else {
+                // the tone number is dropped, so there is space for the combining mark
+                pos = put(c, dst, pos, out);
+                pos = put(COMBINING_MARKS.charAt(tone - 1), dst, pos, out);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Find the vowel to mark: "a" or "e", the "o" of "ou", otherwise the last vowel.
+     *
+     * @return index of the vowel, -1 if there is no vowel
+     */
+    private static int findMark(CharSequence src, int start, int end) {
+        int last = -1;
+        for (int i = start; i < end; i++) {
+            char c = Character.toLowerCase(toUmlaut(src, i, end));
+            if (c == 'a' || c == 'e') {
+                return i;
+            }
+            if (c == 'o' && i + 1 < end && Character.toLowerCase(src.charAt(i + 1)) == 'u') {
+                return i;
+            }
+            if (c == 'i' || c == 'o' || c == 'u' || c == 'ü') {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    private static boolean isNasal(CharSequence src, int start, int end) {
+        char first = Character.toLowerCase(src.charAt(start));
+        if (end - start == 1) {
+            return first == 'm' || first == 'n';
+        }
+        return end - start == 2 && first == 'n' && Character.toLowerCase(src.charAt(start + 1)) == 'g';
+    }
+
+    private static char toUmlaut(CharSequence src, int i, int end) {
+        char c = src.charAt(i);
+        if (c == 'v') {
+            return 'ü';
+        } else if (c == 'V') {
+            return 'Ü';
+        } else if ((c == 'u' || c == 'U') && i + 1 < end && src.charAt(i + 1) == ':') {
+            return c == 'u' ? 'ü' : 'Ü';
+        }
+        return c;
+    }
+
+    private static int put(char c, char[] dst, int pos, StringBuilder out) {
+        if (dst != null) {
+            dst[pos] = c;
+        } else {
+            out.append(c);
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Latin letter, a run of them is a syllable if it has only pinyin letters. Hanzi end the run.
+     */
+    private static boolean isLetter(char c) {
+        return c < 0x250 && Character.isLetter(c);
+    }
+
+    private static boolean isPinyin(CharSequence src, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != 'ü' && c != 'Ü' && c != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Letter, or the colon of "u:"
+     */
+    private static boolean isSyllableChar(CharSequence src, int i) {
+        char c = src.charAt(i);
+        return isLetter(c) || (c == ':' && i > 0 && (src.charAt(i - 1) == 'u' || src.charAt(i - 1) == 'U'));
+    }
+
+    private static boolean isSyllableChar(char[] src, int i) {
+        char c = src[i];
+        return isLetter(c) || (c == ':' && i > 0 && (src[i - 1] == 'u' || src[i - 1] == 'U'));
+    }
+
+    private static boolean isToneNumber(char c) {
+        return c >= '0' && c <= '5';
+    }
+}
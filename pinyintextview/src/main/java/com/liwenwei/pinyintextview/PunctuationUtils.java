@@ -0,0 +1,106 @@
+package com.liwenwei.pinyintextview;
+
+/**
+ * PunctuationUtils
+ * Punctuation rules of tokens, it has no Android dependency so the headless renderer uses the
+ * same rules as {@link PinyinTextView}.
+ */
+public final class PunctuationUtils {
+
+    private PunctuationUtils() {
+    }
+
+    /**
+     * Whether the token is a single punctuation, the spaces around it are ignored.
+     */
+    public static boolean isPunctuation(String text) {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        text = text.trim();
+        if (text.length() != 1) {
+            return false;
+        }
+        return isPunctuation(text.charAt(0));
+    }
+
+    /**
+     * Whether the range of the chars is a single punctuation, the spaces around it are ignored,
+     * the same as {@link #isPunctuation(String)} without creating a string.
+     *
+     * @param text  chars of tokens
+     * @param start start of the range, inclusive
+     * @param end   end of the range, exclusive
+     */
+    public static boolean isPunctuation(CharSequence text, int start, int end) {
+        // trim like String.trim()
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (start < end && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start == 1 && isPunctuation(text.charAt(start));
+    }
+
+    public static boolean isPunctuation(char ch) {
+        if (isCjkPunc(ch)) {
+            return true;
+        }
+        if (isEnPunc(ch)) {
+            return true;
+        }
+
+        if (0x2018 <= ch && ch <= 0x201F) {
+            return true;
+        }
+        if (ch == 0xFF01 || ch == 0xFF02) {
+            return true;
+        }
+        if (ch == 0xFF07 || ch == 0xFF0C) {
+            return true;
+        }
+        if (ch == 0xFF1A || ch == 0xFF1B) {
+            return true;
+        }
+        if (ch == 0xFF1F || ch == 0xFF61) {
+            return true;
+        }
+        if (ch == 0xFF0E) {
+            return true;
+        }
+        if (ch == 0xFF65) {
+            return true;
+        }
+
+        return false;
+    }
+
+    public static boolean isEnPunc(char ch) {
+        if (0x21 <= ch && ch <= 0x22) {
+            return true;
+        }
+        if (ch == 0x27 || ch == 0x2C) {
+            return true;
+        }
+        if (ch == 0x2E || ch == 0x3A) {
+            return true;
+        }
+        if (ch == 0x3B || ch == 0x3F) {
+            return true;
+        }
+
+        return false;
+    }
+
+    public static boolean isCjkPunc(char ch) {
+        if (0x3001 <= ch && ch <= 0x3003) {
+            return true;
+        }
+        if (0x301D <= ch && ch <= 0x301F) {
+            return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,148 @@
+package com.liwenwei.pinyintextview;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide pool of token text and pinyin strings.
+ * <p>
+ * Real texts repeat a small vocabulary heavily, like "的/de", "是/shì" and punctuation.
+ * {@link PinyinTextView} and {@link PinyinTextModel} intern the strings of the tokens they own
+ * here, so they share one instance of every distinct string and the duplicates are freed. The
+ * tokens passed to a view are copied, their strings are freed once the caller drops them too. The
+ * pool only holds weak references, a string is dropped as soon as nothing uses it anymore. The strings are owned by the tokens, so the pool is not in the budget
+ * of {@link PinyinMemoryManager}: dropping it would free nothing.
+ */
+public final class TokenStringPool {
+
+    /**
+     * Approximate size of a String object without its chars, object header, fields and array header
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    private static final Map<String, WeakReference<String>> sPool = new WeakHashMap<>();
+    // size of the duplicates dropped by the views alive, a view is dropped with its entry
+    private static final Map<Object, Long> sSharedBytes = new WeakHashMap<>();
+
+    private static long sHitCount;
+    private static long sMissCount;
+
+    private TokenStringPool() {
+    }
+
+    /**
+     * Get the pooled instance equal to the string, the string itself is pooled if there is none.
+     *
+     * @param s string to intern, may be null
+     * @return the pooled string, null if s is null
+     */
+    public static String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        synchronized (sPool) {
+            WeakReference<String> ref = sPool.get(s);
+            String pooled = ref == null ? null : ref.get();
+            if (pooled != null) {
+                if (pooled != s) {
+                    sHitCount++;
+                }
+                return pooled;
+            }
+            sPool.put(s, new WeakReference<>(s));
+            sMissCount++;
+        }
+        return s;
+    }
+
+    /**
+     * @return count of distinct strings in the pool
+     */
+    public static int size() {
+        synchronized (sPool) {
+            return sPool.size();
+        }
+    }
+
+    /**
+     * @return count of strings replaced by a pooled instance
+     */
+    public static long getHitCount() {
+        synchronized (sPool) {
+            return sHitCount;
+        }
+    }
+
+    /**
+     * @return count of strings added to the pool
+     */
+    public static long getMissCount() {
+        synchronized (sPool) {
+            return sMissCount;
+        }
+    }
+
+    /**
+     * Approximate heap saved now, the size of the duplicate strings which the views alive dropped
+     * for a pooled instance. It goes down when a view shows other tokens or is collected. A
+     * duplicate is only freed if nothing else holds it, like a token list kept by the caller.
+     *
+     * @return saved heap in bytes
+     */
+    public static long getSharedBytes() {
+        synchronized (sPool) {
+            long bytes = 0;
+            for (Long owned : sSharedBytes.values()) {
+                bytes += owned;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Set the size of the duplicates dropped by the owner of tokens, it replaces the previous one.
+     */
+    static void setSharedBytes(Object owner, long bytes) {
+        synchronized (sPool) {
+            if (bytes == 0) {
+                sSharedBytes.remove(owner);
+            } else {
+                sSharedBytes.put(owner, bytes);
+            }
+        }
+    }
+
+    /**
+     * Approximate heap of the pooled strings and the pool itself, for diagnostics. Most of it is
+     * the strings, which are used by tokens and stay as long as the tokens do.
+     *
+     * @return heap in bytes
+     */
+    public static long getRetainedBytes() {
+        synchronized (sPool) {
+            long bytes = 0;
+            for (String s : sPool.keySet()) {
+                // the string and the entry with its weak reference
+                bytes += sizeOf(s) + STRING_OVERHEAD;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Drop all pooled strings and reset the hit and miss counts, strings used by tokens are not
+     * affected.
+     */
+    public static void clear() {
+        synchronized (sPool) {
+            sPool.clear();
+            sHitCount = 0;
+            sMissCount = 0;
+        }
+    }
+
+    static long sizeOf(String s) {
+        return STRING_OVERHEAD + 2L * s.length();
+    }
+}
@@ -0,0 +1,174 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chars of {@link AdvanceTable} and the check of the latin chars against a font, with fake fonts
+ * which kern or ligate some pairs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AdvanceTableTest {
+
+    private static final String[] SHAPED_TOKENS = {
+            "AV", "To", "Zhōng", "é", "😀", "abc1", "o'"
+    };
+
+    // text & pinyin of realistic tokens
+    private static final String[][] TOKENS = {
+            {"我们", "wǒ men"}, {"学习", "xué xí"}, {"中文", "zhōng wén"}, {"，", ""},
+            {"绿色", "lǜ sè"}, {"女儿", "nǚ ér"}, {"「", ""}, {"你好", "nǐ hǎo"}, {"」", ""}, {"。", ""}
+    };
+
+    private static final int[] TEXT_SIZES = {24, 42, 57};
+
+    @Test
+    public void monospacedLatinAddsUp() {
+        assertTrue(AdvanceTable.addsUp(new FakeFont(40, null, 0), AdvanceTable.LATIN_CHARS));
+    }
+
+    @Test
+    public void kernedPairDoesNotAddUp() {
+        // "rv" is 2px narrower than its chars
+        assertFalse(AdvanceTable.addsUp(new FakeFont(40, "rv", -2), AdvanceTable.LATIN_CHARS));
+    }
+
+    @Test
+    public void ligatureDoesNotAddUp() {
+        assertFalse(AdvanceTable.addsUp(new FakeFont(40, "fi", -4), AdvanceTable.LATIN_CHARS));
+    }
+
+    @Test
+    public void roundingIsTolerated() {
+        assertTrue(AdvanceTable.addsUp(new FakeFont(40, "ab", 0.1F), AdvanceTable.LATIN_CHARS));
+    }
+
+    @Test
+    public void fixedAdvances() {
+        for (char c : "你好世界。，「」！ｗｏ".toCharArray()) {
+            assertTrue(String.valueOf(c), AdvanceTable.isFixedAdvance(c));
+        }
+        for (char c : "nǐhǎo lǜ nǚ".toCharArray()) {
+            assertFalse(String.valueOf(c), AdvanceTable.isFixedAdvance(c));
+            assertTrue(String.valueOf(c), AdvanceTable.isLatin(c));
+        }
+        for (char c : "AZ1'é́".toCharArray()) {
+            assertFalse(String.valueOf(c), AdvanceTable.isLatin(c));
+        }
+    }
+
+    @Test
+    public void unusualTokensAreShaped() {
+        AdvanceTable table = AdvanceTable.get(null, 42);
+        for (String token : SHAPED_TOKENS) {
+            assertEquals(token, -1, table.measure(token, 0, token.length()), 0);
+        }
+    }
+
+    @Test
+    public void rangesAreMeasured() {
+        AdvanceTable table = AdvanceTable.get(null, 42);
+        String text = "你好，世界";
+        assertEquals(table.measure("你好", 0, 2) + table.measure("，世界", 0, 3),
+                table.measure(text, 0, text.length()), 0.01F);
+        assertEquals(table.measure("好", 0, 1), table.measure(text, 1, 2), 0);
+    }
+
+    @Test
+    public void advancesMatchShaping() {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.LINEAR_TEXT_FLAG);
+        for (int textSize : TEXT_SIZES) {
+            AdvanceTable table = AdvanceTable.get(null, textSize);
+            paint.setTextSize(textSize);
+            for (String[] token : TOKENS) {
+                for (String text : token) {
+                    float width = table.measure(text, 0, text.length());
+                    if (width < 0) {
+                        // shaped by the view, like in MEASURE_SHAPED
+                        assertFalse(text, AdvanceTable.isFixedAdvance(text.charAt(0)));
+                        continue;
+                    }
+                    assertEquals(text + " at " + textSize, Math.ceil(Layout.getDesiredWidth(text, paint)),
+                            Math.ceil(width), 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tokensAreAsWideInBothModes() {
+        PinyinTextView shaped = newView(PinyinTextView.MEASURE_SHAPED);
+        PinyinTextView advances = newView(PinyinTextView.MEASURE_ADVANCES);
+        Rect expected = new Rect();
+        Rect actual = new Rect();
+        for (int i = 0; i < TOKENS.length; i++) {
+            assertTrue(shaped.getTokenBounds(i, expected));
+            assertTrue(advances.getTokenBounds(i, actual));
+            assertEquals(TOKENS[i][0], expected.width(), actual.width(), 1);
+        }
+    }
+
+    @Test
+    public void trimmedTableIsLookedUpAgain() {
+        AdvanceTable table = AdvanceTable.get(null, 42);
+        assertTrue(table.matches(null, 42));
+        PinyinMemoryManager.trimTo(0);
+        // a view holding the trimmed table drops it on its next measure
+        assertFalse(table.matches(null, 42));
+        AdvanceTable shared = AdvanceTable.get(null, 42);
+        assertNotSame(table, shared);
+        assertTrue(shared.matches(null, 42));
+    }
+
+    private static PinyinTextView newView(int measureMode) {
+        List<PinyinTextView.Token> tokens = new ArrayList<>();
+        for (String[] token : TOKENS) {
+            tokens.add(new PinyinTextView.Token(token[0], 0, token[1], 0));
+        }
+        PinyinTextView view = new PinyinTextView(RuntimeEnvironment.application);
+        view.setMeasureMode(measureMode);
+        view.setPinyinTextByTokens(tokens, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        view.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        return view;
+    }
+
+    /**
+     * Every char is half an em wide, one pair is wider or narrower by the extra pixels.
+     */
+    private static final class FakeFont extends Paint {
+        private final String mPair;
+        private final float mExtra;
+
+        FakeFont(float textSize, String pair, float extra) {
+            setTextSize(textSize);
+            mPair = pair;
+            mExtra = extra;
+        }
+
+        @Override
+        public float measureText(char[] text, int index, int count) {
+            float width = count * getTextSize() / 2;
+            if (mPair != null && count == 2 && text[index] == mPair.charAt(0) && text[index + 1] == mPair.charAt(1)) {
+                width += mExtra;
+            }
+            return width;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PinyinTextView#loadTokens(File)} of an annotated file with paragraphs, and
+ * {@link PinyinTextView#loadLayout(File)} of a saved layout.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LoadTokensTest {
+
+    private static final int WIDTH = 1080;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("tokens", ".pytk");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void paragraphsStartNewLines() throws IOException {
+        // 我学习中文。\n\n你好。 like the corpus annotator writes it
+        PinyinTokenFile.Writer writer = new PinyinTokenFile.Writer();
+        try {
+            writer.add("我", "wǒ");
+            writer.add("学习", "xué xí");
+            writer.add("中文", "zhōng wén");
+            writer.add("。", "");
+            writer.add("\n", "");
+            writer.add("\n", "");
+            writer.add("你好", "nǐ hǎo");
+            writer.add("。", "");
+            writer.write(mFile);
+        } finally {
+            writer.close();
+        }
+        PinyinTextView view = new PinyinTextView(RuntimeEnvironment.application);
+        view.loadTokens(mFile);
+        measure(view);
+
+        Rect first = bounds(view, 0);
+        Rect lineBreak = bounds(view, 4);
+        Rect emptyLine = bounds(view, 5);
+        Rect second = bounds(view, 6);
+        // the line break ends the first line without width
+        assertEquals(first.top, lineBreak.top);
+        assertEquals(0, lineBreak.width());
+        // the second break is an empty line, the next paragraph starts on the line after it
+        assertTrue(emptyLine.top > first.top);
+        assertTrue(second.top > emptyLine.top);
+        assertEquals(first.left, second.left);
+        assertEquals(second.top, bounds(view, 7).top);
+    }
+
+    @Test
+    public void widthsOfAnotherMeasureModeAreNotReused() throws IOException {
+        PinyinTextView saved = new PinyinTextView(RuntimeEnvironment.application);
+        saved.setPinyinTextByTokens(Arrays.asList(new PinyinTextView.Token("中文", 0, "zhōng wén", 0),
+                new PinyinTextView.Token("你好", 0, "nǐ hǎo", 0)), PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        measure(saved);
+        saved.saveLayout(mFile);
+
+        PinyinTextView same = new PinyinTextView(RuntimeEnvironment.application);
+        assertTrue(same.loadLayout(mFile));
+        PinyinTextView other = new PinyinTextView(RuntimeEnvironment.application);
+        other.setMeasureMode(PinyinTextView.MEASURE_ADVANCES);
+        assertFalse(other.loadLayout(mFile));
+    }
+
+    private static void measure(PinyinTextView view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    private static Rect bounds(PinyinTextView view, int index) {
+        Rect bounds = new Rect();
+        assertTrue(view.getTokenBounds(index, bounds));
+        return bounds;
+    }
+}
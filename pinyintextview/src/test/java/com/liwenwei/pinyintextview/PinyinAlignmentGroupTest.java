@@ -0,0 +1,80 @@
+package com.liwenwei.pinyintextview;
+
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Columns of a {@link PinyinAlignmentGroup} made of the widths every member reports.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PinyinAlignmentGroupTest {
+
+    private PinyinAlignmentGroup mGroup;
+    private PinyinTextView mFirst;
+    private PinyinTextView mSecond;
+
+    @Before
+    public void setUp() {
+        mGroup = new PinyinAlignmentGroup();
+        mGroup.setAlignColumns(true);
+        mFirst = new PinyinTextView(RuntimeEnvironment.application);
+        mSecond = new PinyinTextView(RuntimeEnvironment.application);
+        mFirst.setAlignmentGroup(mGroup);
+        mSecond.setAlignmentGroup(mGroup);
+    }
+
+    @Test
+    public void columnsOfReportedWidths() {
+        mGroup.onMemberWidthsMeasured(mFirst, new int[]{10, 20}, 2);
+        mGroup.onMemberWidthsMeasured(mSecond, new int[]{15, 5, 30, 99}, 3);
+        assertArrayEquals(new int[]{15, 20, 30}, mGroup.getColumnWidths());
+
+        // the member shows no tokens in columns anymore
+        mGroup.onMemberWidthsMeasured(mSecond, new int[0], 0);
+        assertArrayEquals(new int[]{10, 20}, mGroup.getColumnWidths());
+
+        mFirst.setAlignmentGroup(null);
+        assertArrayEquals(new int[0], mGroup.getColumnWidths());
+    }
+
+    @Test
+    public void unchangedColumnsAreKept() {
+        mGroup.onMemberWidthsMeasured(mFirst, new int[]{10, 20}, 2);
+        int[] columns = mGroup.getColumnWidths();
+        mGroup.onMemberWidthsMeasured(mSecond, new int[]{5, 20}, 2);
+        assertSame(columns, mGroup.getColumnWidths());
+    }
+
+    @Test
+    public void membersMeasureTheirOwnTokens() {
+        mFirst.setPinyinTextByTokens(tokens("中文"), PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        mSecond.setPinyinTextByTokens(tokens("我学中文"), PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        mFirst.measure(unspecified, unspecified);
+        // the second member is not measured by the first one
+        assertEquals(2, mGroup.getColumnWidths().length);
+
+        mSecond.measure(unspecified, unspecified);
+        assertEquals(4, mGroup.getColumnWidths().length);
+    }
+
+    private static List<PinyinTextView.Token> tokens(String text) {
+        List<PinyinTextView.Token> tokens = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            tokens.add(new PinyinTextView.Token(text.substring(i, i + 1), 0, "pin", 0));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,216 @@
+package com.liwenwei.pinyintextview;
+
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Requests of {@link PinyinTextView#setPinyinTextAsync(String, PinyinTextView.Annotator, int, Executor)},
+ * the jobs are run by hand and delivered by idling the main looper.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PinyinBinderTest {
+
+    private ManualExecutor mExecutor;
+    private CountingAnnotator mAnnotator;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mAnnotator = new CountingAnnotator();
+    }
+
+    @Test
+    public void sameContentIsAnnotatedOnce() {
+        PinyinTextView first = createView();
+        PinyinTextView second = createView();
+        first.setPinyinTextAsync("中文", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        second.setPinyinTextAsync("中文", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        assertEquals(1, mExecutor.jobs.size());
+
+        runAll();
+        assertEquals(1, mAnnotator.calls);
+        assertFalse(first.isPinyinTextPending());
+        assertFalse(second.isPinyinTextPending());
+        assertEquals("中文", first.getText());
+        assertEquals("中文", second.getText());
+    }
+
+    @Test
+    public void stylesOfOtherColorsShareTheJob() {
+        PinyinStyle red = new PinyinStyle.Builder(RuntimeEnvironment.application).setTextColor(0xFFFF0000).build();
+        PinyinStyle blue = red.buildUpon().setTextColor(0xFF0000FF).setPinyinColor(0xFF0000FF).build();
+        PinyinStyle large = red.buildUpon().setTextSize(red.getTextSize() * 2).build();
+        PinyinTextView first = new PinyinTextView(RuntimeEnvironment.application, red);
+        PinyinTextView second = new PinyinTextView(RuntimeEnvironment.application, blue);
+        PinyinTextView third = new PinyinTextView(RuntimeEnvironment.application, large);
+        first.setPinyinTextAsync("中文", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        second.setPinyinTextAsync("中文", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        // the widths of another text size are not shared
+        third.setPinyinTextAsync("中文", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        assertEquals(2, mExecutor.jobs.size());
+
+        runAll();
+        assertEquals(2, mAnnotator.calls);
+        assertEquals("中文", second.getText());
+        assertEquals("中文", third.getText());
+    }
+
+    @Test
+    public void rebindCancelsThePreviousRequest() {
+        PinyinTextView view = createView();
+        view.setPinyinTextAsync("旧的", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        view.setPinyinTextAsync("新的", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        assertTrue(view.isPinyinTextPending());
+        assertEquals("", view.getText());
+
+        runAll();
+        // the cancelled job never annotates
+        assertEquals(1, mAnnotator.calls);
+        assertFalse(view.isPinyinTextPending());
+        assertEquals("新的", view.getText());
+    }
+
+    @Test
+    public void detachCancelsTheRequest() {
+        PinyinTextView view = createView();
+        view.setPinyinTextAsync("分离", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        view.onDetachedFromWindow();
+        assertTrue(view.isPinyinTextPending());
+
+        runAll();
+        assertEquals(0, mAnnotator.calls);
+        assertEquals("", view.getText());
+    }
+
+    @Test
+    public void attachAgainBindsTheRequestAgain() {
+        PinyinTextView view = createView();
+        view.setPinyinTextAsync("缓存", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        view.onDetachedFromWindow();
+        runAll();
+        // re-attached from a cache without being bound again
+        view.onAttachedToWindow();
+        runAll();
+        assertEquals(1, mAnnotator.calls);
+        assertFalse(view.isPinyinTextPending());
+        assertEquals("缓存", view.getText());
+
+        view.onDetachedFromWindow();
+        view.onAttachedToWindow();
+        assertFalse(view.isPinyinTextPending());
+        assertEquals("缓存", view.getText());
+    }
+
+    @Test
+    public void rejectedJobIsNotJoined() {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        PinyinTextView first = createView();
+        try {
+            first.setPinyinTextAsync("拒绝", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, rejecting);
+            fail("Rejected job is started");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+        assertFalse(first.isPinyinTextPending());
+
+        PinyinTextView second = createView();
+        second.setPinyinTextAsync("拒绝", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        assertEquals(1, mExecutor.jobs.size());
+        runAll();
+        assertEquals("拒绝", second.getText());
+    }
+
+    @Test
+    public void cancelOneOfSharedRequests() {
+        PinyinTextView first = createView();
+        PinyinTextView second = createView();
+        first.setPinyinTextAsync("共享", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        second.setPinyinTextAsync("共享", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        first.cancelPinyinTextAsync();
+
+        runAll();
+        assertEquals(1, mAnnotator.calls);
+        assertEquals("", first.getText());
+        assertEquals("共享", second.getText());
+    }
+
+    @Test
+    public void failureEndsAllSharedRequests() {
+        PinyinTextView.Annotator failing = new PinyinTextView.Annotator() {
+            @Override
+            public List<PinyinTextView.Token> annotate(String text) {
+                throw new IllegalStateException("No dictionary");
+            }
+        };
+        PinyinTextView first = createView();
+        PinyinTextView second = createView();
+        first.setPinyinTextAsync("失败", failing, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        second.setPinyinTextAsync("失败", failing, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+
+        // nothing is thrown on the main thread
+        runAll();
+        assertFalse(first.isPinyinTextPending());
+        assertFalse(second.isPinyinTextPending());
+        assertEquals("", first.getText());
+        assertEquals("", second.getText());
+
+        // the failed job is not joined by a new request
+        first.setPinyinTextAsync("失败", mAnnotator, PinyinTextView.TYPE_PINYIN_AND_TEXT, mExecutor);
+        runAll();
+        assertEquals("失败", first.getText());
+    }
+
+    private PinyinTextView createView() {
+        return new PinyinTextView(RuntimeEnvironment.application);
+    }
+
+    private void runAll() {
+        while (!mExecutor.jobs.isEmpty()) {
+            mExecutor.jobs.remove(0).run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> jobs = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            jobs.add(command);
+        }
+    }
+
+    private static final class CountingAnnotator implements PinyinTextView.Annotator {
+        int calls;
+
+        @Override
+        public List<PinyinTextView.Token> annotate(String text) {
+            calls++;
+            List<PinyinTextView.Token> tokens = new ArrayList<>();
+            for (int i = 0; i < text.length(); i++) {
+                tokens.add(new PinyinTextView.Token(text.substring(i, i + 1), 0, "pin", 0));
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PinyinSearchIndexTest {
+
+    private static final String[] QUERIES = {"zhongwen", "zhōngwén", "Zhōng wén", "zhong1wen2", "ZHONG1 WEN2"};
+
+    @Test
+    public void markedTokens() {
+        PinyinSearchIndex index = index(new String[]{"我", "学", "中", "文"}, new String[]{"wǒ", "xué", "zhōng", "wén"});
+        for (String query : QUERIES) {
+            assertMatch(index.search(query), 2, 4);
+        }
+    }
+
+    @Test
+    public void numberedTokens() {
+        PinyinSearchIndex index = index(new String[]{"我", "学", "中", "文"}, new String[]{"wo3", "xue2", "zhong1", "wen2"});
+        for (String query : QUERIES) {
+            assertMatch(index.search(query), 2, 4);
+        }
+    }
+
+    @Test
+    public void numberedWordToken() {
+        PinyinSearchIndex index = index(new String[]{"学", "中文"}, new String[]{"xue2", "zhong1 wen2"});
+        for (String query : QUERIES) {
+            assertMatch(index.search(query), 1, 2);
+        }
+    }
+
+    @Test
+    public void otherToneDoesNotMatch() {
+        PinyinSearchIndex index = index(new String[]{"中", "文"}, new String[]{"zhong1", "wen2"});
+        assertEquals(0, index.search("zhòngwén").getCount());
+        assertEquals(0, index.search("zhong4").getCount());
+        assertMatch(index.search("zhong"), 0, 1);
+    }
+
+    @Test
+    public void umlaut() {
+        PinyinSearchIndex index = index(new String[]{"绿", "女"}, new String[]{"lv4", "nǚ"});
+        assertMatch(index.search("lǜ"), 0, 1);
+        assertMatch(index.search("lv4"), 0, 1);
+        assertMatch(index.search("lv"), 0, 1);
+        assertMatch(index.search("nv3"), 1, 2);
+        assertMatch(index.search("nü"), 1, 2);
+    }
+
+    @Test
+    public void pinyinStartsAtToken() {
+        PinyinSearchIndex index = index(new String[]{"中", "文"}, new String[]{"zhong1", "wen2"});
+        assertEquals(0, index.search("hong").getCount());
+    }
+
+    @Test
+    public void hanzi() {
+        PinyinSearchIndex index = index(new String[]{"中文", "，", "中"}, new String[]{"zhong1 wen2", "", "zhong1"});
+        PinyinSearchIndex.Result result = index.search("中");
+        assertEquals(2, result.getCount());
+        assertEquals(0, result.getTokenStart(0));
+        assertEquals(2, result.getTokenStart(1));
+        assertMatch(index.search("文，"), 0, 2);
+    }
+
+    private static PinyinSearchIndex index(String[] texts, String[] pinyins) {
+        PinyinSearchIndex.Builder builder = new PinyinSearchIndex.Builder(texts.length);
+        for (int i = 0; i < texts.length; i++) {
+            builder.add(texts[i], 0, texts[i].length(), pinyins[i], 0, pinyins[i].length());
+        }
+        return builder.build();
+    }
+
+    private static void assertMatch(PinyinSearchIndex.Result result, int start, int end) {
+        assertEquals(result.getQuery(), 1, result.getCount());
+        assertEquals(result.getQuery(), start, result.getTokenStart(0));
+        assertEquals(result.getQuery(), end, result.getTokenEnd(0));
+    }
+}
@@ -0,0 +1,97 @@
+package com.liwenwei.pinyintextview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PinyinSpan} places the pinyin above the text like {@link PinyinTextView}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PinyinSpanTest {
+
+    private static final int TEXT_SIZE = 40;
+    private static final int PINYIN_TEXT_SIZE = 20;
+    private static final int SPACING = 6;
+
+    @Test
+    public void pinyinIsPlacedLikeTheView() {
+        PinyinStyle style = new PinyinStyle.Builder(RuntimeEnvironment.application)
+                .setTextSize(TEXT_SIZE)
+                .setPinyinTextSize(PINYIN_TEXT_SIZE)
+                .setPinyinTextSpacing(SPACING)
+                .build();
+        PinyinTextView view = new PinyinTextView(RuntimeEnvironment.application, style);
+        view.setPinyinTextByTokens(Collections.singletonList(new PinyinTextView.Token("中", 0, "zhōng", 0)),
+                PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        view.measure(unspecified, unspecified);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        TextCanvas viewCanvas = new TextCanvas();
+        view.draw(viewCanvas);
+
+        PinyinSpan span = new PinyinSpan("zhōng", PINYIN_TEXT_SIZE, 0, SPACING);
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(TEXT_SIZE);
+        Paint.FontMetricsInt fm = new Paint.FontMetricsInt();
+        span.getSize(paint, "中", 0, 1, fm);
+        TextCanvas spanCanvas = new TextCanvas();
+        span.draw(spanCanvas, "中", 0, 1, 0, 0, 100, 200, paint);
+
+        float viewOffset = viewCanvas.getBaseline("中") - viewCanvas.getBaseline("zhōng");
+        float spanOffset = spanCanvas.getBaseline("中") - spanCanvas.getBaseline("zhōng");
+        assertEquals(viewOffset, spanOffset, 0);
+
+        // the line has room for the pinyin, at least as high as a line of the view
+        PinyinMetricsCache.Metrics metrics = style.getMetrics();
+        assertTrue(-fm.ascent >= metrics.textHeight + SPACING + metrics.pinyinHeight);
+        assertTrue(fm.top <= fm.ascent);
+    }
+
+    @Test
+    public void punctuationHasNoPinyin() {
+        PinyinSpan span = new PinyinSpan("，", PINYIN_TEXT_SIZE, 0, SPACING);
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(TEXT_SIZE);
+        Paint.FontMetricsInt fm = new Paint.FontMetricsInt();
+        span.getSize(paint, "，", 0, 1, fm);
+        assertEquals(paint.getFontMetricsInt().ascent, fm.ascent);
+    }
+
+    /**
+     * Records the baseline of every text drawn.
+     */
+    private static final class TextCanvas extends Canvas {
+        private final Map<String, Float> mBaselines = new HashMap<>();
+
+        @Override
+        public void drawText(String text, float x, float y, Paint paint) {
+            mBaselines.put(text, y);
+        }
+
+        @Override
+        public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+            mBaselines.put(text.subSequence(start, end).toString(), y);
+        }
+
+        float getBaseline(String text) {
+            Float baseline = mBaselines.get(text);
+            assertNotNull(text + " is not drawn", baseline);
+            return baseline;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Snapshots of {@link PinyinTextModel} and how a bound {@link PinyinTextView} catches up with them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PinyinTextModelTest {
+
+    @Test
+    public void appendsSinceAVersion() {
+        PinyinTextModel model = new PinyinTextModel(tokens("我学"));
+        long first = model.getSnapshot().getVersion();
+        model.addTokens(tokens("中"));
+        model.addTokens(tokens("文"));
+        PinyinTextModel.Snapshot snapshot = model.getSnapshot();
+        assertTrue(snapshot.isAppendedTo(first));
+        assertTrue(snapshot.isAppendedTo(first + 1));
+        assertEquals("[中, 文]", texts(snapshot.toTokens(2)));
+
+        model.setToken(0, token("你"));
+        assertFalse(model.getSnapshot().isAppendedTo(first));
+        assertFalse(model.getSnapshot().isAppendedTo(snapshot.getVersion()));
+        model.addTokens(tokens("！"));
+        assertTrue(model.getSnapshot().isAppendedTo(snapshot.getVersion() + 1));
+        assertFalse(model.getSnapshot().isAppendedTo(snapshot.getVersion()));
+    }
+
+    @Test
+    public void appendsKeepTheEarlierSnapshots() {
+        PinyinTextModel model = new PinyinTextModel();
+        List<PinyinTextModel.Snapshot> snapshots = new ArrayList<>();
+        // one token at a time past a few chunks
+        for (int i = 0; i < 1000; i++) {
+            model.addTokens(Collections.singletonList(token(String.valueOf(i))));
+            if (i % 99 == 0) {
+                snapshots.add(model.getSnapshot());
+            }
+        }
+        for (int s = 0; s < snapshots.size(); s++) {
+            PinyinTextModel.Snapshot snapshot = snapshots.get(s);
+            assertEquals(s * 99 + 1, snapshot.size());
+            assertEquals(String.valueOf(s * 99), snapshot.getText(snapshot.size() - 1));
+        }
+        try {
+            snapshots.get(0).getText(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        // a replace across two chunks, then appends to it
+        PinyinTextModel.Snapshot appended = model.getSnapshot();
+        model.replaceTokens(250, 260, tokens("中文"));
+        model.addTokens(tokens("。"));
+        PinyinTextModel.Snapshot snapshot = model.getSnapshot();
+        assertEquals(993, snapshot.size());
+        assertEquals("249", snapshot.getText(249));
+        assertEquals("中", snapshot.getText(250));
+        assertEquals("文", snapshot.getText(251));
+        assertEquals("260", snapshot.getText(252));
+        assertEquals("。", snapshot.getText(992));
+        assertEquals("[999, 。]", texts(snapshot.toTokens(991)));
+        assertEquals(1000, appended.size());
+        assertEquals("250", appended.getText(250));
+    }
+
+    @Test
+    public void concurrentAppendsAreAllKept() throws InterruptedException {
+        final PinyinTextModel model = new PinyinTextModel(tokens("我学"));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String text = String.valueOf(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        model.addTokens(Collections.singletonList(token(text)));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        PinyinTextModel.Snapshot snapshot = model.getSnapshot();
+        assertEquals(2 + threads.length * 500, snapshot.size());
+        int[] counts = new int[threads.length];
+        for (int i = 2; i < snapshot.size(); i++) {
+            counts[Integer.parseInt(snapshot.getText(i))]++;
+        }
+        for (int count : counts) {
+            assertEquals(500, count);
+        }
+    }
+
+    @Test
+    public void viewAddsAppendedTokens() {
+        PinyinTextModel model = new PinyinTextModel(tokens("我学"));
+        PinyinTextView view = new PinyinTextView(RuntimeEnvironment.application);
+        view.setModel(model, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        assertEquals("我学", view.getText());
+
+        // the view catches up with the model when it is attached again
+        for (String text : new String[]{"中", "文", "。"}) {
+            model.addTokens(tokens(text));
+            view.onAttachedToWindow();
+            view.onDetachedFromWindow();
+        }
+        assertEquals(5, view.getTokenCount());
+        assertEquals("我学中文。", view.getText());
+
+        // other changes show the snapshot from scratch
+        model.replaceTokens(0, 2, tokens("你"));
+        view.onAttachedToWindow();
+        view.onDetachedFromWindow();
+        assertEquals("你中文。", view.getText());
+
+        // the strings of the other modes are built when the mode changes
+        model.addTokens(tokens("好"));
+        view.onAttachedToWindow();
+        view.onDetachedFromWindow();
+        view.setMode(PinyinTextView.TYPE_PLAIN_TEXT);
+        assertEquals("你中文。好", view.getText());
+        assertEquals(5, view.getTokenCount());
+    }
+
+    private static List<PinyinTextView.Token> tokens(String text) {
+        List<PinyinTextView.Token> tokens = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            tokens.add(token(text.substring(i, i + 1)));
+        }
+        return tokens;
+    }
+
+    private static PinyinTextView.Token token(String text) {
+        return new PinyinTextView.Token(text, 0, "pin", 0);
+    }
+
+    private static String texts(List<PinyinTextView.Token> tokens) {
+        List<String> texts = new ArrayList<>();
+        for (PinyinTextView.Token token : tokens) {
+            texts.add(token.getText());
+        }
+        return texts.toString();
+    }
+}
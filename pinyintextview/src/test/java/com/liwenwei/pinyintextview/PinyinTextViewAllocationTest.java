@@ -0,0 +1,250 @@
+package com.liwenwei.pinyintextview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards measure & draw of {@link PinyinTextView#TYPE_PINYIN_AND_TEXT} against per-frame
+ * allocation and draw call regressions, with realistic 1k and 10k token texts.
+ * <p>
+ * Allocations are read from the HotSpot thread allocation counter, the tests are skipped on JVMs
+ * without it. The bounds leave room for Robolectric's own allocations but don't grow with the
+ * token count or the frame count.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PinyinTextViewAllocationTest {
+
+    private static final String[] TEXTS = {
+            "小", "明", "每天", "早上", "七点", "起床", "，", "然后", "去", "学校", "上课", "。",
+            "他", "最", "喜欢", "的", "课", "是", "中文", "课", "！", "老师", "说", "：",
+            "“", "学习", "汉语", "要", "多", "听", "多", "说", "。", "”"
+    };
+    private static final String[] PINYINS = {
+            "xiǎo", "míng", "měitiān", "zǎoshang", "qīdiǎn", "qǐchuáng", "", "ránhòu", "qù", "xuéxiào", "shàngkè", "",
+            "tā", "zuì", "xǐhuan", "de", "kè", "shì", "zhōngwén", "kè", "", "lǎoshī", "shuō", "",
+            "", "xuéxí", "hànyǔ", "yào", "duō", "tīng", "duō", "shuō", "", ""
+    };
+
+    private static final int WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final int PASSES = 20;
+
+    // a redraw of an unchanged view must not allocate, the bound is Robolectric's noise
+    private static final long MAX_DRAW_BYTES_PER_PASS = 2 * 1024;
+    // a measure with nothing changed keeps the layout, the bound is Robolectric's noise
+    private static final long MAX_MEASURE_BYTES_PER_PASS = 2 * 1024;
+    // playback frames moving the highlight must not allocate, the bound is for all the frames
+    private static final long MAX_PLAYBACK_BYTES = 2 * 1024;
+    private static final int PLAYBACK_WARMUP_FRAMES = 100;
+    // pinyin, text and at most the underline or the background of each token
+    private static final int MAX_DRAW_CALLS_PER_TOKEN = 3;
+
+    private Context mContext;
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void measureAndDraw1kTokens() {
+        checkMeasureAndDraw(createView(tokens(1000)), 1000);
+    }
+
+    @Test
+    public void measureAndDraw10kTokens() {
+        checkMeasureAndDraw(createView(tokens(10000)), 10000);
+    }
+
+    @Test
+    public void measureAndDraw10kPackedTokens() {
+        PinyinTextView view = new PinyinTextView(mContext);
+        int count = 10000;
+        StringBuilder texts = new StringBuilder();
+        StringBuilder pinyins = new StringBuilder();
+        int[] textOffsets = new int[count + 1];
+        int[] pinyinOffsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            texts.append(TEXTS[i % TEXTS.length]);
+            pinyins.append(PINYINS[i % PINYINS.length]);
+            textOffsets[i + 1] = texts.length();
+            pinyinOffsets[i + 1] = pinyins.length();
+        }
+        view.setPinyinText(texts.toString().toCharArray(), textOffsets,
+                pinyins.toString().toCharArray(), pinyinOffsets, null, null);
+        checkMeasureAndDraw(view, count);
+    }
+
+    @Test
+    public void maxLinesBoundsDrawCalls() {
+        PinyinTextView view = createView(tokens(10000));
+        view.setMaxLines(2);
+        view.setEllipsize(true);
+        measureAndLayout(view);
+
+        RecordingCanvas canvas = new RecordingCanvas(new Rect(0, 0, WIDTH, SCREEN_HEIGHT));
+        view.draw(canvas);
+        // 2 lines and the ellipsis, whatever the token count is
+        assertTrue("Draw calls " + canvas.drawCalls, canvas.drawCalls < 200);
+        assertTrue(view.getMeasuredHeight() < SCREEN_HEIGHT / 4);
+    }
+
+    @Test
+    public void highlightPlaybackDoesNotAllocate() {
+        int count = 10000;
+        PinyinTextView view = createView(tokens(count));
+        measureAndLayout(view);
+        long[] timeline = new long[count];
+        for (int i = 0; i < count; i++) {
+            timeline[i] = i * 300L;
+        }
+        view.setHighlightTimeline(timeline);
+        // warm up, the first invalidations may load classes
+        long time = 0;
+        for (int i = 0; i < PLAYBACK_WARMUP_FRAMES; i++, time += 100) {
+            view.setHighlightTime(time);
+        }
+
+        long before = allocatedBytes();
+        for (; time < count * 300L; time += 100) {
+            view.setHighlightTime(time);
+        }
+        long allocated = allocatedBytes() - before;
+        assertEquals(count - 1, view.getHighlightIndex());
+        // about 30k frames, any allocation per frame is far over the bound
+        assertTrue("Playback allocated " + allocated + " bytes", allocated < MAX_PLAYBACK_BYTES);
+    }
+
+    private void checkMeasureAndDraw(PinyinTextView view, int count) {
+        // warm up, measure the token widths and fill the caches
+        measureAndLayout(view);
+        view.draw(new RecordingCanvas(new Rect(0, 0, WIDTH, SCREEN_HEIGHT)));
+
+        long before = allocatedBytes();
+        for (int i = 0; i < PASSES; i++) {
+            view.forceLayout();
+            measureAndLayout(view);
+        }
+        long measureBytes = (allocatedBytes() - before) / PASSES;
+        assertTrue("Measure allocated " + measureBytes + " bytes per pass", measureBytes < MAX_MEASURE_BYTES_PER_PASS);
+
+        RecordingCanvas canvas = new RecordingCanvas(new Rect(0, 0, WIDTH, SCREEN_HEIGHT));
+        view.draw(canvas);
+        int firstDrawCalls = canvas.drawCalls;
+        before = allocatedBytes();
+        for (int i = 0; i < PASSES; i++) {
+            view.draw(canvas);
+        }
+        long drawBytes = (allocatedBytes() - before) / PASSES;
+        assertTrue("Draw allocated " + drawBytes + " bytes per pass", drawBytes < MAX_DRAW_BYTES_PER_PASS);
+
+        // only the tokens in the clip are drawn
+        int visibleTokens = 0;
+        Rect bounds = new Rect();
+        for (int i = 0; i < count; i++) {
+            if (view.getTokenBounds(i, bounds) && bounds.top <= SCREEN_HEIGHT) {
+                visibleTokens++;
+            }
+        }
+        assertTrue(visibleTokens > 0 && visibleTokens < count);
+        assertTrue("Draw calls " + firstDrawCalls + " for " + visibleTokens + " visible tokens",
+                firstDrawCalls <= visibleTokens * MAX_DRAW_CALLS_PER_TOKEN + 1);
+        assertEquals(firstDrawCalls * (PASSES + 1), canvas.drawCalls);
+    }
+
+    private PinyinTextView createView(List<PinyinTextView.Token> tokens) {
+        PinyinTextView view = new PinyinTextView(mContext);
+        view.setPinyinTextByTokens(tokens, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        return view;
+    }
+
+    private static void measureAndLayout(PinyinTextView view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    private static List<PinyinTextView.Token> tokens(int count) {
+        List<PinyinTextView.Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(new PinyinTextView.Token(TEXTS[i % TEXTS.length], 0, PINYINS[i % PINYINS.length], 0));
+        }
+        return tokens;
+    }
+
+    private long allocatedBytes() {
+        return mThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Canvas which counts the draw calls and clips to a screen, nothing is drawn.
+     */
+    private static final class RecordingCanvas extends Canvas {
+        private final Rect mClip;
+        int drawCalls;
+
+        RecordingCanvas(Rect clip) {
+            mClip = clip;
+        }
+
+        @Override
+        public boolean getClipBounds(Rect bounds) {
+            bounds.set(mClip);
+            return true;
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawRect(Rect rect, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+            drawCalls++;
+        }
+    }
+}
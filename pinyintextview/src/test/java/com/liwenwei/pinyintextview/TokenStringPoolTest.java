@@ -0,0 +1,51 @@
+package com.liwenwei.pinyintextview;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TokenStringPoolTest {
+
+    @Before
+    public void setUp() {
+        TokenStringPool.clear();
+    }
+
+    @Test
+    public void viewsShareTheStrings() {
+        List<PinyinTextView.Token> first = tokens();
+        List<PinyinTextView.Token> second = tokens();
+        PinyinTextView firstView = new PinyinTextView(RuntimeEnvironment.application);
+        PinyinTextView secondView = new PinyinTextView(RuntimeEnvironment.application);
+        long before = TokenStringPool.getSharedBytes();
+        firstView.setPinyinTextByTokens(first, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+        secondView.setPinyinTextByTokens(second, PinyinTextView.TYPE_PINYIN_AND_TEXT);
+
+        // the second view drops its copies of "中文" & "zhōngwén"
+        long shared = TokenStringPool.getSharedBytes() - before;
+        assertEquals(TokenStringPool.sizeOf("中文") + TokenStringPool.sizeOf("zhōngwén"), shared);
+        // the tokens of the caller are not changed
+        assertNotSame(first.get(0).getText(), second.get(0).getText());
+
+        // nothing is shared anymore when the view shows other tokens
+        secondView.setPinyinText(new char[0], new int[]{0}, new char[0], new int[]{0}, null, null);
+        assertEquals(before, TokenStringPool.getSharedBytes());
+    }
+
+    private static List<PinyinTextView.Token> tokens() {
+        List<PinyinTextView.Token> tokens = new ArrayList<>();
+        // new instances, not the constants of the class
+        tokens.add(new PinyinTextView.Token(new String("中文"), 0, new String("zhōngwén"), 0));
+        return tokens;
+    }
+}